@@ -188,20 +188,17 @@ public class App {
                 .setSource("Java App")
                 .build();
 
-        var writer = new PricesStreamableFileWriter(
-                write_File, header, (offset, payload) -> {
-
-                    try {
-                        String name = payload.getPrice().getName();
-                        if (name != null && !name.isEmpty()) {
-                            index.insert(name.getBytes("UTF-8"), longToBytesBigE(offset));
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-
+        // Index pages are built on a background thread instead of inline in Write(); records without
+        // a name are not indexed
+        PipelinedIndexer<PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload> indexer = new PipelinedIndexer<PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload>()
+                .AddIndex(index, payload -> {
+                    String name = payload.getPrice().getName();
+                    return name != null && !name.isEmpty() ? name.getBytes(java.nio.charset.StandardCharsets.UTF_8)
+                            : null;
                 });
 
+        var writer = new PricesStreamableFileWriter(write_File, header, indexer);
+
         List<Double> prices = new ArrayList<Double>();
         for (int i = 0; i < 10000; i++) {
             prices.add(100.0 + i);
@@ -241,6 +238,10 @@ public class App {
             totalBytesWritten += bytesWritten;
         }
 
+        System.out.println("Index lag before close: " + indexer.GetLag() + " records");
+
+        // Let the index catch up before the file is sealed
+        indexer.close();
         writer.close();
 
         StreamableProtoFileParser<PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader, PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload> parser = null;
@@ -0,0 +1,156 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Multi-offset lookups shared by the random accessors. Offsets are sorted and
+ * deduplicated, and frames (records, or blocks in a block-compressed file) whose
+ * starts are at most maxGap bytes apart are fetched with one read spanning all of
+ * them. Record lengths are unknown until read, so a span ends tailRead bytes past
+ * its last start; a last frame longer than that costs one more read for the rest.
+ */
+final class BatchedReads {
+
+    // A single coalesced read never spans more than this many bytes
+    static final int MAX_SPAN = 16 * 1024 * 1024;
+
+    interface RangeReader {
+        // Reads from position into dst; returns the bytes read, fewer than dst.length only at the end of the file
+        int read(long position, byte[] dst) throws IOException;
+    }
+
+    private BatchedReads() {
+    }
+
+    // Payloads at offsets (record addresses in a block-compressed file), in the caller's order;
+    // null where an offset points at the file seal
+    static <P> List<P> readPayloads(long[] offsets, boolean blockCompressed, long maxGap, int tailRead,
+            RangeReader reader, Function<byte[], P> protoFactory) throws IOException {
+        if (offsets == null) {
+            throw new IllegalArgumentException("offsets cannot be null");
+        }
+        if (maxGap < 0) {
+            throw new IllegalArgumentException("maxGap cannot be negative");
+        }
+        for (long offset : offsets) {
+            if (offset <= 0) {
+                throw new IllegalArgumentException("Offset cannot be negative");
+            }
+        }
+        long[] unique = sortedDistinct(offsets.clone());
+        List<P> parsed = new ArrayList<>(unique.length);
+        if (blockCompressed) {
+            long[] blockStarts = new long[unique.length];
+            for (int i = 0; i < unique.length; i++) {
+                blockStarts[i] = StreamableProtoFileParser.BlockOffsetOf(unique[i]);
+            }
+            // Addresses sort by block offset first, so blockStarts is already sorted
+            blockStarts = sortedDistinct(blockStarts);
+            ByteBuffer[] frames = readFrames(blockStarts, BlockFormat.BLOCK_HEADER_SIZE, maxGap, tailRead, reader);
+            BlockFormat.Block block = null;
+            int b = -1;
+            for (long address : unique) {
+                long blockOffset = StreamableProtoFileParser.BlockOffsetOf(address);
+                if (b < 0 || blockStarts[b] != blockOffset) {
+                    b++;
+                    block = isSeal(frames[b]) ? null : BlockFormat.decode(blockOffset, frames[b]);
+                }
+                if (block == null) {
+                    parsed.add(null);
+                    continue;
+                }
+                int index = StreamableProtoFileParser.BlockRecordIndexOf(address);
+                if (index >= block.recordCount) {
+                    throw new IOException("No record " + index + " in block at offset " + block.offset);
+                }
+                parsed.add(protoFactory.apply(block.Record(index)));
+            }
+        } else {
+            ByteBuffer[] frames = readFrames(unique, 4, maxGap, tailRead, reader);
+            for (ByteBuffer frame : frames) {
+                if (isSeal(frame)) {
+                    parsed.add(null);
+                    continue;
+                }
+                byte[] data = new byte[frame.remaining() - 4];
+                frame.get(4, data);
+                parsed.add(protoFactory.apply(data));
+            }
+        }
+        List<P> results = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            results.add(parsed.get(Arrays.binarySearch(unique, offset)));
+        }
+        return results;
+    }
+
+    // Reads the frame starting at each of the sorted, distinct starts. A frame begins with its
+    // Int32 body length and is headerSize bytes plus that; the file seal comes back as 4 bytes.
+    static ByteBuffer[] readFrames(long[] starts, int headerSize, long maxGap, int tailRead, RangeReader reader)
+            throws IOException {
+        ByteBuffer[] frames = new ByteBuffer[starts.length];
+        int i = 0;
+        while (i < starts.length) {
+            int j = i + 1;
+            while (j < starts.length && starts[j] - starts[j - 1] <= maxGap && starts[j] - starts[i] <= MAX_SPAN) {
+                j++;
+            }
+            long spanStart = starts[i];
+            byte[] span = new byte[(int) (starts[j - 1] - spanStart) + Math.max(tailRead, headerSize)];
+            int read = reader.read(spanStart, span);
+            for (int k = i; k < j; k++) {
+                int at = (int) (starts[k] - spanStart);
+                if (read - at < 4) {
+                    throw new EOFException("No frame at offset " + starts[k]);
+                }
+                int length = ByteBuffer.wrap(span, at, 4).getInt();
+                if (length == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+                    frames[k] = ByteBuffer.wrap(span, at, 4).slice();
+                    continue;
+                }
+                if (length < 0) {
+                    throw new IOException("Invalid frame length " + length + " at offset " + starts[k]);
+                }
+                int frameSize = headerSize + length;
+                if (at + frameSize <= read) {
+                    frames[k] = ByteBuffer.wrap(span, at, frameSize).slice();
+                    continue;
+                }
+                // Runs past the span; fetch the rest
+                byte[] frame = new byte[frameSize];
+                int have = read - at;
+                System.arraycopy(span, at, frame, 0, have);
+                byte[] rest = new byte[frameSize - have];
+                if (reader.read(starts[k] + have, rest) < rest.length) {
+                    throw new EOFException("Truncated frame at offset " + starts[k]);
+                }
+                System.arraycopy(rest, 0, frame, have, rest.length);
+                frames[k] = ByteBuffer.wrap(frame);
+            }
+            i = j;
+        }
+        return frames;
+    }
+
+    private static boolean isSeal(ByteBuffer frame) {
+        return frame.getInt(0) == StreamableProtoFileParser.FILE_SEAL_MARKER;
+    }
+
+    // Sorts values in place and returns its distinct values
+    private static long[] sortedDistinct(long[] values) {
+        Arrays.sort(values);
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (n == 0 || values[i] != values[n - 1]) {
+                values[n++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+}
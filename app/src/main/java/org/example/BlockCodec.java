@@ -0,0 +1,17 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * Compression codec for the blocks of a block-compressed .binpb file. The id is
+ * written in front of every block so a reader can pick the matching codec from
+ * {@link BlockCodecs}.
+ */
+public interface BlockCodec {
+
+    byte GetId();
+
+    byte[] Compress(byte[] data, int offset, int length) throws IOException;
+
+    byte[] Decompress(byte[] data, int offset, int length, int uncompressedLength) throws IOException;
+}
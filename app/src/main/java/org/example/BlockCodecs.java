@@ -0,0 +1,156 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Built-in block codecs and the id registry readers use to decompress blocks.
+ * Custom codecs can be added with Register as long as their id is unused.
+ */
+public final class BlockCodecs {
+
+    public static final BlockCodec NONE = new BlockCodec() {
+        public byte GetId() {
+            return 0;
+        }
+
+        public byte[] Compress(byte[] data, int offset, int length) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+
+        public byte[] Decompress(byte[] data, int offset, int length, int uncompressedLength) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+    };
+
+    public static final BlockCodec GZIP = new StreamCodec((byte) 1) {
+        OutputStream compressor(OutputStream out) throws IOException {
+            return new GzipCompressorOutputStream(out);
+        }
+
+        InputStream decompressor(InputStream in) throws IOException {
+            return new GzipCompressorInputStream(in);
+        }
+    };
+
+    // lz4-java raw block format; the block header already carries the uncompressed length
+    public static final BlockCodec LZ4 = new BlockCodec() {
+        private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+        public byte GetId() {
+            return 2;
+        }
+
+        public byte[] Compress(byte[] data, int offset, int length) {
+            byte[] out = new byte[compressor.maxCompressedLength(length)];
+            int compressedLength = compressor.compress(data, offset, length, out, 0, out.length);
+            return Arrays.copyOf(out, compressedLength);
+        }
+
+        public byte[] Decompress(byte[] data, int offset, int length, int uncompressedLength) throws IOException {
+            byte[] result = new byte[uncompressedLength];
+            try {
+                int read = decompressor.decompress(data, offset, result, 0, uncompressedLength);
+                if (read != length) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+            } catch (LZ4Exception e) {
+                throw new IOException("Corrupt LZ4 block", e);
+            }
+            return result;
+        }
+    };
+
+    // Needs zstd-jni on the classpath at runtime
+    public static final BlockCodec ZSTD = new StreamCodec((byte) 3) {
+        OutputStream compressor(OutputStream out) throws IOException {
+            return new ZstdCompressorOutputStream(out);
+        }
+
+        InputStream decompressor(InputStream in) throws IOException {
+            return new ZstdCompressorInputStream(in);
+        }
+    };
+
+    private static final ConcurrentHashMap<Byte, BlockCodec> registry = new ConcurrentHashMap<>();
+
+    static {
+        Register(NONE);
+        Register(GZIP);
+        Register(LZ4);
+        Register(ZSTD);
+    }
+
+    private BlockCodecs() {
+    }
+
+    public static void Register(BlockCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec cannot be null");
+        }
+        BlockCodec existing = registry.putIfAbsent(codec.GetId(), codec);
+        if (existing != null && existing != codec) {
+            throw new IllegalArgumentException("A codec with id " + codec.GetId() + " is already registered");
+        }
+    }
+
+    public static BlockCodec ForId(byte id) throws IOException {
+        BlockCodec codec = registry.get(id);
+        if (codec == null) {
+            throw new IOException("Unknown block codec id " + id);
+        }
+        return codec;
+    }
+
+    // Adapts the commons-compress stream implementations to whole-block calls
+    private abstract static class StreamCodec implements BlockCodec {
+        private final byte id;
+
+        StreamCodec(byte id) {
+            this.id = id;
+        }
+
+        abstract OutputStream compressor(OutputStream out) throws IOException;
+
+        abstract InputStream decompressor(InputStream in) throws IOException;
+
+        public byte GetId() {
+            return id;
+        }
+
+        public byte[] Compress(byte[] data, int offset, int length) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, length / 2));
+            try (OutputStream out = compressor(bos)) {
+                out.write(data, offset, length);
+            }
+            return bos.toByteArray();
+        }
+
+        public byte[] Decompress(byte[] data, int offset, int length, int uncompressedLength) throws IOException {
+            byte[] result = new byte[uncompressedLength];
+            try (InputStream in = decompressor(new ByteArrayInputStream(data, offset, length))) {
+                int read = in.readNBytes(result, 0, uncompressedLength);
+                if (read != uncompressedLength) {
+                    throw new IOException("Block decompressed to " + read + " bytes, expected " + uncompressedLength);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoding helpers for block-compressed files. A block is laid out as
+ * [compressed length][codec id][uncompressed length][record count][compressed bytes]
+ * and decompresses to ordinary length-prefixed payload frames.
+ */
+final class BlockFormat {
+
+    static final int BLOCK_HEADER_SIZE = 4 + 1 + 4 + 4;
+
+    private BlockFormat() {
+    }
+
+    // Reads the rest of a block whose compressed length has already been consumed from the stream
+    static Block readBlock(DataInputStream in, long blockOffset, int compressedLength) throws IOException {
+        byte codecId = in.readByte();
+        int uncompressedLength = in.readInt();
+        int recordCount = in.readInt();
+        byte[] compressed = new byte[compressedLength];
+        in.readFully(compressed);
+        return decode(blockOffset, codecId, uncompressedLength, recordCount, compressed, 0, compressedLength);
+    }
+
+    // Decodes a block from its header followed by at least compressedLength bytes
+    static Block decode(long blockOffset, ByteBuffer headerAndBody) throws IOException {
+        int compressedLength = headerAndBody.getInt();
+        byte codecId = headerAndBody.get();
+        int uncompressedLength = headerAndBody.getInt();
+        int recordCount = headerAndBody.getInt();
+        if (headerAndBody.remaining() < compressedLength) {
+            throw new IOException("Truncated block at offset " + blockOffset);
+        }
+        byte[] compressed;
+        int offset;
+        if (headerAndBody.hasArray()) {
+            compressed = headerAndBody.array();
+            offset = headerAndBody.arrayOffset() + headerAndBody.position();
+        } else {
+            compressed = new byte[compressedLength];
+            headerAndBody.duplicate().get(compressed);
+            offset = 0;
+        }
+        return decode(blockOffset, codecId, uncompressedLength, recordCount, compressed, offset, compressedLength);
+    }
+
+    static Block decode(long blockOffset, byte codecId, int uncompressedLength, int recordCount, byte[] compressed,
+            int offset, int length) throws IOException {
+        byte[] data = BlockCodecs.ForId(codecId).Decompress(compressed, offset, length, uncompressedLength);
+        return new Block(blockOffset, data, recordCount);
+    }
+
+    static final class Block {
+        final long offset;
+        final byte[] data;
+        final int recordCount;
+        // Start of each record's length prefix within data
+        private final int[] frameStarts;
+
+        Block(long offset, byte[] data, int recordCount) throws IOException {
+            this.offset = offset;
+            this.data = data;
+            this.recordCount = recordCount;
+            this.frameStarts = new int[recordCount];
+            int pos = 0;
+            for (int i = 0; i < recordCount; i++) {
+                if (pos + 4 > data.length) {
+                    throw new IOException("Corrupt block at offset " + offset);
+                }
+                frameStarts[i] = pos;
+                pos += 4 + lengthAt(pos);
+            }
+            if (pos != data.length) {
+                throw new IOException("Corrupt block at offset " + offset);
+            }
+        }
+
+        byte[] Record(int index) {
+            int start = frameStarts[index];
+            int length = lengthAt(start);
+            byte[] record = new byte[length];
+            System.arraycopy(data, start + 4, record, 0, length);
+            return record;
+        }
+
+        // View of the record's bytes inside the decompressed block, no copy
+        ByteBuffer RecordSlice(int index) {
+            int start = frameStarts[index];
+            return ByteBuffer.wrap(data, start + 4, lengthAt(start)).slice();
+        }
+
+        // Where record index's payload starts within data
+        int RecordStart(int index) {
+            return frameStarts[index] + 4;
+        }
+
+        int RecordLength(int index) {
+            return lengthAt(frameStarts[index]);
+        }
+
+        private int lengthAt(int pos) {
+            return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8)
+                    | (data[pos + 3] & 0xFF);
+        }
+    }
+}
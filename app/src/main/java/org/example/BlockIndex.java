@@ -0,0 +1,59 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Block index written after the seal marker of a block-compressed file:
+ * [block count] followed by [block offset (long)][record count (int)] per block.
+ * It is located through the fixed-size tail [index offset (long)][BLOCK_INDEX_MARKER].
+ */
+public class BlockIndex {
+
+    static final int TAIL_SIZE = 8 + 4;
+
+    private final long[] blockOffsets;
+    private final int[] recordCounts;
+
+    BlockIndex(long[] blockOffsets, int[] recordCounts) {
+        this.blockOffsets = blockOffsets;
+        this.recordCounts = recordCounts;
+    }
+
+    public int GetBlockCount() {
+        return blockOffsets.length;
+    }
+
+    public long GetBlockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    public int GetRecordCount(int block) {
+        return recordCounts[block];
+    }
+
+    static int SerializedSize(int blockCount) {
+        return 4 + blockCount * (8 + 4);
+    }
+
+    // Returns the index start offset recorded in the tail, or -1 if the tail is not a block index tail
+    static long ParseTail(ByteBuffer tail) {
+        long indexOffset = tail.getLong();
+        int marker = tail.getInt();
+        return marker == StreamableProtoFileParser.BLOCK_INDEX_MARKER ? indexOffset : -1;
+    }
+
+    static BlockIndex Parse(ByteBuffer buf) throws IOException {
+        int count = buf.getInt();
+        if (count < 0 || buf.remaining() < count * (8 + 4)) {
+            throw new IOException("Corrupt block index");
+        }
+        long[] offsets = new long[count];
+        int[] counts = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = buf.getLong();
+            counts[i] = buf.getInt();
+        }
+        return new BlockIndex(offsets, counts);
+    }
+}
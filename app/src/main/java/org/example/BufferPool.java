@@ -0,0 +1,179 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed number of page frames cached in front of a file. A page is pinned while in use
+ * and cannot be evicted until unpinned; when a frame is needed, CLOCK picks an unpinned
+ * page that has not been touched since the hand last passed it. Modified pages are
+ * marked dirty and only written back when evicted or on flush(). Not thread-safe.
+ */
+final class BufferPool {
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int capacity;
+    private final ByteBuffer[] frames;
+    private final long[] pageIds;
+    private final int[] pins;
+    private final boolean[] dirty;
+    private final boolean[] referenced;
+    private final Map<Long, Integer> table = new HashMap<>();
+    // Frames handed out so far; they are allocated on first use
+    private int used = 0;
+    private int hand = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long writeBacks = 0;
+
+    BufferPool(FileChannel channel, int pageSize, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.capacity = capacity;
+        this.frames = new ByteBuffer[capacity];
+        this.pageIds = new long[capacity];
+        this.pins = new int[capacity];
+        this.dirty = new boolean[capacity];
+        this.referenced = new boolean[capacity];
+    }
+
+    // The page's frame, read from the file if it is not cached; stays resident until unpinned
+    ByteBuffer pin(long pageId) throws IOException {
+        Integer cached = table.get(pageId);
+        if (cached != null) {
+            hits++;
+            return pinFrame(cached);
+        }
+        misses++;
+        int frame = claimFrame(pageId);
+        ByteBuffer buf = frames[frame];
+        buf.clear();
+        long offset = pageId * pageSize;
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                break;
+            }
+        }
+        // Past the end of the file the page reads as zeros
+        Arrays.fill(buf.array(), buf.position(), pageSize, (byte) 0);
+        return pinFrame(frame);
+    }
+
+    // Frame for a page that is new to the file: zeroed and dirty, without a read
+    ByteBuffer pinNew(long pageId) throws IOException {
+        Integer cached = table.get(pageId);
+        int frame = cached != null ? cached : claimFrame(pageId);
+        ByteBuffer buf = frames[frame];
+        Arrays.fill(buf.array(), (byte) 0);
+        dirty[frame] = true;
+        return pinFrame(frame);
+    }
+
+    void unpin(long pageId) {
+        Integer frame = table.get(pageId);
+        if (frame == null || pins[frame] == 0) {
+            throw new IllegalStateException("Page " + pageId + " is not pinned");
+        }
+        pins[frame]--;
+    }
+
+    void markDirty(long pageId) {
+        Integer frame = table.get(pageId);
+        if (frame == null) {
+            throw new IllegalStateException("Page " + pageId + " is not cached");
+        }
+        dirty[frame] = true;
+    }
+
+    // Writes every dirty page back, in page order; pages stay cached
+    void flush() throws IOException {
+        List<Integer> toWrite = new ArrayList<>();
+        for (int i = 0; i < used; i++) {
+            if (dirty[i]) {
+                toWrite.add(i);
+            }
+        }
+        toWrite.sort((a, b) -> Long.compare(pageIds[a], pageIds[b]));
+        for (int frame : toWrite) {
+            writeBack(frame);
+        }
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    long writeBacks() {
+        return writeBacks;
+    }
+
+    private ByteBuffer pinFrame(int frame) {
+        pins[frame]++;
+        referenced[frame] = true;
+        ByteBuffer buf = frames[frame];
+        buf.clear();
+        return buf;
+    }
+
+    // A frame for pageId: an unused one while the pool is filling up, otherwise the CLOCK victim
+    private int claimFrame(long pageId) throws IOException {
+        int frame;
+        if (used < capacity) {
+            frame = used++;
+            frames[frame] = ByteBuffer.allocate(pageSize);
+        } else {
+            frame = victim();
+            if (dirty[frame]) {
+                writeBack(frame);
+            }
+            table.remove(pageIds[frame]);
+        }
+        pageIds[frame] = pageId;
+        pins[frame] = 0;
+        dirty[frame] = false;
+        table.put(pageId, frame);
+        return frame;
+    }
+
+    private int victim() {
+        // One sweep clears every reference bit, so finding nothing in two means every frame is pinned
+        for (int step = 0; step < 2 * capacity; step++) {
+            int frame = hand;
+            hand = (hand + 1) % capacity;
+            if (pins[frame] > 0) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            return frame;
+        }
+        throw new IllegalStateException("All " + capacity + " buffer pool pages are pinned");
+    }
+
+    private void writeBack(int frame) throws IOException {
+        ByteBuffer buf = frames[frame].duplicate();
+        buf.clear();
+        long offset = pageIds[frame] * pageSize;
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+        dirty[frame] = false;
+        writeBacks++;
+    }
+}
@@ -0,0 +1,314 @@
+package org.example;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Multi-producer variant of {@link StreamableProtoFileWriter}, producing the same file layout.
+ *
+ * Producer threads serialize their payloads in parallel into slots of a shared ring buffer.
+ * Each one reserves its file offset from a lock-free counter and publishes the slot; a single
+ * consumer thread copies published records into a staging buffer and writes them at their
+ * reserved positions. Offsets handed to onWriteCallback are therefore exactly where the bytes
+ * land, although records from different producers may be interleaved in any order.
+ *
+ * onWriteCallback runs on the producer threads and must be thread-safe. A Write() racing with
+ * Seal() or close() either lands before the seal marker or throws IOException; Seal() waits for
+ * the writes already under way to publish their records.
+ */
+public class ConcurrentStreamableProtoFileWriter<H extends com.google.protobuf.GeneratedMessageV3, P extends com.google.protobuf.GeneratedMessageV3>
+        implements AutoCloseable {
+
+    public static final int DEFAULT_RING_SIZE = 256;
+    static final int STAGING_BUFFER_SIZE = 1024 * 1024;
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final FileChannel channel;
+    private final BiConsumer<Long, P> onWriteCallback;
+    private final Slot[] ring;
+    private final int mask;
+    // Next ring sequence to hand out to a producer
+    private final AtomicLong claimSequence = new AtomicLong(0);
+    // Next free file offset
+    private final AtomicLong writeOffset = new AtomicLong(0);
+    // Per slot: the sequence that was last published into it
+    private final AtomicLongArray published;
+    // Sequences below this have been copied out of the ring and their slots may be reused
+    private final AtomicLong consumedSequence = new AtomicLong(0);
+    // Sequences below this have been written to the channel
+    private final AtomicLong flushedSequence = new AtomicLong(0);
+    private final Thread consumer;
+    // Writes that got past the sealed check and have not yet published their record
+    private final AtomicInteger activeWriters = new AtomicInteger();
+    private volatile boolean sealed = false;
+    private volatile boolean draining = false;
+    private volatile IOException failure;
+
+    public ConcurrentStreamableProtoFileWriter(String file, H header)
+            throws FileNotFoundException, IOException, IllegalArgumentException {
+        this(file, header, null, DEFAULT_RING_SIZE);
+    }
+
+    public ConcurrentStreamableProtoFileWriter(String file, H header, BiConsumer<Long, P> onWriteCallback)
+            throws FileNotFoundException, IOException, IllegalArgumentException {
+        this(file, header, onWriteCallback, DEFAULT_RING_SIZE);
+    }
+
+    // onWriteCallback is called on whichever producer thread wrote the record, concurrently with other
+    // producers, so it must be thread-safe. OnDiskBPlusTree.insert and PipelinedIndexer are; anything
+    // else needs its own synchronization.
+    public ConcurrentStreamableProtoFileWriter(String file, H header, BiConsumer<Long, P> onWriteCallback,
+            int ringSize) throws FileNotFoundException, IOException, IllegalArgumentException {
+        if (file == null) {
+            throw new IllegalArgumentException("File path cannot be null");
+        }
+        if (header == null) {
+            throw new IllegalArgumentException("Header cannot be null");
+        }
+        if (!file.endsWith(".binpb")) {
+            throw new IllegalArgumentException("File must end with .binpb");
+        }
+        if (ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("ringSize must be a power of two");
+        }
+        this.onWriteCallback = onWriteCallback;
+        this.ring = new Slot[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            this.ring[i] = new Slot();
+        }
+        this.mask = ringSize - 1;
+        this.published = new AtomicLongArray(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            this.published.set(i, -1);
+        }
+
+        this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        int headerLength = header.getSerializedSize();
+        byte[] headerBytes = new byte[8 + headerLength];
+        putInt(headerBytes, 0, StreamableProtoFileParser.MAGIC_BYTE);
+        putInt(headerBytes, 4, headerLength);
+        CodedOutputStream headerOut = CodedOutputStream.newInstance(headerBytes, 8, headerLength);
+        header.writeTo(headerOut);
+        headerOut.checkNoSpaceLeft();
+        writeFully(ByteBuffer.wrap(headerBytes), 0);
+        this.writeOffset.set(headerBytes.length);
+
+        this.consumer = new Thread(this::consumeLoop, "streamable-proto-writer-consumer");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    // Safe to call from any number of threads concurrently, including while another thread seals
+    public int Write(P payload) throws IOException {
+        // Counted before the check: Seal() sets sealed before it waits for the count to drain, so
+        // either this write sees sealed or Seal() waits for it
+        activeWriters.incrementAndGet();
+        long offset;
+        int payloadLength;
+        try {
+            if (sealed) {
+                throw new IOException("File is sealed");
+            }
+            throwIfFailed();
+            payloadLength = payload.getSerializedSize();
+            offset = publish(payload, payloadLength);
+        } finally {
+            activeWriters.decrementAndGet();
+        }
+
+        if (this.onWriteCallback != null) {
+            this.onWriteCallback.accept(offset, payload);
+        }
+        return payloadLength;
+    }
+
+    // Claims a slot, serializes payload into it, reserves its file offset and publishes it
+    private long publish(P payload, int payloadLength) throws IOException {
+        int frameLength = 4 + payloadLength;
+
+        long sequence = claimSequence.getAndIncrement();
+        int index = (int) (sequence & mask);
+        int idle = 0;
+        while (sequence - ring.length >= consumedSequence.get()) {
+            throwIfFailed();
+            idle = idle(idle);
+        }
+
+        Slot slot = ring[index];
+        try {
+            if (slot.buffer.length < frameLength) {
+                slot.buffer = new byte[frameLength];
+            }
+            putInt(slot.buffer, 0, payloadLength);
+            CodedOutputStream slotOut = CodedOutputStream.newInstance(slot.buffer, 4, payloadLength);
+            payload.writeTo(slotOut);
+            slotOut.checkNoSpaceLeft();
+        } catch (IOException | RuntimeException e) {
+            // Publish an empty slot so the consumer does not wait on this sequence forever
+            slot.length = 0;
+            published.set(index, sequence);
+            throw e;
+        }
+
+        long offset = writeOffset.getAndAdd(frameLength);
+        slot.offset = offset;
+        slot.length = frameLength;
+        published.set(index, sequence);
+        return offset;
+    }
+
+    // Blocks until every Write() that returned before this call has been handed to the file channel
+    public void Flush() throws IOException {
+        long target = claimSequence.get();
+        int idle = 0;
+        while (flushedSequence.get() < target) {
+            throwIfFailed();
+            idle = idle(idle);
+        }
+        throwIfFailed();
+    }
+
+    // Seal the file
+    public void Seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        // Writes that passed the sealed check still claim a sequence and an offset; the consumer
+        // must see them before it stops, and the seal marker goes after them
+        int idle = 0;
+        while (activeWriters.get() > 0) {
+            idle = idle(idle);
+        }
+        draining = true;
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sealing", e);
+        }
+        throwIfFailed();
+        byte[] seal = new byte[4];
+        putInt(seal, 0, StreamableProtoFileParser.FILE_SEAL_MARKER);
+        writeFully(ByteBuffer.wrap(seal), writeOffset.get());
+    }
+
+    public void close() throws Exception {
+        try {
+            Seal();
+        } finally {
+            if (consumer.isAlive()) {
+                draining = true;
+                consumer.join();
+            }
+            channel.close();
+        }
+    }
+
+    private void consumeLoop() {
+        ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_BUFFER_SIZE);
+        long stagingOffset = -1;
+        long next = 0;
+        int idle = 0;
+        try {
+            while (true) {
+                int index = (int) (next & mask);
+                if (published.get(index) == next) {
+                    Slot slot = ring[index];
+                    if (slot.length == 0) {
+                        next++;
+                        consumedSequence.set(next);
+                        continue;
+                    }
+                    boolean contiguous = stagingOffset >= 0 && stagingOffset + staging.position() == slot.offset;
+                    if (!contiguous || staging.remaining() < slot.length) {
+                        stagingOffset = writeStaging(staging, stagingOffset);
+                        flushedSequence.set(next);
+                    }
+                    if (slot.length > staging.capacity()) {
+                        writeFully(ByteBuffer.wrap(slot.buffer, 0, slot.length), slot.offset);
+                    } else {
+                        if (stagingOffset < 0) {
+                            stagingOffset = slot.offset;
+                        }
+                        staging.put(slot.buffer, 0, slot.length);
+                    }
+                    next++;
+                    consumedSequence.set(next);
+                    idle = 0;
+                    continue;
+                }
+                // Nothing new to copy: push out what we have so Flush() and Seal() make progress
+                if (staging.position() > 0) {
+                    stagingOffset = writeStaging(staging, stagingOffset);
+                }
+                flushedSequence.set(next);
+                if (draining && next == claimSequence.get()) {
+                    return;
+                }
+                idle = idle(idle);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    // Writes the staged bytes at their reserved position and resets the staging buffer
+    private long writeStaging(ByteBuffer staging, long stagingOffset) throws IOException {
+        if (staging.position() > 0) {
+            staging.flip();
+            writeFully(staging, stagingOffset);
+            staging.clear();
+        }
+        return -1;
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Background write failed", failure);
+        }
+    }
+
+    // Spin briefly, then back off by parking
+    private static int idle(int idle) {
+        if (idle < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+
+    private static void putInt(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 24);
+        buf[pos + 1] = (byte) (value >>> 16);
+        buf[pos + 2] = (byte) (value >>> 8);
+        buf[pos + 3] = (byte) value;
+    }
+
+    private static class Slot {
+        byte[] buffer = new byte[0];
+        int length;
+        long offset;
+    }
+}
@@ -40,29 +40,17 @@ public class DescriptorBasedStreamableProtoFileParser {
 
     public class StreamablePayloadEnumerator implements AutoCloseable {
 
-        private boolean sealReached = false;    
-
         private final DataInputStream fi;
+        private final PayloadFrameReader reader;
         private DynamicMessage header;
         private Descriptor payloadDescriptor;
         private StreamablePayloadEnumerator(DataInputStream fi, Descriptor headerDescriptor, Descriptor payloadDescriptor) throws IOException, InvalidProtocolBufferException {
             
             this.payloadDescriptor = payloadDescriptor;
             this.fi = fi;
-
-            int magicByte = fi.readInt();
-
-            if (magicByte != StreamableProtoFileParser.MAGIC_BYTE) {
-                throw new IOException("Invalid magic byte");
-            }
-
-            int headerLength = fi.readInt();
-
-            byte[] headerBytes = new byte[headerLength];
-            
-            fi.read(headerBytes);
+            this.reader = new PayloadFrameReader(fi);
             
-            this.header  = DynamicMessage.parseFrom(headerDescriptor, headerBytes);
+            this.header  = DynamicMessage.parseFrom(headerDescriptor, reader.GetHeaderBytes());
 
         }
 
@@ -71,26 +59,8 @@ public class DescriptorBasedStreamableProtoFileParser {
         }
 
         public DynamicMessage GetNextPayload() throws IOException,InvalidProtocolBufferException {
-            if (sealReached) {
-                return null;
-            }
-            if (this.fi.available() > 0) {
-                
-                int length = this.fi.readInt();
-
-                if (length == StreamableProtoFileParser.FILE_SEAL_MARKER) {
-                    sealReached = true;
-                    return null;
-                }
-
-                byte[] data = new byte[length];
-                this.fi.read(data);
-                return  DynamicMessage.parseFrom(this.payloadDescriptor, data);
-            }
-            else if (!sealReached) {
-                throw new IOException("This file was not properly sealed! This suggests that the file was not fully written.");
-            }
-            return null;
+            byte[] data = reader.next();
+            return data != null ? DynamicMessage.parseFrom(this.payloadDescriptor, data) : null;
         }
 
         public void close() throws Exception {
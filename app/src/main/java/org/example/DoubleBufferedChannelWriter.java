@@ -0,0 +1,189 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Write side of the async writer mode. Callers copy bytes into one of two
+ * direct buffers while a dedicated I/O thread drains the other one to the
+ * underlying channel, so a slow disk only stalls the producer once both
+ * buffers are full.
+ */
+class DoubleBufferedChannelWriter implements GatheringByteChannel {
+
+    private final WritableByteChannel channel;
+    private final Object lock = new Object();
+    private final Thread ioThread;
+
+    // Owned by the producer
+    private ByteBuffer active;
+    // Guarded by lock: the buffer the I/O thread is draining, and the one that is free
+    private ByteBuffer inFlight;
+    private ByteBuffer spare;
+    private IOException failure;
+    private boolean closing = false;
+    private boolean open = true;
+    private long producerStalls = 0;
+
+    DoubleBufferedChannelWriter(WritableByteChannel channel, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.channel = channel;
+        this.active = ByteBuffer.allocateDirect(bufferSize);
+        this.spare = ByteBuffer.allocateDirect(bufferSize);
+        this.ioThread = new Thread(this::drainLoop, "streamable-proto-writer-io");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (!active.hasRemaining()) {
+                handOff();
+            }
+            int n = Math.min(active.remaining(), src.remaining());
+            active.put(active.position(), src, src.position(), n);
+            active.position(active.position() + n);
+            src.position(src.position() + n);
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    // Blocks until everything written so far has reached the channel
+    void flush() throws IOException {
+        if (active.position() > 0) {
+            handOff();
+        }
+        synchronized (lock) {
+            while (inFlight != null && failure == null) {
+                awaitLock();
+            }
+            throwIfFailed();
+        }
+    }
+
+    // Number of times the producer had to wait for the I/O thread to free a buffer
+    long producerStalls() {
+        synchronized (lock) {
+            return producerStalls;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            open = false;
+            synchronized (lock) {
+                closing = true;
+                lock.notifyAll();
+            }
+            try {
+                ioThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void handOff() throws IOException {
+        synchronized (lock) {
+            if (inFlight != null && failure == null) {
+                producerStalls++;
+            }
+            while (inFlight != null && failure == null) {
+                awaitLock();
+            }
+            throwIfFailed();
+            active.flip();
+            inFlight = active;
+            active = spare;
+            spare = null;
+            lock.notifyAll();
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            ByteBuffer buf;
+            synchronized (lock) {
+                while (inFlight == null && !closing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (inFlight == null) {
+                    return;
+                }
+                buf = inFlight;
+            }
+            try {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            synchronized (lock) {
+                buf.clear();
+                spare = buf;
+                inFlight = null;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void awaitLock() throws IOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer I/O thread", e);
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Background write failed", failure);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.example;
+
+/**
+ * When a writer asks the OS to make its data durable (fsync). Shared by
+ * {@link StreamableProtoFileWriter} and {@link OnDiskBPlusTree}; the fsync itself
+ * runs on a background thread and requests that arrive while one is in flight are
+ * folded into the next one.
+ */
+public final class DurabilityPolicy {
+
+    enum Mode {
+        NONE, EVERY_MILLIS, EVERY_RECORDS, ON_BATCH
+    }
+
+    final Mode mode;
+    final long interval;
+
+    private DurabilityPolicy(Mode mode, long interval) {
+        this.mode = mode;
+        this.interval = interval;
+    }
+
+    // Only explicit commits and close() sync the file
+    public static DurabilityPolicy None() {
+        return new DurabilityPolicy(Mode.NONE, 0);
+    }
+
+    // Sync every millis whatever has reached the file since the last sync, from a timer on the sync
+    // thread, so data written just before the writer goes quiet is not left unsynced
+    public static DurabilityPolicy EveryMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("millis must be positive");
+        }
+        return new DurabilityPolicy(Mode.EVERY_MILLIS, millis);
+    }
+
+    // Sync after every records writes
+    public static DurabilityPolicy EveryRecords(long records) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("records must be positive");
+        }
+        return new DurabilityPolicy(Mode.EVERY_RECORDS, records);
+    }
+
+    // Sync at the end of every batch (StreamableProtoFileWriter.WriteAll) and on explicit commits
+    public static DurabilityPolicy OnBatch() {
+        return new DurabilityPolicy(Mode.ON_BATCH, 0);
+    }
+}
@@ -0,0 +1,208 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs fsyncs for a {@link DurabilityPolicy} on a background thread. Callers hand in a
+ * watermark (a file offset, an insert count, ...) once everything up to it has reached
+ * the channel; the thread syncs and then publishes the highest watermark covered, so
+ * any number of requests made during one fsync are satisfied by the next.
+ *
+ * With EveryMillis nobody has to ask: the thread wakes up once the interval has passed
+ * since the last sync, collects a watermark from the owner's {@link Source} and syncs
+ * whatever it covers.
+ */
+class GroupCommitter implements AutoCloseable {
+
+    // Called on the sync thread when an EveryMillis interval expires: moves whatever the owner can
+    // safely hand over to the channel and returns the watermark that is now covered
+    interface Source {
+        long handOff() throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final boolean metaData;
+    private final DurabilityPolicy policy;
+    private final Source source;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    private final Thread syncThread;
+
+    // Owned by the caller: records since the last request, for EveryRecords
+    private long recordsSinceRequest = 0;
+    // Owned by the sync thread
+    private long lastSyncNanos = System.nanoTime();
+
+    // Guarded by lock
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long requested = 0;
+    private volatile long durable = 0;
+    private IOException failure;
+    private boolean closing = false;
+
+    GroupCommitter(FileChannel channel, boolean metaData, DurabilityPolicy policy, Source source, String threadName) {
+        if (policy.mode == DurabilityPolicy.Mode.EVERY_MILLIS && source == null) {
+            throw new IllegalArgumentException("EveryMillis needs a source");
+        }
+        this.channel = channel;
+        this.metaData = metaData;
+        this.policy = policy;
+        this.source = source;
+        this.syncThread = new Thread(this::syncLoop, threadName);
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+    }
+
+    // Called after records have been written; returns true when the policy wants a commit now.
+    // EveryMillis is handled by the sync thread's timer, so it never asks for one here.
+    boolean recordsWritten(long records) {
+        if (policy.mode != DurabilityPolicy.Mode.EVERY_RECORDS) {
+            return false;
+        }
+        recordsSinceRequest += records;
+        return recordsSinceRequest >= policy.interval;
+    }
+
+    boolean commitsOnBatch() {
+        return policy.mode == DurabilityPolicy.Mode.ON_BATCH;
+    }
+
+    // Everything up to watermark has been handed to the channel; the future completes once it is durable
+    CompletableFuture<Long> request(long watermark) throws IOException {
+        recordsSinceRequest = 0;
+        lock.lock();
+        try {
+            throwIfFailed();
+            if (watermark <= durable) {
+                return CompletableFuture.completedFuture(durable);
+            }
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            pending.add(new Pending(watermark, future));
+            requested = Math.max(requested, watermark);
+            wakeUp.signalAll();
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long durableWatermark() {
+        return durable;
+    }
+
+    // Waits for outstanding requests to be synced and stops the thread
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closing = true;
+            wakeUp.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the sync thread", e);
+        }
+        lock.lock();
+        try {
+            throwIfFailed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        long intervalNanos = policy.mode == DurabilityPolicy.Mode.EVERY_MILLIS ? policy.interval * 1_000_000L : 0;
+        while (true) {
+            long target;
+            boolean timerExpired = false;
+            lock.lock();
+            try {
+                while (requested <= durable && !closing) {
+                    if (intervalNanos == 0) {
+                        wakeUp.await();
+                        continue;
+                    }
+                    long remaining = intervalNanos - (System.nanoTime() - lastSyncNanos);
+                    if (remaining <= 0) {
+                        timerExpired = true;
+                        break;
+                    }
+                    wakeUp.awaitNanos(remaining);
+                }
+                if (!timerExpired && requested <= durable) {
+                    return;
+                }
+                target = requested;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            List<Pending> done = new ArrayList<>();
+            try {
+                if (timerExpired) {
+                    target = Math.max(target, source.handOff());
+                }
+                lastSyncNanos = System.nanoTime();
+                if (target <= durable) {
+                    // The timer fired but nothing new reached the channel
+                    continue;
+                }
+                channel.force(metaData);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    done.addAll(pending);
+                    pending.clear();
+                } finally {
+                    lock.unlock();
+                }
+                for (Pending p : done) {
+                    p.future.completeExceptionally(e);
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                durable = target;
+                while (!pending.isEmpty() && pending.peek().watermark <= target) {
+                    done.add(pending.poll());
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Pending p : done) {
+                p.future.complete(target);
+            }
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Background sync failed", failure);
+        }
+    }
+
+    private static class Pending {
+        final long watermark;
+        final CompletableFuture<Long> future;
+
+        Pending(long watermark, CompletableFuture<Long> future) {
+            this.watermark = watermark;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+/**
+ * Channel that streams its bytes to an S3 object. Bytes are collected into part
+ * buffers and every full buffer is uploaded as a multipart upload part on a small
+ * thread pool. At most maxInFlightParts parts are uploading at a time and at most
+ * maxInFlightParts + 1 buffers ever exist, so memory stays bounded however large
+ * the object gets.
+ *
+ * The multipart upload is only created once the first part is full; smaller objects
+ * are written with a single PutObject by complete(). close() without complete()
+ * aborts the upload.
+ */
+class MultipartUploadChannel implements GatheringByteChannel {
+
+    // S3 rejects parts (other than the last) below 5 MB
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final int maxBuffers;
+    private final ExecutorService uploader;
+    private final Object lock = new Object();
+
+    // Guarded by lock: buffers whose upload has finished
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private int allocatedBuffers = 0;
+    private Exception failure;
+
+    private byte[] current;
+    private int currentLength = 0;
+    private String uploadId;
+    private int nextPartNumber = 1;
+    private final List<Future<CompletedPart>> parts = new ArrayList<>();
+    private long bufferStalls = 0;
+    private boolean completed = false;
+    private boolean open = true;
+
+    MultipartUploadChannel(S3Client s3, String bucket, String key, int partSize, int maxInFlightParts) {
+        if (s3 == null) {
+            throw new IllegalArgumentException("s3 cannot be null");
+        }
+        if (bucket == null || key == null) {
+            throw new IllegalArgumentException("bucket/key cannot be null");
+        }
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("partSize must be at least " + MIN_PART_SIZE);
+        }
+        if (maxInFlightParts <= 0) {
+            throw new IllegalArgumentException("maxInFlightParts must be positive");
+        }
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.maxBuffers = maxInFlightParts + 1;
+        this.uploader = Executors.newFixedThreadPool(maxInFlightParts, r -> {
+            Thread t = new Thread(r, "s3-part-uploader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open || completed) {
+            throw new ClosedChannelException();
+        }
+        throwIfFailed();
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (current == null) {
+                current = takeBuffer();
+            }
+            int n = Math.min(partSize - currentLength, src.remaining());
+            src.get(current, currentLength, n);
+            currentLength += n;
+            if (currentLength == partSize) {
+                uploadCurrent();
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    // Uploads whatever is left and makes the object visible
+    void complete() throws IOException {
+        if (completed) {
+            return;
+        }
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        throwIfFailed();
+        try {
+            if (uploadId == null) {
+                byte[] data = current != null ? current : new byte[0];
+                int length = currentLength;
+                s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key).contentLength((long) length).build(),
+                        RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                                "application/octet-stream"));
+            } else {
+                if (currentLength > 0) {
+                    uploadCurrent();
+                }
+                List<CompletedPart> done = new ArrayList<>(parts.size());
+                for (Future<CompletedPart> part : parts) {
+                    done.add(part.get());
+                }
+                done.sort(Comparator.comparing(CompletedPart::partNumber));
+                s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(done).build())
+                        .build());
+            }
+            completed = true;
+        } catch (SdkException | ExecutionException e) {
+            abort();
+            throw new IOException("Upload of s3://" + bucket + "/" + key + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException("Interrupted while completing the upload", e);
+        }
+    }
+
+    // Number of times a write had to wait for a part upload to free a buffer
+    long bufferStalls() {
+        return bufferStalls;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            if (!completed) {
+                abort();
+            }
+        } finally {
+            uploader.shutdownNow();
+        }
+    }
+
+    private void uploadCurrent() throws IOException {
+        if (uploadId == null) {
+            try {
+                uploadId = s3.createMultipartUpload(
+                        CreateMultipartUploadRequest.builder().bucket(bucket).key(key).build()).uploadId();
+            } catch (SdkException e) {
+                throw new IOException("Could not start upload of s3://" + bucket + "/" + key, e);
+            }
+        }
+        byte[] data = current;
+        int length = currentLength;
+        int partNumber = nextPartNumber++;
+        String id = uploadId;
+        current = null;
+        currentLength = 0;
+        parts.add(uploader.submit(() -> {
+            try {
+                String eTag = s3.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(id)
+                        .partNumber(partNumber)
+                        .contentLength((long) length)
+                        .build(),
+                        RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                                "application/octet-stream"))
+                        .eTag();
+                releaseBuffer(data);
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (RuntimeException e) {
+                synchronized (lock) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    lock.notifyAll();
+                }
+                throw e;
+            }
+        }));
+    }
+
+    private byte[] takeBuffer() throws IOException {
+        synchronized (lock) {
+            if (freeBuffers.isEmpty() && allocatedBuffers < maxBuffers) {
+                allocatedBuffers++;
+                return new byte[partSize];
+            }
+            if (freeBuffers.isEmpty()) {
+                bufferStalls++;
+            }
+            while (freeBuffers.isEmpty() && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a part upload", e);
+                }
+            }
+            throwIfFailed();
+            return freeBuffers.poll();
+        }
+    }
+
+    private void releaseBuffer(byte[] buffer) {
+        synchronized (lock) {
+            freeBuffers.add(buffer);
+            lock.notifyAll();
+        }
+    }
+
+    private void abort() {
+        if (uploadId == null) {
+            return;
+        }
+        for (Future<CompletedPart> part : parts) {
+            part.cancel(true);
+        }
+        try {
+            s3.abortMultipartUpload(
+                    AbortMultipartUploadRequest.builder().bucket(bucket).key(key).uploadId(uploadId).build());
+        } catch (SdkException e) {
+            // Best effort; a bucket lifecycle rule cleans up anything left behind
+        }
+        uploadId = null;
+    }
+
+    private void throwIfFailed() throws IOException {
+        synchronized (lock) {
+            if (failure != null) {
+                throw new IOException("Part upload to s3://" + bucket + "/" + key + " failed", failure);
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.nio.*;
 import java.nio.channels.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class OnDiskBPlusTree implements AutoCloseable {
     static final int PAGE_SIZE = 1024 * 4;
@@ -16,49 +17,400 @@ public class OnDiskBPlusTree implements AutoCloseable {
     static final byte NODE_LEAF = 1;
     static final byte NODE_INTERNAL = 2;
     static final byte NODE_OVERFLOW = 3;
+    // Leaf whose entries carry up to MAX_INLINE_VALUES values themselves, with a slot directory
+    // after the header. NODE_LEAF pages, where every key has an overflow chain, are still read and
+    // are rewritten in this format on change.
+    static final byte NODE_LEAF_INLINE = 4;
+    // Internal page with a slot directory after the leftmost child; NODE_INTERNAL pages are still
+    // read and are rewritten in this format on change
+    static final byte NODE_INTERNAL_SLOTTED = 5;
+    // A slot is the unsigned 16-bit page offset of an entry; slot i is entry i in key order, so
+    // lookups binary search the slots instead of walking variable-length entries
+    static final int SLOT_SIZE = 2;
+    // Values a leaf entry holds before they move to an overflow chain
+    static final int MAX_INLINE_VALUES = 4;
+
+    // Memory for cached pages when the constructor is not given a budget
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+    // An insert pins its root-to-leaf path plus the pages a split allocates
+    static final int MIN_CACHE_PAGES = 64;
+    // Pages per mapping in read-only mode; a mapping cannot exceed 2 GB and a page never straddles two
+    static final long MAP_WINDOW_PAGES = Integer.MAX_VALUE / PAGE_SIZE;
+    // Share of each leaf and internal page bulkLoad fills, leaving room for later inserts
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+    // Pages bulkLoad buffers per write
+    static final int BULK_WRITE_PAGES = 256;
 
     RandomAccessFile file;
     FileChannel channel;
+    BufferPool pool;
+    // Pages pinned by the operation in progress, unpinned when it ends
+    final List<Long> pinned = new ArrayList<>();
+    long rootPageId;
+    boolean rootDirty = false;
     long nextPageId = 1;
+    // Set in read-only mode instead of a buffer pool; replaced as a whole when the file grows
+    volatile MappedByteBuffer[] maps;
+    // Inserts made through this instance; the watermark handed to the committer
+    long insertCount = 0;
+    GroupCommitter committer;
 
     public OnDiskBPlusTree(String path) throws IOException {
+        this(path, DurabilityPolicy.None());
+    }
+
+    // Pages are written straight to the file; the policy decides how often they are fsynced
+    public OnDiskBPlusTree(String path, DurabilityPolicy durability) throws IOException {
+        this(path, durability, DEFAULT_CACHE_BYTES);
+    }
+
+    // Pages are cached in a buffer pool of cacheBytes (at least MIN_CACHE_PAGES pages). Modified
+    // pages reach the file when evicted, on checkpoint(), commit() or close().
+    public OnDiskBPlusTree(String path, DurabilityPolicy durability, long cacheBytes) throws IOException {
+        if (durability == null) {
+            throw new IllegalArgumentException("durability cannot be null");
+        }
+        if (cacheBytes <= 0) {
+            throw new IllegalArgumentException("cacheBytes must be positive");
+        }
         boolean newFile = !Files.exists(Paths.get(path));
         file = new RandomAccessFile(path, "rw");
         channel = file.getChannel();
+        pool = new BufferPool(channel, PAGE_SIZE, (int) Math.max(MIN_CACHE_PAGES, cacheBytes / PAGE_SIZE));
         if (newFile) {
             long root = allocateLeafPage();
             writeRootPageId(root);
+            releasePins();
+            checkpoint();
         } else {
             nextPageId = channel.size() / PAGE_SIZE;
+            rootPageId = readRootPageId();
+        }
+        if (durability.mode != DurabilityPolicy.Mode.NONE) {
+            committer = new GroupCommitter(channel, true, durability, this::checkpointForSync, "bplustree-sync");
+        }
+    }
+
+    public static void bulkLoad(String path, Iterator<? extends Map.Entry<byte[], ? extends Iterable<byte[]>>> entries)
+            throws IOException {
+        bulkLoad(path, entries, DEFAULT_FILL_FACTOR);
+    }
+
+    // Builds a new index file from entries sorted by key (strictly ascending, as compareByteArrays
+    // orders them), each with one or more values. Pages are written front to back in one pass: the
+    // overflow pages of keys with more than MAX_INLINE_VALUES values, then leaves filled to fillFactor
+    // as they fill up, then the internal levels bottom-up from the first key of every child. The
+    // result is an ordinary index file.
+    public static void bulkLoad(String path, Iterator<? extends Map.Entry<byte[], ? extends Iterable<byte[]>>> entries,
+            double fillFactor) throws IOException {
+        if (path == null || entries == null) {
+            throw new IllegalArgumentException("path and entries cannot be null");
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("fillFactor must be in (0, 1]");
+        }
+        if (Files.exists(Paths.get(path))) {
+            throw new IllegalArgumentException("Index file already exists: " + path);
+        }
+        try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            BulkWriter writer = new BulkWriter(out);
+            // Page 0 holds the root page id, written last
+            writer.append(ByteBuffer.allocate(PAGE_SIZE));
+
+            int leafBudget = (int) Math.min(PAGE_SIZE - 5, Math.max(5, fillFactor * (PAGE_SIZE - 5)));
+            List<LeafEntry> leaf = new ArrayList<>();
+            int leafSize = 5;
+            // First key and page of every node on the level being built
+            List<InternalEntry> level = new ArrayList<>();
+            byte[] previous = null;
+            while (entries.hasNext()) {
+                Map.Entry<byte[], ? extends Iterable<byte[]>> entry = entries.next();
+                byte[] key = entry.getKey();
+                if (key == null || key.length > MAX_KEY_SIZE) {
+                    throw new IllegalArgumentException("Key is null or exceeds maximum size");
+                }
+                if (previous != null && compareByteArrays(previous, key) >= 0) {
+                    throw new IllegalArgumentException("Keys must be unique and sorted");
+                }
+                previous = key;
+                List<byte[]> values = new ArrayList<>();
+                if (entry.getValue() != null) {
+                    for (byte[] value : entry.getValue()) {
+                        if (value == null || value.length > MAX_VALUE_SIZE) {
+                            throw new IllegalArgumentException("Value is null or exceeds maximum size");
+                        }
+                        values.add(value);
+                    }
+                }
+                if (values.isEmpty()) {
+                    throw new IllegalArgumentException("Every key needs at least one value");
+                }
+                LeafEntry leafEntry;
+                if (values.size() <= MAX_INLINE_VALUES) {
+                    leafEntry = new LeafEntry(key, values);
+                } else {
+                    long[] chain = writer.appendOverflowChain(values);
+                    leafEntry = new LeafEntry(key, chain[0], chain[1]);
+                }
+                int entrySize = leafEntry.size() + SLOT_SIZE;
+                if (!leaf.isEmpty() && leafSize + entrySize > leafBudget) {
+                    level.add(new InternalEntry(leaf.get(0).key, writer.appendLeaf(leaf)));
+                    leaf.clear();
+                    leafSize = 5;
+                }
+                leaf.add(leafEntry);
+                leafSize += entrySize;
+            }
+            // An empty index is a single empty leaf, as for a new file
+            if (!leaf.isEmpty() || level.isEmpty()) {
+                level.add(new InternalEntry(leaf.isEmpty() ? new byte[0] : leaf.get(0).key, writer.appendLeaf(leaf)));
+            }
+
+            int internalBudget = (int) Math.min(PAGE_SIZE - 13, Math.max(13, fillFactor * (PAGE_SIZE - 13)));
+            while (level.size() > 1) {
+                level = writer.appendInternalLevel(level, internalBudget);
+            }
+            writer.flush();
+
+            ByteBuffer root = ByteBuffer.allocate(8);
+            root.putLong(level.get(0).rightChild);
+            root.flip();
+            while (root.hasRemaining()) {
+                out.write(root, root.position());
+            }
+            out.force(true);
         }
     }
 
+    // Appends pages to a new index file in page id order, batching them into large writes
+    private static class BulkWriter {
+        final FileChannel out;
+        final ByteBuffer batch = ByteBuffer.allocate(BULK_WRITE_PAGES * PAGE_SIZE);
+        long nextPageId = 0;
+
+        BulkWriter(FileChannel out) {
+            this.out = out;
+        }
+
+        long append(ByteBuffer page) throws IOException {
+            if (!batch.hasRemaining()) {
+                flush();
+            }
+            page.clear();
+            batch.put(page);
+            return nextPageId++;
+        }
+
+        void flush() throws IOException {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                out.write(batch);
+            }
+            batch.clear();
+        }
+
+        // Returns [head, tail] of a chain holding values, filled as appendToOverflow would fill it
+        long[] appendOverflowChain(List<byte[]> values) throws IOException {
+            long head = -1;
+            ByteBuffer page = null;
+            int count = 0;
+            for (byte[] value : values) {
+                if (page != null && page.position() + 4 + value.length + 8 > PAGE_SIZE) {
+                    // The next page is the one appended right after this one
+                    finishOverflow(page, count, nextPageId + 1);
+                    append(page);
+                    page = null;
+                }
+                if (page == null) {
+                    page = ByteBuffer.allocate(PAGE_SIZE);
+                    page.position(5);
+                    count = 0;
+                    if (head == -1) {
+                        head = nextPageId;
+                    }
+                }
+                page.putInt(value.length);
+                page.put(value);
+                count++;
+            }
+            finishOverflow(page, count, -1L);
+            long tail = append(page);
+            return new long[] { head, tail };
+        }
+
+        private void finishOverflow(ByteBuffer page, int count, long next) {
+            page.put(0, NODE_OVERFLOW);
+            page.putInt(1, count);
+            page.putLong(PAGE_SIZE - 8, next);
+        }
+
+        long appendLeaf(List<LeafEntry> entries) throws IOException {
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+            writeLeafPage(page, entries);
+            return append(page);
+        }
+
+        // Groups children (first key, page) into internal pages and returns the level above
+        List<InternalEntry> appendInternalLevel(List<InternalEntry> children, int budget) throws IOException {
+            // Node boundaries: each node takes as many children as fit the budget, at least two
+            List<Integer> ends = new ArrayList<>();
+            int start = 0;
+            while (start < children.size()) {
+                int end = start + 1;
+                int size = 13;
+                while (end < children.size()
+                        && (end - start < 2 || size + internalEntrySize(children.get(end)) <= budget)) {
+                    size += internalEntrySize(children.get(end));
+                    end++;
+                }
+                ends.add(end);
+                start = end;
+            }
+            // A lone child left at the end needs a separator: take one from the node before it,
+            // or join it when that node only has two
+            int last = ends.size() - 1;
+            if (last > 0 && ends.get(last) - ends.get(last - 1) == 1) {
+                int previousStart = last > 1 ? ends.get(last - 2) : 0;
+                if (ends.get(last - 1) - previousStart > 2) {
+                    ends.set(last - 1, ends.get(last - 1) - 1);
+                } else {
+                    ends.remove(last - 1);
+                }
+            }
+
+            List<InternalEntry> parents = new ArrayList<>();
+            start = 0;
+            for (int end : ends) {
+                ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+                writeInternalPage(page, children.get(start).rightChild, children.subList(start + 1, end));
+                parents.add(new InternalEntry(children.get(start).key, append(page)));
+                start = end;
+            }
+            return parents;
+        }
+    }
+
+    // Opens an existing index for lookups only. Pages are read in place from a memory mapping, so
+    // searches make no syscalls and copy nothing; any number of threads can search without locking.
+    // Pages appended by a writer are mapped when a search first reaches them.
+    public static OnDiskBPlusTree openReadOnly(String path) throws IOException {
+        return new OnDiskBPlusTree(FileChannel.open(Paths.get(path), StandardOpenOption.READ));
+    }
+
+    private OnDiskBPlusTree(FileChannel readOnlyChannel) throws IOException {
+        channel = readOnlyChannel;
+        try {
+            if (channel.size() < 8) {
+                throw new IOException("Not an index file");
+            }
+            remap();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean isReadOnly() {
+        return maps != null;
+    }
+
+    // Writes modified pages and the root page id back to the file, without an fsync
+    public synchronized void checkpoint() throws IOException {
+        if (isReadOnly()) {
+            return;
+        }
+        pool.flush();
+        if (rootDirty) {
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            buf.putLong(rootPageId);
+            buf.flip();
+            channel.write(buf, 0);
+            rootDirty = false;
+        }
+    }
+
+    // Checkpoints, then fsyncs every insert made so far in the background; completes with the durable insert count
+    public synchronized CompletableFuture<Long> commit() throws IOException {
+        if (isReadOnly()) {
+            throw new UnsupportedOperationException("Index is open read-only");
+        }
+        checkpoint();
+        if (committer == null) {
+            committer = new GroupCommitter(channel, true, DurabilityPolicy.None(), null, "bplustree-sync");
+        }
+        return committer.request(insertCount);
+    }
+
+    // EveryMillis source: runs on the sync thread once the interval expires
+    private synchronized long checkpointForSync() throws IOException {
+        checkpoint();
+        return insertCount;
+    }
+
+    // Number of inserts made through this instance that are known to be on stable storage
+    public long durableInsertCount() {
+        return committer != null ? committer.durableWatermark() : 0;
+    }
+
+    // Page requests served from the buffer pool, and those that had to read the file
+    public synchronized long cacheHits() {
+        return pool != null ? pool.hits() : 0;
+    }
+
+    public synchronized long cacheMisses() {
+        return pool != null ? pool.misses() : 0;
+    }
+
     @Override
     public void close() throws IOException {
-        if (channel != null) {
-            channel.force(true);
-            channel.close();
+        GroupCommitter committer;
+        synchronized (this) {
+            if (channel != null && channel.isOpen()) {
+                checkpoint();
+            }
+            committer = this.committer;
         }
-        if (file != null) {
-            file.close();
+        // Without the lock: an EveryMillis sync may be waiting for it to checkpoint
+        if (committer != null) {
+            committer.close();
+        }
+        synchronized (this) {
+            if (channel != null) {
+                if (!isReadOnly()) {
+                    channel.force(true);
+                }
+                channel.close();
+            }
+            if (file != null) {
+                file.close();
+            }
         }
     }
 
-    public void insert(byte[] key, byte[] value) throws IOException {
+    public synchronized void insert(byte[] key, byte[] value) throws IOException {
         if (key.length > MAX_KEY_SIZE || value.length > MAX_VALUE_SIZE) {
             throw new IllegalArgumentException("Key or value exceeds maximum size");
         }
-        InsertResult result = insertRecursive(getRootPageId(), key, value);
-        if (result != null && result.newRightPage != -1) {
-            long newRoot = allocateInternalPage();
-            ByteBuffer rootBuf = getPage(newRoot);
-            rootBuf.put(0, NODE_INTERNAL);
-            rootBuf.putInt(1, 1);
-            rootBuf.position(5);
-            rootBuf.putLong(result.leftChildOfNewRoot); // leftmost child
-            writeInternalEntry(rootBuf, rootBuf.position(), result.middleKey, result.newRightPage);
-            writePage(newRoot, rootBuf);
-            writeRootPageId(newRoot);
+        if (isReadOnly()) {
+            throw new UnsupportedOperationException("Index is open read-only");
+        }
+        try {
+            InsertResult result = insertRecursive(getRootPageId(), key, value);
+            if (result != null && result.newRightPage != -1) {
+                long newRoot = allocateInternalPage();
+                ByteBuffer rootBuf = getPage(newRoot);
+                writeInternalEntries(rootBuf, result.leftChildOfNewRoot,
+                        List.of(new InternalEntry(result.middleKey, result.newRightPage)));
+                writePage(newRoot, rootBuf);
+                writeRootPageId(newRoot);
+            }
+        } finally {
+            releasePins();
+        }
+        insertCount++;
+        if (committer != null && committer.recordsWritten(1)) {
+            commit();
         }
     }
 
@@ -67,44 +419,55 @@ public class OnDiskBPlusTree implements AutoCloseable {
         byte type = buf.get(0);
         int count = buf.getInt(1);
 
-        if (type == NODE_LEAF) {
+        if (isLeaf(type)) {
             List<LeafEntry> entries = readLeafEntries(buf);
             int idx = findKeyIndex(entries, key);
             if (idx != -1) {
-                // Use tail pointer for fast append
                 LeafEntry entry = entries.get(idx);
-                long newTail = appendToOverflow(entry.overflowTailPage, value);
-                if (newTail != entry.overflowTailPage) {
+                if (entry.values == null) {
+                    // Use tail pointer for fast append
+                    long newTail = appendToOverflow(entry.overflowTailPage, value);
+                    if (newTail == entry.overflowTailPage) {
+                        return null;
+                    }
                     // Update tail pointer if a new page was added
                     entry.overflowTailPage = newTail;
-                    writeLeafEntries(buf, entries);
-                    writePage(pageId, buf);
-                }
-                return null;
-            }
-
-            long overflow = allocateOverflow(value);
-            // Find correct insert position using binary search (no sort needed)
-            int insertPos = 0;
-            int left = 0, right = entries.size() - 1;
-            while (left <= right) {
-                int mid = (left + right) >>> 1;
-                int cmp = compareByteArrays(entries.get(mid).key, key);
-                if (cmp < 0) {
-                    left = mid + 1;
+                } else if (entry.values.size() < MAX_INLINE_VALUES) {
+                    entry.values.add(value);
                 } else {
-                    right = mid - 1;
+                    spillToOverflow(entry, value);
                 }
+            } else {
+                // Find correct insert position using binary search (no sort needed)
+                int insertPos = 0;
+                int left = 0, right = entries.size() - 1;
+                while (left <= right) {
+                    int mid = (left + right) >>> 1;
+                    int cmp = compareByteArrays(entries.get(mid).key, key);
+                    if (cmp < 0) {
+                        left = mid + 1;
+                    } else {
+                        right = mid - 1;
+                    }
+                }
+                insertPos = left;
+                List<byte[]> values = new ArrayList<>(MAX_INLINE_VALUES);
+                values.add(value);
+                entries.add(insertPos, new LeafEntry(key, values));
             }
-            insertPos = left;
-            entries.add(insertPos, new LeafEntry(key, overflow, overflow));
 
             if (estimateLeafSize(entries) <= PAGE_SIZE - 5) {
                 writeLeafEntries(buf, entries);
                 writePage(pageId, buf);
                 return null;
             } else {
-                int splitIndex = entries.size() / 2;
+                // Entries vary in size, so split where the bytes, not the entries, divide evenly
+                int half = estimateLeafSize(entries) / 2;
+                int splitIndex = 1;
+                for (int size = 5 + entries.get(0).size() + SLOT_SIZE; splitIndex < entries.size() - 1
+                        && size < half; splitIndex++) {
+                    size += entries.get(splitIndex).size() + SLOT_SIZE;
+                }
                 List<LeafEntry> leftList = new ArrayList<>(entries.subList(0, splitIndex));
                 List<LeafEntry> rightList = new ArrayList<>(entries.subList(splitIndex, entries.size()));
                 writeLeafEntries(buf, leftList);
@@ -119,7 +482,7 @@ public class OnDiskBPlusTree implements AutoCloseable {
             }
         }
 
-        if (type == NODE_INTERNAL) {
+        if (isInternal(type)) {
             long[] leftmostChild = new long[1];
             List<InternalEntry> entries = readInternalEntries(buf, leftmostChild);
             if (entries.isEmpty()) {
@@ -194,11 +557,19 @@ public class OnDiskBPlusTree implements AutoCloseable {
         if (key.length > MAX_KEY_SIZE) {
             throw new IllegalArgumentException("Key exceeds maximum size");
         }
-        return () -> new Iterator<byte[]>() {
-            long[] overflowPages = findOverflow(getRootPageId(), key);
-            long overflowPage = (overflowPages != null) ? overflowPages[0] : -1;
-            long tailPage = (overflowPages != null) ? overflowPages[1] : -1;
-            ByteBuffer buf = (overflowPage != -1) ? getPage(overflowPage) : null;
+        return () -> {
+            LeafEntry entry = lookup(key);
+            if (entry != null && entry.values != null) {
+                return Collections.unmodifiableList(entry.values).iterator();
+            }
+            return overflowIterator(entry != null ? entry.overflowHeadPage : -1);
+        };
+    }
+
+    // Values of the overflow chain starting at overflowPage; empty for -1
+    private Iterator<byte[]> overflowIterator(long overflowPage) {
+        return new Iterator<byte[]>() {
+            ByteBuffer buf = (overflowPage != -1) ? readPage(overflowPage) : null;
             int valueIndex = 0;
             int valueCount = 0;
             int[] valueOffsets = null;
@@ -235,7 +606,7 @@ public class OnDiskBPlusTree implements AutoCloseable {
                         valid = false;
                         return false;
                     }
-                    buf = getPage(next);
+                    buf = readPage(next);
                     valueIndex = 0;
                     loadOffsets();
                 }
@@ -261,33 +632,31 @@ public class OnDiskBPlusTree implements AutoCloseable {
         };
     }
 
-    // Returns [head, tail] or null if not found
-    private long[] findOverflow(long pageId, byte[] key) {
+    private LeafEntry lookup(byte[] key) {
+        if (isReadOnly()) {
+            return findEntry(getRootPageId(), key);
+        }
+        synchronized (this) {
+            try {
+                return findEntry(getRootPageId(), key);
+            } finally {
+                releasePins();
+            }
+        }
+    }
+
+    // Returns the leaf entry for key, or null if not found
+    private LeafEntry findEntry(long pageId, byte[] key) {
         ByteBuffer buf = getPage(pageId);
         byte type = buf.get(0);
 
-        if (type == NODE_LEAF) {
-            List<LeafEntry> entries = readLeafEntries(buf);
-            int idx = findKeyIndex(entries, key);
-            if (idx != -1) {
-                LeafEntry e = entries.get(idx);
-                return new long[] { e.overflowHeadPage, e.overflowTailPage };
-            }
-            return null;
+        if (isLeaf(type)) {
+            int pos = PageSearch.findLeafEntry(buf, key);
+            return pos != -1 ? readLeafEntry(buf, pos) : null;
         }
 
-        if (type == NODE_INTERNAL) {
-            long[] leftmostChild = new long[1];
-            List<InternalEntry> entries = readInternalEntries(buf, leftmostChild);
-            if (entries.isEmpty()) {
-                throw new IllegalStateException("Internal node has no children");
-            }
-            for (InternalEntry e : entries) {
-                if (compareByteArrays(key, e.key) < 0)
-                    return findOverflow(leftmostChild[0], key);
-                leftmostChild[0] = e.rightChild;
-            }
-            return findOverflow(leftmostChild[0], key);
+        if (isInternal(type)) {
+            return findEntry(PageSearch.findChild(buf, key), key);
         }
 
         throw new IllegalStateException("Unknown page type");
@@ -297,6 +666,8 @@ public class OnDiskBPlusTree implements AutoCloseable {
 
     static class LeafEntry {
         byte[] key;
+        // Values held in the leaf, or null when they are in the overflow chain
+        List<byte[]> values;
         long overflowHeadPage;
         long overflowTailPage;
 
@@ -305,6 +676,25 @@ public class OnDiskBPlusTree implements AutoCloseable {
             this.overflowHeadPage = head;
             this.overflowTailPage = tail;
         }
+
+        LeafEntry(byte[] key, List<byte[]> values) {
+            this.key = key;
+            this.values = values;
+            this.overflowHeadPage = -1;
+            this.overflowTailPage = -1;
+        }
+
+        // Bytes the entry takes in a NODE_LEAF_INLINE page, not counting its slot
+        int size() {
+            int size = 4 + key.length + 1;
+            if (values == null) {
+                return size + 8 + 8;
+            }
+            for (byte[] value : values) {
+                size += 1 + value.length;
+            }
+            return size;
+        }
     }
 
     static class InternalEntry {
@@ -343,55 +733,121 @@ public class OnDiskBPlusTree implements AutoCloseable {
 
     // --- Page Access + Serialization
 
+    // The page's buffer pool frame, pinned until the current operation calls releasePins()
     private ByteBuffer getPage(long pageId) {
-        long offset = pageId * PAGE_SIZE;
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        if (isReadOnly()) {
+            return mappedPage(pageId);
+        }
         try {
-            channel.read(buf, offset);
+            ByteBuffer buf = pool.pin(pageId);
+            pinned.add(pageId);
+            return buf;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        buf.flip();
-        return buf;
     }
 
-    private void writePage(long pageId, ByteBuffer buf) {
-        long offset = pageId * PAGE_SIZE;
-        buf.position(0);
-        buf.limit(PAGE_SIZE);
+    // Frame for a freshly allocated page, zeroed and pinned like getPage
+    private ByteBuffer newPage(long pageId) {
         try {
-            channel.write(buf, offset);
+            ByteBuffer buf = pool.pinNew(pageId);
+            pinned.add(pageId);
+            return buf;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // buf is the page's frame from getPage/newPage; marks it for write-back
+    private void writePage(long pageId, ByteBuffer buf) {
+        pool.markDirty(pageId);
+    }
+
+    // Private copy of a page, for iterators that outlive the operation that read it
+    private ByteBuffer readPage(long pageId) {
+        if (isReadOnly()) {
+            return mappedPage(pageId);
+        }
+        synchronized (this) {
+            try {
+                ByteBuffer copy = ByteBuffer.allocate(PAGE_SIZE);
+                copy.put(getPage(pageId));
+                copy.flip();
+                return copy;
+            } finally {
+                releasePins();
+            }
+        }
+    }
+
+    // A view of the page in the mapping; each caller gets its own position and limit
+    private ByteBuffer mappedPage(long pageId) {
+        MappedByteBuffer[] current = maps;
+        int window = (int) (pageId / MAP_WINDOW_PAGES);
+        int offset = (int) (pageId % MAP_WINDOW_PAGES) * PAGE_SIZE;
+        if (window >= current.length || offset + PAGE_SIZE > current[window].capacity()) {
+            try {
+                current = remap();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (window >= current.length || offset + PAGE_SIZE > current[window].capacity()) {
+                throw new IllegalArgumentException("Page out of bounds");
+            }
+        }
+        return current[window].slice(offset, PAGE_SIZE);
+    }
+
+    // Maps the file as it is now, keeping the windows that are already full
+    private synchronized MappedByteBuffer[] remap() throws IOException {
+        long windowBytes = MAP_WINDOW_PAGES * PAGE_SIZE;
+        long size = channel.size();
+        MappedByteBuffer[] old = maps;
+        MappedByteBuffer[] fresh = new MappedByteBuffer[(int) ((size + windowBytes - 1) / windowBytes)];
+        for (int w = 0; w < fresh.length; w++) {
+            long start = w * windowBytes;
+            long length = Math.min(windowBytes, size - start);
+            if (old != null && w < old.length && old[w].capacity() == length) {
+                fresh[w] = old[w];
+            } else {
+                fresh[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        maps = fresh;
+        return fresh;
+    }
+
+    private void releasePins() {
+        for (long pageId : pinned) {
+            pool.unpin(pageId);
+        }
+        pinned.clear();
+    }
+
     private long getRootPageId() {
-        ByteBuffer buf = ByteBuffer.allocate(8);
-        try {
-            channel.read(buf, 0);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        if (isReadOnly()) {
+            // Re-read on every search so that checkpoints by a writer are picked up
+            return maps[0].getLong(0);
         }
-        buf.flip();
-        return buf.getLong();
+        return rootPageId;
     }
 
     private void writeRootPageId(long pageId) {
+        rootPageId = pageId;
+        rootDirty = true;
+    }
+
+    private long readRootPageId() throws IOException {
         ByteBuffer buf = ByteBuffer.allocate(8);
-        buf.putLong(pageId);
+        channel.read(buf, 0);
         buf.flip();
-        try {
-            channel.write(buf, 0);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return buf.getLong();
     }
 
     private long allocateLeafPage() {
         long id = nextPageId++;
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        buf.put(0, NODE_LEAF);
+        ByteBuffer buf = newPage(id);
+        buf.put(0, NODE_LEAF_INLINE);
         buf.putInt(1, 0);
         writePage(id, buf);
         return id;
@@ -399,8 +855,8 @@ public class OnDiskBPlusTree implements AutoCloseable {
 
     private long allocateInternalPage() {
         long id = nextPageId++;
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        buf.put(0, NODE_INTERNAL);
+        ByteBuffer buf = newPage(id);
+        buf.put(0, NODE_INTERNAL_SLOTTED);
         buf.putInt(1, 0);
         writePage(id, buf);
         return id;
@@ -408,7 +864,7 @@ public class OnDiskBPlusTree implements AutoCloseable {
 
     private long allocateOverflow(byte[] value) {
         long pageId = nextPageId++;
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        ByteBuffer buf = newPage(pageId);
         buf.put(0, NODE_OVERFLOW);
         buf.putInt(1, 1); // value count
         buf.position(5);
@@ -420,6 +876,18 @@ public class OnDiskBPlusTree implements AutoCloseable {
         return pageId;
     }
 
+    // Moves entry's inline values, followed by value, to a new overflow chain
+    private void spillToOverflow(LeafEntry entry, byte[] value) {
+        long head = allocateOverflow(entry.values.get(0));
+        long tail = head;
+        for (int i = 1; i < entry.values.size(); i++) {
+            tail = appendToOverflow(tail, entry.values.get(i));
+        }
+        entry.values = null;
+        entry.overflowHeadPage = head;
+        entry.overflowTailPage = appendToOverflow(tail, value);
+    }
+
     // Returns new tail page id (may be same as input if no new page allocated)
     private long appendToOverflow(long tailPageId, byte[] value) {
         ByteBuffer buf = getPage(tailPageId);
@@ -440,7 +908,7 @@ public class OnDiskBPlusTree implements AutoCloseable {
             return tailPageId;
         } else {
             long newPage = nextPageId++;
-            ByteBuffer newBuf = ByteBuffer.allocate(PAGE_SIZE);
+            ByteBuffer newBuf = newPage(newPage);
             newBuf.put(0, NODE_OVERFLOW);
             newBuf.putInt(1, 1); // value count
             newBuf.position(5);
@@ -459,38 +927,101 @@ public class OnDiskBPlusTree implements AutoCloseable {
     private List<LeafEntry> readLeafEntries(ByteBuffer buf) {
         int count = buf.getInt(1);
         List<LeafEntry> entries = new ArrayList<>();
-        int pos = 5;
+        // Entries follow the slot directory in key order
+        int pos = buf.get(0) == NODE_LEAF_INLINE ? 5 + count * SLOT_SIZE : 5;
         for (int i = 0; i < count; i++) {
-            buf.position(pos);
-            int klen = buf.getInt();
-            byte[] key = new byte[klen];
-            buf.get(key);
-            long head = buf.getLong();
-            long tail = buf.getLong();
-            entries.add(new LeafEntry(key, head, tail));
-            pos = buf.position();
+            entries.add(readLeafEntry(buf, pos));
+            pos += leafEntrySize(buf, pos);
         }
         return entries;
     }
 
+    // Leaves are always written as NODE_LEAF_INLINE
     private void writeLeafEntries(ByteBuffer buf, List<LeafEntry> entries) {
         buf.clear();
-        buf.put(0, NODE_LEAF);
-        buf.putInt(1, entries.size());
-        buf.position(5);
-        for (LeafEntry e : entries) {
-            buf.putInt(e.key.length);
-            buf.put(e.key);
-            buf.putLong(e.overflowHeadPage);
-            buf.putLong(e.overflowTailPage);
+        writeLeafPage(buf, entries);
+    }
+
+    // Writes a NODE_LEAF_INLINE page: [byte type][int count][short slot]*count, then the entries
+    static void writeLeafPage(ByteBuffer page, List<LeafEntry> entries) {
+        page.put(0, NODE_LEAF_INLINE);
+        page.putInt(1, entries.size());
+        page.position(5 + entries.size() * SLOT_SIZE);
+        for (int i = 0; i < entries.size(); i++) {
+            page.putShort(5 + i * SLOT_SIZE, (short) page.position());
+            writeLeafEntry(page, entries.get(i));
+        }
+    }
+
+    static boolean isLeaf(byte type) {
+        return type == NODE_LEAF || type == NODE_LEAF_INLINE;
+    }
+
+    static boolean isInternal(byte type) {
+        return type == NODE_INTERNAL || type == NODE_INTERNAL_SLOTTED;
+    }
+
+    // A NODE_LEAF entry is [int klen][key][long head][long tail]. A NODE_LEAF_INLINE entry is
+    // [int klen][key][byte n] followed by n values of [byte len][value], or, when n is 0, by the
+    // head and tail of the key's overflow chain.
+    static int leafEntrySize(ByteBuffer page, int offset) {
+        int size = 4 + page.getInt(offset);
+        if (page.get(0) == NODE_LEAF) {
+            return size + 8 + 8;
+        }
+        int n = page.get(offset + size++);
+        if (n == 0) {
+            return size + 8 + 8;
+        }
+        for (int i = 0; i < n; i++) {
+            size += 1 + (page.get(offset + size) & 0xFF);
+        }
+        return size;
+    }
+
+    // Decodes the entry at offset of a leaf page of either type, leaving the page's position alone
+    static LeafEntry readLeafEntry(ByteBuffer page, int offset) {
+        int klen = page.getInt(offset);
+        byte[] key = new byte[klen];
+        page.get(offset + 4, key);
+        int pos = offset + 4 + klen;
+        if (page.get(0) == NODE_LEAF_INLINE) {
+            int n = page.get(pos++);
+            if (n > 0) {
+                List<byte[]> values = new ArrayList<>(MAX_INLINE_VALUES);
+                for (int i = 0; i < n; i++) {
+                    byte[] value = new byte[page.get(pos) & 0xFF];
+                    page.get(pos + 1, value);
+                    values.add(value);
+                    pos += 1 + value.length;
+                }
+                return new LeafEntry(key, values);
+            }
+        }
+        return new LeafEntry(key, page.getLong(pos), page.getLong(pos + 8));
+    }
+
+    // Appends e in NODE_LEAF_INLINE format at the page's position
+    static void writeLeafEntry(ByteBuffer page, LeafEntry e) {
+        page.putInt(e.key.length);
+        page.put(e.key);
+        if (e.values == null) {
+            page.put((byte) 0);
+            page.putLong(e.overflowHeadPage);
+            page.putLong(e.overflowTailPage);
+            return;
+        }
+        page.put((byte) e.values.size());
+        for (byte[] value : e.values) {
+            page.put((byte) value.length);
+            page.put(value);
         }
     }
 
     private List<InternalEntry> readInternalEntries(ByteBuffer buf, long[] leftmostChild) {
         int count = buf.getInt(1);
-        int pos = 5;
-        leftmostChild[0] = buf.getLong(pos);
-        pos += 8;
+        leftmostChild[0] = buf.getLong(5);
+        int pos = buf.get(0) == NODE_INTERNAL_SLOTTED ? 13 + count * SLOT_SIZE : 13;
         List<InternalEntry> entries = new ArrayList<>();
         for (int i = 0; i < count; i++) {
             buf.position(pos);
@@ -504,34 +1035,40 @@ public class OnDiskBPlusTree implements AutoCloseable {
         return entries;
     }
 
+    // Internal pages are always written as NODE_INTERNAL_SLOTTED
     private void writeInternalEntries(ByteBuffer buf, long leftmostChild, List<InternalEntry> entries) {
         buf.clear();
-        buf.put(0, NODE_INTERNAL);
-        buf.putInt(1, entries.size());
-        buf.position(5);
-        buf.putLong(leftmostChild);
-        for (InternalEntry e : entries) {
-            buf.putInt(e.key.length);
-            buf.put(e.key);
-            buf.putLong(e.rightChild);
+        writeInternalPage(buf, leftmostChild, entries);
+    }
+
+    // Writes a NODE_INTERNAL_SLOTTED page: [byte type][int count][long leftmost child]
+    // [short slot]*count, then entries of [int klen][key][long right child]
+    static void writeInternalPage(ByteBuffer page, long leftmostChild, List<InternalEntry> entries) {
+        page.put(0, NODE_INTERNAL_SLOTTED);
+        page.putInt(1, entries.size());
+        page.putLong(5, leftmostChild);
+        page.position(13 + entries.size() * SLOT_SIZE);
+        for (int i = 0; i < entries.size(); i++) {
+            InternalEntry e = entries.get(i);
+            page.putShort(13 + i * SLOT_SIZE, (short) page.position());
+            page.putInt(e.key.length);
+            page.put(e.key);
+            page.putLong(e.rightChild);
         }
     }
 
-    private void writeInternalEntry(ByteBuffer buf, int pos, byte[] key, long right) {
-        buf.position(pos);
-        buf.putInt(key.length);
-        buf.put(key);
-        buf.putLong(right);
+    // Bytes an entry and its slot take in a NODE_INTERNAL_SLOTTED page
+    static int internalEntrySize(InternalEntry e) {
+        return 4 + e.key.length + 8 + SLOT_SIZE;
     }
 
     private int estimateLeafSize(List<LeafEntry> entries) {
-        // 4 bytes key len + key + 8 bytes head + 8 bytes tail per entry
-        return 5 + entries.stream().mapToInt(e -> 4 + e.key.length + 8 + 8).sum();
+        return 5 + entries.stream().mapToInt(e -> e.size() + SLOT_SIZE).sum();
     }
 
     private int estimateInternalSize(List<InternalEntry> entries) {
         // 5 bytes header + 8 bytes leftmostChild + per-entry
-        return 5 + 8 + entries.stream().mapToInt(e -> 4 + e.key.length + 8).sum();
+        return 5 + 8 + entries.stream().mapToInt(OnDiskBPlusTree::internalEntrySize).sum();
     }
 
     public static int compareByteArrays(byte[] a, byte[] b) {
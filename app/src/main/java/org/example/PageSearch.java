@@ -0,0 +1,130 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Key lookups within a single B+Tree page, read straight from the page bytes. NODE_LEAF_INLINE
+ * and NODE_INTERNAL_SLOTTED pages keep a slot directory of entry offsets in key order, so keys
+ * are binary searched through it and compared in place, with the same unsigned ordering as
+ * OnDiskBPlusTree.compareByteArrays: O(log n) comparisons and nothing else read. NODE_LEAF and
+ * NODE_INTERNAL pages from older files have no directory and are scanned in order until the
+ * keys pass the one searched for. Nothing is allocated, and the page's position and limit are
+ * left alone, so shared pages can be searched concurrently.
+ */
+final class PageSearch {
+
+    // The smallest entry is an inline leaf entry with an empty key and one empty value: 4 byte key
+    // length + 1 byte value count + 1 byte value length
+    static final int MAX_ENTRIES = OnDiskBPlusTree.PAGE_SIZE / 6 + 1;
+
+    private PageSearch() {
+    }
+
+    // Offset of key's entry in a leaf page of either type, or -1 if key is absent; the entry is
+    // decoded with OnDiskBPlusTree.readLeafEntry
+    static int findLeafEntry(ByteBuffer page, byte[] key) {
+        int count = entryCount(page);
+        if (page.get(0) != OnDiskBPlusTree.NODE_LEAF_INLINE) {
+            return scanLeaf(page, count, key);
+        }
+        int left = 0, right = count - 1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            int offset = slot(page, 5, mid);
+            int cmp = compare(page, offset + 4, page.getInt(offset), key);
+            if (cmp == 0) {
+                return offset;
+            }
+            if (cmp < 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Child to descend into: the right child of the last separator not greater than key, or the
+    // leftmost child when key sorts before every separator
+    static long findChild(ByteBuffer page, byte[] key) {
+        int count = entryCount(page);
+        if (count == 0) {
+            throw new IllegalStateException("Internal node has no children");
+        }
+        if (page.get(0) != OnDiskBPlusTree.NODE_INTERNAL_SLOTTED) {
+            return scanInternal(page, count, key);
+        }
+        int left = 0, right = count;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            int offset = slot(page, 13, mid);
+            if (compare(page, offset + 4, page.getInt(offset), key) <= 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        if (left == 0) {
+            return page.getLong(5);
+        }
+        int offset = slot(page, 13, left - 1);
+        return page.getLong(offset + 4 + page.getInt(offset));
+    }
+
+    // Unsigned comparison of the length bytes at offset with key, as compareByteArrays(stored, key)
+    static int compare(ByteBuffer page, int offset, int length, byte[] key) {
+        int len = Math.min(length, key.length);
+        for (int i = 0; i < len; i++) {
+            int a = page.get(offset + i) & 0xFF;
+            int b = key[i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - key.length;
+    }
+
+    // Offset of entry i, from the directory starting at directory
+    private static int slot(ByteBuffer page, int directory, int i) {
+        return page.getShort(directory + i * OnDiskBPlusTree.SLOT_SIZE) & 0xFFFF;
+    }
+
+    // NODE_LEAF page: entries are contiguous from offset 5
+    private static int scanLeaf(ByteBuffer page, int count, byte[] key) {
+        int pos = 5;
+        for (int i = 0; i < count; i++) {
+            int cmp = compare(page, pos + 4, page.getInt(pos), key);
+            if (cmp == 0) {
+                return pos;
+            }
+            if (cmp > 0) {
+                break;
+            }
+            pos += OnDiskBPlusTree.leafEntrySize(page, pos);
+        }
+        return -1;
+    }
+
+    // NODE_INTERNAL page: the leftmost child, then contiguous [klen][key][right child] entries
+    private static long scanInternal(ByteBuffer page, int count, byte[] key) {
+        long child = page.getLong(5);
+        int pos = 13;
+        for (int i = 0; i < count; i++) {
+            int klen = page.getInt(pos);
+            if (compare(page, pos + 4, klen, key) > 0) {
+                break;
+            }
+            child = page.getLong(pos + 4 + klen);
+            pos += 4 + klen + 8;
+        }
+        return child;
+    }
+
+    private static int entryCount(ByteBuffer page) {
+        int count = page.getInt(1);
+        if (count < 0 || count > MAX_ENTRIES) {
+            throw new IllegalStateException("Corrupt page: " + count + " entries");
+        }
+        return count;
+    }
+}
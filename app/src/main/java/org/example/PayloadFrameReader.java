@@ -0,0 +1,132 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Sequential reader over the frames of a .binpb stream. Reads the magic byte and
+ * header up front, then hands out raw payload bytes until the seal marker,
+ * transparently decompressing blocks when the file is block-compressed.
+ */
+class PayloadFrameReader {
+
+    private final DataInputStream in;
+    private final boolean blockCompressed;
+    private final byte[] headerBytes;
+    private boolean sealReached = false;
+    private BlockFormat.Block block;
+    private int nextRecord;
+    // Reused by nextInto(); grows to the largest payload seen
+    private byte[] buffer = new byte[0];
+    private int bufferLength = 0;
+
+    PayloadFrameReader(DataInputStream in) throws IOException {
+        this.in = in;
+        int magicByte = in.readInt();
+        if (magicByte == StreamableProtoFileParser.MAGIC_BYTE) {
+            this.blockCompressed = false;
+        } else if (magicByte == StreamableProtoFileParser.BLOCKED_MAGIC_BYTE) {
+            this.blockCompressed = true;
+        } else {
+            throw new IOException("Invalid magic byte");
+        }
+        int headerLength = in.readInt();
+        this.headerBytes = new byte[headerLength];
+        in.readFully(this.headerBytes);
+    }
+
+    byte[] GetHeaderBytes() {
+        return headerBytes;
+    }
+
+    boolean IsBlockCompressed() {
+        return blockCompressed;
+    }
+
+    // Returns the next payload's bytes, or null once the seal marker has been reached
+    byte[] next() throws IOException {
+        if (sealReached) {
+            return null;
+        }
+        if (blockCompressed) {
+            return advanceBlock() ? block.Record(nextRecord++) : null;
+        }
+
+        int length = readLength();
+        if (length == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+            sealReached = true;
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    // Like next(), but reads the payload into a buffer reused from call to call, so once the buffer
+    // has grown to the largest payload nothing is allocated. Returns false at the seal marker.
+    boolean nextInto() throws IOException {
+        if (sealReached) {
+            return false;
+        }
+        if (blockCompressed) {
+            if (!advanceBlock()) {
+                return false;
+            }
+            int length = block.RecordLength(nextRecord);
+            ensureBuffer(length);
+            System.arraycopy(block.data, block.RecordStart(nextRecord), buffer, 0, length);
+            nextRecord++;
+            bufferLength = length;
+            return true;
+        }
+        int length = readLength();
+        if (length == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+            sealReached = true;
+            return false;
+        }
+        ensureBuffer(length);
+        in.readFully(buffer, 0, length);
+        bufferLength = length;
+        return true;
+    }
+
+    // The payload read by the last successful nextInto() is buffer()[0, bufferLength())
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int bufferLength() {
+        return bufferLength;
+    }
+
+    // Makes sure block has a record left to read; false once the seal marker is reached
+    private boolean advanceBlock() throws IOException {
+        while (block == null || nextRecord == block.recordCount) {
+            int compressedLength = readLength();
+            if (compressedLength == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+                sealReached = true;
+                block = null;
+                return false;
+            }
+            block = BlockFormat.readBlock(in, -1, compressedLength);
+            nextRecord = 0;
+        }
+        return true;
+    }
+
+    private void ensureBuffer(int length) {
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length + (buffer.length >> 1))];
+        }
+    }
+
+    private int readLength() throws IOException {
+        try {
+            return in.readInt();
+        } catch (EOFException e) {
+            throw new IOException(
+                    "This file was not properly sealed! This suggests that the file was not fully written.", e);
+        }
+    }
+}
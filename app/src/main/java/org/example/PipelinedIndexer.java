@@ -0,0 +1,252 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Builds OnDiskBPlusTree indexes off the writer thread. Pass it as the writer's
+ * onWriteCallback: each record's key is extracted inline and the (offset, key) pair
+ * goes onto a bounded queue per index. One thread per index drains its queue in
+ * batches, sorts each batch by key (stably, so a key's offsets stay in write order)
+ * and inserts it, which keeps consecutive inserts on the same tree pages.
+ *
+ * Call Flush() or close() before sealing the writer when the index has to be complete
+ * by the time the file is; the writer does not know it is feeding an indexer, so this
+ * works the same when the indexer is wrapped in another callback. A full queue blocks
+ * the writer, so the index can never fall more than queueCapacity records behind.
+ *
+ * accept() is thread-safe, so one indexer can serve a ConcurrentStreamableProtoFileWriter.
+ */
+public class PipelinedIndexer<P> implements BiConsumer<Long, P>, AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private static final Entry POISON = new Entry(null, -1);
+
+    private final int queueCapacity;
+    private final int batchSize;
+    private final List<Stage<P>> stages = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    public PipelinedIndexer() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    public PipelinedIndexer(int queueCapacity, int batchSize) {
+        if (queueCapacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("queueCapacity and batchSize must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+    }
+
+    // Adds an index fed by its own thread. keyExtractor runs on the writer thread; records
+    // it returns null or an empty key for are not indexed. Values are the 8-byte big-endian offsets.
+    public PipelinedIndexer<P> AddIndex(OnDiskBPlusTree index, Function<P, byte[]> keyExtractor) {
+        if (index == null || keyExtractor == null) {
+            throw new IllegalArgumentException("index and keyExtractor cannot be null");
+        }
+        Stage<P> stage = new Stage<>(index, keyExtractor, queueCapacity, batchSize, stages.size());
+        stages.add(stage);
+        stage.thread.start();
+        return this;
+    }
+
+    @Override
+    public void accept(Long offset, P payload) {
+        if (closed) {
+            throw new IllegalStateException("Indexer is closed");
+        }
+        for (Stage<P> stage : stages) {
+            stage.submit(offset, payload);
+        }
+    }
+
+    // Blocks until every record submitted so far is in its index
+    public void Flush() throws IOException {
+        for (Stage<P> stage : stages) {
+            stage.awaitIndexed();
+        }
+    }
+
+    // Records submitted but not yet inserted, for the index that is furthest behind
+    public long GetLag() {
+        long lag = 0;
+        for (Stage<P> stage : stages) {
+            lag = Math.max(lag, stage.submitted.get() - stage.indexed);
+        }
+        return lag;
+    }
+
+    // Number of times the writer had to wait because an index queue was full
+    public long GetProducerStalls() {
+        long stalls = 0;
+        for (Stage<P> stage : stages) {
+            stalls += stage.stalls.get();
+        }
+        return stalls;
+    }
+
+    // Waits for the indexes to catch up and stops the index threads; the trees stay open
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            Flush();
+        } finally {
+            for (Stage<P> stage : stages) {
+                stage.stop();
+            }
+        }
+    }
+
+    private static class Entry {
+        final byte[] key;
+        final long offset;
+
+        Entry(byte[] key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+
+    private static class Stage<P> {
+        final OnDiskBPlusTree index;
+        final Function<P, byte[]> keyExtractor;
+        final BlockingQueue<Entry> queue;
+        final int batchSize;
+        final Thread thread;
+        final Object lock = new Object();
+
+        // Written by the producer threads
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong stalls = new AtomicLong();
+        // Written by the index thread only
+        volatile long indexed = 0;
+        volatile IOException failure;
+
+        Stage(OnDiskBPlusTree index, Function<P, byte[]> keyExtractor, int queueCapacity, int batchSize, int id) {
+            this.index = index;
+            this.keyExtractor = keyExtractor;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.batchSize = batchSize;
+            this.thread = new Thread(this::indexLoop, "pipelined-indexer-" + id);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(long offset, P payload) {
+            throwIfFailed();
+            byte[] key = keyExtractor.apply(payload);
+            if (key == null || key.length == 0) {
+                return;
+            }
+            Entry entry = new Entry(key, offset);
+            // Counted before it is queued, so a Flush() that sees the count also waits for every
+            // entry queued ahead of this one by other producers
+            submitted.incrementAndGet();
+            if (!queue.offer(entry)) {
+                stalls.incrementAndGet();
+                try {
+                    put(entry);
+                } catch (RuntimeException e) {
+                    submitted.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+
+        void awaitIndexed() throws IOException {
+            long target = submitted.get();
+            synchronized (lock) {
+                while (indexed < target && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the index to catch up", e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw new IOException("Index thread failed", failure);
+            }
+        }
+
+        void stop() {
+            if (thread.isAlive() && failure == null) {
+                put(POISON);
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void put(Entry entry) {
+            throwIfFailed();
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing an index entry", e);
+            }
+        }
+
+        private void indexLoop() {
+            List<Entry> batch = new ArrayList<>(batchSize);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    boolean stop = batch.get(batch.size() - 1) == POISON;
+                    if (stop) {
+                        batch.remove(batch.size() - 1);
+                    }
+                    batch.sort((a, b) -> OnDiskBPlusTree.compareByteArrays(a.key, b.key));
+                    for (Entry e : batch) {
+                        index.insert(e.key, ByteBuffer.allocate(8).putLong(e.offset).array());
+                    }
+                    synchronized (lock) {
+                        indexed += batch.size();
+                        lock.notifyAll();
+                    }
+                    batch.clear();
+                    if (stop) {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e instanceof IOException ? (IOException) e : new IOException(e));
+            } catch (InterruptedException e) {
+                fail(new IOException("Index thread interrupted", e));
+            }
+        }
+
+        private void fail(IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+            // Unblock a writer waiting on a full queue
+            queue.clear();
+        }
+
+        private void throwIfFailed() {
+            if (failure != null) {
+                throw new UncheckedIOException("Index thread failed", failure);
+            }
+        }
+    }
+}
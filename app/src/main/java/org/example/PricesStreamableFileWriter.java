@@ -12,4 +12,8 @@ public class PricesStreamableFileWriter extends StreamableProtoFileWriter<Prices
     public PricesStreamableFileWriter (String file,PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader header,BiConsumer<Long, PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload> onWriteCallback ) throws FileNotFoundException, IOException,IllegalArgumentException  {
         super(file, header, onWriteCallback);
     }
+
+    public PricesStreamableFileWriter (String file,PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader header,BiConsumer<Long, PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload> onWriteCallback, Options options ) throws FileNotFoundException, IOException,IllegalArgumentException  {
+        super(file, header, onWriteCallback, options);
+    }
 }
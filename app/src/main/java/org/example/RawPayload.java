@@ -0,0 +1,43 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * An already-serialized payload as handed to a raw write callback. The bytes are
+ * exposed as-is; the typed message is only parsed if somebody asks for it.
+ * The buffer belongs to the caller of WriteRaw and is only guaranteed to be
+ * valid for the duration of the callback.
+ */
+public class RawPayload<P> {
+
+    private final ByteBuffer bytes;
+    private final Function<byte[], P> protoFactory;
+    private P parsed;
+
+    RawPayload(ByteBuffer bytes, Function<byte[], P> protoFactory) {
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.protoFactory = protoFactory;
+    }
+
+    public ByteBuffer GetBytes() {
+        return bytes.duplicate();
+    }
+
+    public int GetLength() {
+        return bytes.remaining();
+    }
+
+    // Parses the payload on first use and caches the result
+    public P Parse() {
+        if (parsed == null) {
+            if (protoFactory == null) {
+                throw new IllegalStateException("No protoFactory was configured to parse raw payloads");
+            }
+            byte[] data = new byte[bytes.remaining()];
+            bytes.duplicate().get(data);
+            parsed = protoFactory.apply(data);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,170 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream whose bytes are read ahead by a background thread. The thread keeps
+ * a bounded ring of depth buffers filled from the channel while the caller consumes
+ * (and parses) earlier ones, so a slow or high-latency volume is read while the CPU
+ * is busy instead of in between.
+ */
+class ReadAheadInputStream extends InputStream {
+
+    // Queued after the last filled buffer, or after a read failure
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ReadableByteChannel channel;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final BlockingQueue<ByteBuffer> free;
+    private final Thread ioThread;
+    private volatile IOException failure;
+    // Written by the consumer only
+    private volatile long consumerStalls = 0;
+    // Written by the I/O thread only
+    private volatile long readAheadStalls = 0;
+
+    private ByteBuffer current;
+    private boolean ended = false;
+    private boolean closed = false;
+
+    ReadAheadInputStream(ReadableByteChannel channel, int depth, int bufferSize) {
+        if (depth <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("depth and bufferSize must be positive");
+        }
+        this.channel = channel;
+        this.filled = new ArrayBlockingQueue<>(depth + 1);
+        this.free = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth; i++) {
+            this.free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.ioThread = new Thread(this::fillLoop, "streamable-proto-read-ahead");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.remaining());
+        current.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current != null ? current.remaining() : 0;
+    }
+
+    // Times the consumer found no filled buffer and had to wait for the I/O thread
+    long consumerStalls() {
+        return consumerStalls;
+    }
+
+    // Times the I/O thread found every buffer in use and had to wait for the consumer
+    long readAheadStalls() {
+        return readAheadStalls;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ioThread.interrupt();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null && current.hasRemaining()) {
+            return true;
+        }
+        if (ended) {
+            return false;
+        }
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        ByteBuffer next = filled.poll();
+        try {
+            if (next == null) {
+                consumerStalls++;
+                next = filled.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for read-ahead", e);
+        }
+        if (next == END) {
+            ended = true;
+            if (failure != null) {
+                throw new IOException("Read-ahead failed", failure);
+            }
+            return false;
+        }
+        current = next;
+        return true;
+    }
+
+    private void fillLoop() {
+        try {
+            while (true) {
+                ByteBuffer buf = free.poll();
+                if (buf == null) {
+                    readAheadStalls++;
+                    buf = free.take();
+                }
+                buf.clear();
+                boolean eof = false;
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buf.flip();
+                if (buf.hasRemaining()) {
+                    filled.put(buf);
+                }
+                if (eof) {
+                    filled.put(END);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // close() stops the thread
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+                filled.offer(END);
+            }
+        }
+    }
+}
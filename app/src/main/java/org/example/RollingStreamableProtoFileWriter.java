@@ -0,0 +1,220 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes a dataset as a directory of .binpb segments. The current segment is sealed
+ * and a new one started once it reaches maxSegmentBytes or maxSegmentRecords, so
+ * segments can be uploaded or read in parallel as soon as they are complete.
+ *
+ * Every time a segment is sealed manifest.json is rewritten (atomically) to list
+ * the completed segments with their record counts and byte ranges; "sealed" turns
+ * true once the writer is closed.
+ */
+public class RollingStreamableProtoFileWriter<H extends com.google.protobuf.GeneratedMessageV3, P extends com.google.protobuf.GeneratedMessageV3>
+        implements AutoCloseable {
+
+    public static final String MANIFEST_FILE = "manifest.json";
+
+    @FunctionalInterface
+    public interface SegmentWriteCallback<P> {
+        void accept(int segmentId, long offset, P payload);
+    }
+
+    private final Path directory;
+    private final H header;
+    private final long maxSegmentBytes;
+    private final long maxSegmentRecords;
+    private final SegmentWriteCallback<P> onWriteCallback;
+    private final Consumer<Segment> onSegmentSealed;
+    private final StreamableProtoFileWriter.Options options;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private StreamableProtoFileWriter<H, P> current;
+    private int currentSegmentId = -1;
+    private long currentDataStart;
+    private boolean closed = false;
+
+    public RollingStreamableProtoFileWriter(String directory, H header, long maxSegmentBytes, long maxSegmentRecords)
+            throws IOException, IllegalArgumentException {
+        this(directory, header, maxSegmentBytes, maxSegmentRecords, null, null, new StreamableProtoFileWriter.Options());
+    }
+
+    public RollingStreamableProtoFileWriter(String directory, H header, long maxSegmentBytes, long maxSegmentRecords,
+            SegmentWriteCallback<P> onWriteCallback) throws IOException, IllegalArgumentException {
+        this(directory, header, maxSegmentBytes, maxSegmentRecords, onWriteCallback, null,
+                new StreamableProtoFileWriter.Options());
+    }
+
+    // A limit of 0 disables it; onSegmentSealed is called after each segment is sealed and listed in the manifest
+    public RollingStreamableProtoFileWriter(String directory, H header, long maxSegmentBytes, long maxSegmentRecords,
+            SegmentWriteCallback<P> onWriteCallback, Consumer<Segment> onSegmentSealed,
+            StreamableProtoFileWriter.Options options) throws IOException, IllegalArgumentException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        if (header == null) {
+            throw new IllegalArgumentException("Header cannot be null");
+        }
+        if (maxSegmentBytes < 0 || maxSegmentRecords < 0) {
+            throw new IllegalArgumentException("Segment limits cannot be negative");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        this.directory = Paths.get(directory);
+        this.header = header;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentRecords = maxSegmentRecords;
+        this.onWriteCallback = onWriteCallback;
+        this.onSegmentSealed = onSegmentSealed;
+        this.options = options;
+        Files.createDirectories(this.directory);
+    }
+
+    public int Write(P payload) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+        if (current == null) {
+            openSegment();
+        }
+        int written = current.Write(payload);
+        if (isFull()) {
+            sealSegment();
+        }
+        return written;
+    }
+
+    public static String SegmentFileName(int segmentId) {
+        return String.format("segment-%05d.binpb", segmentId);
+    }
+
+    public List<Segment> GetSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    public void close() throws Exception {
+        if (closed) {
+            return;
+        }
+        // An empty dataset still gets one (empty) segment so readers always find a valid file
+        if (current == null && segments.isEmpty()) {
+            openSegment();
+        }
+        if (current != null) {
+            sealSegment();
+        }
+        closed = true;
+        writeManifest();
+    }
+
+    private boolean isFull() {
+        long bytes = current.GetWriteOffset() + current.GetPendingBlockBytes();
+        return (maxSegmentBytes > 0 && bytes >= maxSegmentBytes)
+                || (maxSegmentRecords > 0 && current.GetRecordCount() >= maxSegmentRecords);
+    }
+
+    private void openSegment() throws IOException {
+        int segmentId = ++currentSegmentId;
+        String file = directory.resolve(SegmentFileName(segmentId)).toString();
+        current = new StreamableProtoFileWriter<>(file, header,
+                onWriteCallback == null ? null : (offset, payload) -> onWriteCallback.accept(segmentId, offset, payload),
+                options);
+        currentDataStart = current.GetWriteOffset();
+    }
+
+    private void sealSegment() throws IOException {
+        current.Flush();
+        long dataEnd = current.GetWriteOffset();
+        long records = current.GetRecordCount();
+        try {
+            current.close();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        Segment segment = new Segment(currentSegmentId, SegmentFileName(currentSegmentId), records, currentDataStart,
+                dataEnd, current.GetWriteOffset());
+        current = null;
+        segments.add(segment);
+        writeManifest();
+        if (onSegmentSealed != null) {
+            onSegmentSealed.accept(segment);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"sealed\": ").append(closed).append(",\n  \"segments\": [");
+        for (int i = 0; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"id\": ").append(s.GetId())
+                    .append(", \"file\": \"").append(s.GetFile()).append('"')
+                    .append(", \"records\": ").append(s.GetRecordCount())
+                    .append(", \"dataStart\": ").append(s.GetDataStart())
+                    .append(", \"dataEnd\": ").append(s.GetDataEnd())
+                    .append(", \"size\": ").append(s.GetSize()).append('}');
+        }
+        json.append(segments.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+
+        Path tmp = directory.resolve(MANIFEST_FILE + ".tmp");
+        Files.write(tmp, json.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, directory.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A sealed segment: records live in [dataStart, dataEnd) of a file of size bytes
+    public static class Segment {
+        private final int id;
+        private final String file;
+        private final long recordCount;
+        private final long dataStart;
+        private final long dataEnd;
+        private final long size;
+
+        Segment(int id, String file, long recordCount, long dataStart, long dataEnd, long size) {
+            this.id = id;
+            this.file = file;
+            this.recordCount = recordCount;
+            this.dataStart = dataStart;
+            this.dataEnd = dataEnd;
+            this.size = size;
+        }
+
+        public int GetId() {
+            return id;
+        }
+
+        public String GetFile() {
+            return file;
+        }
+
+        public long GetRecordCount() {
+            return recordCount;
+        }
+
+        public long GetDataStart() {
+            return dataStart;
+        }
+
+        public long GetDataEnd() {
+            return dataEnd;
+        }
+
+        public long GetSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking counterpart of S3BPlusTreeSeeker built on S3AsyncClient. Each page of a
+ * search is fetched when the previous one arrives, with no thread waiting in between,
+ * and all searches share a limit of maxConcurrency GETs in flight. Unlike S3BPlusTreeSeeker,
+ * close() leaves the client open: it belongs to the caller, so one S3AsyncClient can serve
+ * several seekers and S3AsyncPayloadRandomAccesors.
+ */
+public class S3AsyncBPlusTreeSeeker implements AutoCloseable {
+    static final int PAGE_SIZE = OnDiskBPlusTree.PAGE_SIZE;
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+    private final S3AsyncRangeReader reader;
+
+    public S3AsyncBPlusTreeSeeker(S3AsyncClient s3, String bucket, String key) {
+        this(s3, bucket, key, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    public S3AsyncBPlusTreeSeeker(S3AsyncClient s3, String bucket, String key, int maxConcurrency) {
+        this.reader = new S3AsyncRangeReader(s3, bucket, key, maxConcurrency);
+    }
+
+    // Does not close the S3AsyncClient; see the class comment
+    @Override
+    public void close() {
+    }
+
+    // All values stored under key, in insertion order; empty if the key is absent. A key that is
+    // too large fails the future rather than throwing.
+    public CompletableFuture<List<byte[]>> searchAsync(byte[] key) {
+        if (key.length > OnDiskBPlusTree.MAX_KEY_SIZE)
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Key too large"));
+        // Root page id is stored at offset 0 (first 8 bytes)
+        return read(0, 8)
+                .thenCompose(root -> findEntryAsync(root.getLong(0), key))
+                .thenCompose(entry -> {
+                    if (entry == null)
+                        return CompletableFuture.completedFuture(Collections.<byte[]>emptyList());
+                    // Values held in the leaf need no further reads
+                    if (entry.values != null)
+                        return CompletableFuture.completedFuture(entry.values);
+                    return collectValues(entry.overflowHeadPage, new ArrayList<>());
+                });
+    }
+
+    // Leaf entry for key, or null if not found
+    private CompletableFuture<OnDiskBPlusTree.LeafEntry> findEntryAsync(long pageId, byte[] key) {
+        return getPage(pageId).thenCompose(buf -> {
+            byte type = buf.get(0);
+
+            if (OnDiskBPlusTree.isLeaf(type)) {
+                int pos = PageSearch.findLeafEntry(buf, key);
+                return CompletableFuture.completedFuture(pos != -1 ? OnDiskBPlusTree.readLeafEntry(buf, pos) : null);
+            }
+
+            if (OnDiskBPlusTree.isInternal(type)) {
+                return findEntryAsync(PageSearch.findChild(buf, key), key);
+            }
+
+            throw new IllegalStateException("Unknown page type");
+        });
+    }
+
+    // Appends the values of the overflow chain starting at pageId to values
+    private CompletableFuture<List<byte[]>> collectValues(long pageId, List<byte[]> values) {
+        return getPage(pageId).thenCompose(buf -> {
+            int count = buf.getInt(1);
+            buf.position(5);
+            for (int i = 0; i < count; i++) {
+                byte[] val = new byte[buf.getInt()];
+                buf.get(val);
+                values.add(val);
+            }
+            long next = buf.getLong(PAGE_SIZE - 8);
+            return next == -1 ? CompletableFuture.completedFuture(values) : collectValues(next, values);
+        });
+    }
+
+    private CompletableFuture<ByteBuffer> getPage(long pageId) {
+        return read(pageId * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private CompletableFuture<ByteBuffer> read(long offset, int length) {
+        return reader.read(offset, offset + length - 1).thenApply(bytes -> {
+            if (bytes.length < length) throw new CompletionException(new IOException("Short read"));
+            return ByteBuffer.wrap(bytes);
+        });
+    }
+}
@@ -0,0 +1,236 @@
+package org.example;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Non-blocking counterpart of S3StreamableProtoFileParser.StreamablePayloadRandomAccesor built on
+ * S3AsyncClient. Lookups return CompletableFutures and share a limit of maxConcurrency GETs in
+ * flight, so fanning out thousands of lookups needs neither a thread per lookup nor a serial loop.
+ * Each lookup is a speculative single GET, as with GetPayloadRandomAccesor(true). Safe to share
+ * between threads. The client belongs to the caller and close() leaves it open, as
+ * S3AsyncBPlusTreeSeeker does, so one S3AsyncClient can serve several accessors and seekers.
+ */
+public class S3AsyncPayloadRandomAccesor<H, P> implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+    private final S3AsyncRangeReader reader;
+    private final Function<byte[], P> protoFactory;
+    private final H header;
+    private final boolean blockCompressed;
+    private final S3StreamableProtoFileParser.SpeculativeReadSize recordReadSize =
+            new S3StreamableProtoFileParser.SpeculativeReadSize();
+    private final S3StreamableProtoFileParser.SpeculativeReadSize blockReadSize =
+            new S3StreamableProtoFileParser.SpeculativeReadSize();
+    private final AtomicLong speculativeHits = new AtomicLong();
+    private final AtomicLong speculativeMisses = new AtomicLong();
+    // Last block requested; concurrent lookups into the same block share its download
+    private volatile BlockLoad cachedBlock;
+
+    public S3AsyncPayloadRandomAccesor(
+            S3AsyncClient s3,
+            String bucket,
+            String key,
+            Function<byte[], H> headerFactory,
+            Function<byte[], P> protoFactory) throws IOException, InvalidProtocolBufferException {
+        this(s3, bucket, key, headerFactory, protoFactory, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    // Reads the header before returning
+    public S3AsyncPayloadRandomAccesor(
+            S3AsyncClient s3,
+            String bucket,
+            String key,
+            Function<byte[], H> headerFactory,
+            Function<byte[], P> protoFactory,
+            int maxConcurrency) throws IOException, InvalidProtocolBufferException {
+        if (headerFactory == null)
+            throw new IllegalArgumentException("headerFactory cannot be null");
+        if (protoFactory == null)
+            throw new IllegalArgumentException("protoFactory cannot be null");
+        this.reader = new S3AsyncRangeReader(s3, bucket, key, maxConcurrency);
+        this.protoFactory = protoFactory;
+        // Magic, header length and, usually, the whole header in one GET
+        byte[] start = await(reader.read(0, S3StreamableProtoFileParser.INITIAL_SPECULATIVE_READ - 1));
+        if (start.length < 8)
+            throw new IOException("Object too short");
+        ByteBuffer meta = ByteBuffer.wrap(start);
+        int magic = meta.getInt();
+        if (magic != StreamableProtoFileParser.MAGIC_BYTE && magic != StreamableProtoFileParser.BLOCKED_MAGIC_BYTE)
+            throw new IOException("Invalid magic byte");
+        this.blockCompressed = magic == StreamableProtoFileParser.BLOCKED_MAGIC_BYTE;
+        int headerLen = meta.getInt();
+        byte[] headerBytes = 8 + headerLen <= start.length
+                ? Arrays.copyOfRange(start, 8, 8 + headerLen)
+                : await(reader.read(8, 8 + headerLen - 1));
+        this.header = headerFactory.apply(headerBytes);
+    }
+
+    public H GetHeader() {
+        return header;
+    }
+
+    public boolean IsBlockCompressed() {
+        return blockCompressed;
+    }
+
+    // For block-compressed objects offset is a record address as reported by the writer.
+    // Completes with null at the file seal; a bad offset fails the future rather than throwing.
+    public CompletableFuture<P> GetPayloadAtOffsetAsync(long offset) {
+        if (offset <= 0)
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Offset cannot be negative"));
+        if (blockCompressed) {
+            return loadBlockAsync(StreamableProtoFileParser.BlockOffsetOf(offset))
+                    .thenApply(block -> record(block, offset));
+        }
+        return frameAsync(offset, 4, recordReadSize).thenApply(frame -> {
+            if (frame.getInt(0) == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                return null;
+            byte[] data = new byte[frame.limit() - 4];
+            frame.get(4, data);
+            return protoFactory.apply(data);
+        });
+    }
+
+    // Payloads at offsets, in the same order. Repeated offsets are fetched once, and records that
+    // share a block in a block-compressed object share its download; everything else runs concurrently
+    // up to maxConcurrency. Bad arguments fail the future before any lookup starts.
+    public CompletableFuture<List<P>> GetPayloadsAtOffsetsAsync(long[] offsets) {
+        if (offsets == null)
+            return CompletableFuture.failedFuture(new IllegalArgumentException("offsets cannot be null"));
+        for (long offset : offsets) {
+            if (offset <= 0)
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Offset cannot be negative"));
+        }
+        Map<Long, CompletableFuture<P>> lookups = new HashMap<>();
+        Map<Long, CompletableFuture<BlockFormat.Block>> blocks = new HashMap<>();
+        List<CompletableFuture<P>> ordered = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            ordered.add(lookups.computeIfAbsent(offset, o -> {
+                if (!blockCompressed)
+                    return GetPayloadAtOffsetAsync(o);
+                return blocks.computeIfAbsent(StreamableProtoFileParser.BlockOffsetOf(o), this::loadBlockAsync)
+                        .thenApply(block -> record(block, o));
+            }));
+        }
+        return CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<P> results = new ArrayList<>(ordered.size());
+            for (CompletableFuture<P> lookup : ordered) {
+                results.add(lookup.join());
+            }
+            return results;
+        });
+    }
+
+    // Lookups answered by a single GET
+    public long GetSpeculativeHits() {
+        return speculativeHits.get();
+    }
+
+    // Lookups whose record (or block) was larger than the guess and took a second GET
+    public long GetSpeculativeMisses() {
+        return speculativeMisses.get();
+    }
+
+    // Does not close the S3AsyncClient; see the class comment
+    public void close() {
+    }
+
+    private P record(BlockFormat.Block block, long address) {
+        if (block == null)
+            return null;
+        int index = StreamableProtoFileParser.BlockRecordIndexOf(address);
+        if (index >= block.recordCount)
+            throw new CompletionException(
+                    new IOException("No record " + index + " in block at offset " + block.offset));
+        return protoFactory.apply(block.Record(index));
+    }
+
+    private CompletableFuture<BlockFormat.Block> loadBlockAsync(long blockOffset) {
+        BlockLoad cached = cachedBlock;
+        if (cached != null && cached.offset == blockOffset && !cached.future.isCompletedExceptionally())
+            return cached.future;
+        CompletableFuture<BlockFormat.Block> future = frameAsync(blockOffset, BlockFormat.BLOCK_HEADER_SIZE,
+                blockReadSize).thenApply(frame -> {
+                    if (frame.getInt(0) == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                        return null;
+                    try {
+                        return BlockFormat.decode(blockOffset, frame);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+        cachedBlock = new BlockLoad(blockOffset, future);
+        return future;
+    }
+
+    // The frame at offset (a headerSize-byte header starting with its Int32 body length, then the
+    // body) from one GET of the guessed size, plus one for the remainder when the guess was too small
+    private CompletableFuture<ByteBuffer> frameAsync(long offset, int headerSize,
+            S3StreamableProtoFileParser.SpeculativeReadSize readSize) {
+        int guess;
+        synchronized (readSize) {
+            guess = Math.max(readSize.next(), headerSize);
+        }
+        return reader.read(offset, offset + guess - 1).thenCompose(bytes -> {
+            if (bytes.length < 4)
+                return CompletableFuture.failedFuture(new EOFException("No record at offset " + offset));
+            int length = ByteBuffer.wrap(bytes).getInt();
+            if (length == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                return CompletableFuture.completedFuture(ByteBuffer.wrap(bytes, 0, 4));
+            if (length < 0)
+                return CompletableFuture.failedFuture(
+                        new IOException("Invalid length " + length + " at offset " + offset));
+            int frameSize = headerSize + length;
+            synchronized (readSize) {
+                readSize.observe(frameSize);
+            }
+            if (frameSize <= bytes.length) {
+                speculativeHits.incrementAndGet();
+                return CompletableFuture.completedFuture(ByteBuffer.wrap(bytes, 0, frameSize));
+            }
+            speculativeMisses.incrementAndGet();
+            return reader.read(offset + bytes.length, offset + frameSize - 1).thenApply(rest -> {
+                if (bytes.length + rest.length < frameSize)
+                    throw new CompletionException(new EOFException("Truncated record at offset " + offset));
+                byte[] frame = Arrays.copyOf(bytes, frameSize);
+                System.arraycopy(rest, 0, frame, bytes.length, rest.length);
+                return ByteBuffer.wrap(frame);
+            });
+        });
+    }
+
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static final class BlockLoad {
+        final long offset;
+        final CompletableFuture<BlockFormat.Block> future;
+
+        BlockLoad(long offset, CompletableFuture<BlockFormat.Block> future) {
+            this.offset = offset;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ranged GETs of one object through an S3AsyncClient, with at most maxConcurrency
+ * requests in flight. Further reads queue up and start as earlier ones finish, so
+ * callers can issue any number of lookups without tying up a thread per request.
+ * The client stays the caller's; nothing here closes it.
+ */
+final class S3AsyncRangeReader {
+
+    private final S3AsyncClient s3;
+    private final String bucket;
+    private final String key;
+    private final int maxConcurrency;
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+    private boolean draining = false;
+
+    S3AsyncRangeReader(S3AsyncClient s3, String bucket, String key, int maxConcurrency) {
+        if (s3 == null || bucket == null || key == null) {
+            throw new IllegalArgumentException("s3/bucket/key cannot be null");
+        }
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    // Bytes start..end inclusive; fewer when the range runs past the end of the object
+    CompletableFuture<byte[]> read(long start, long end) {
+        GetObjectRequest req = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + start + "-" + end)
+                .build();
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        Runnable request = () -> {
+            try {
+                s3.getObject(req, AsyncResponseTransformer.toBytes()).whenComplete((bytes, e) -> {
+                    release();
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(bytes.asByteArrayUnsafe());
+                    }
+                });
+            } catch (RuntimeException e) {
+                release();
+                result.completeExceptionally(e);
+            }
+        };
+        synchronized (this) {
+            waiting.add(request);
+        }
+        drain();
+        return result;
+    }
+
+    // Frees the finished request's slot for the next waiting one
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    // Starts waiting requests while there are free slots. Only one thread drains at a time and
+    // the others leave their work to it, so a client that completes requests on the calling
+    // thread is handled by this loop rather than by recursing through release() once per request.
+    private void drain() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (draining || inFlight >= maxConcurrency || waiting.isEmpty()) {
+                    return;
+                }
+                next = waiting.poll();
+                inFlight++;
+                draining = true;
+            }
+            try {
+                next.run();
+            } finally {
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+    }
+}
@@ -74,9 +74,18 @@ public class S3BPlusTreeSeeker implements AutoCloseable {
 
     public Iterable<byte[]> search(byte[] key) {
         if (key.length > MAX_KEY_SIZE) throw new IllegalArgumentException("Key too large");
-        return () -> new Iterator<byte[]>() {
-            long[] overflowPages = findOverflow(getRootPageId(), key);
-            long overflowPage = (overflowPages != null) ? overflowPages[0] : -1;
+        return () -> {
+            OnDiskBPlusTree.LeafEntry entry = findEntry(getRootPageId(), key);
+            if (entry != null && entry.values != null) {
+                return Collections.unmodifiableList(entry.values).iterator();
+            }
+            return overflowIterator(entry != null ? entry.overflowHeadPage : -1);
+        };
+    }
+
+    // Values of the overflow chain starting at overflowPage; empty for -1
+    private Iterator<byte[]> overflowIterator(long overflowPage) {
+        return new Iterator<byte[]>() {
             ByteBuffer buf = (overflowPage != -1) ? getPage(overflowPage) : null;
             int valueIndex = 0;
             int valueCount = 0;
@@ -129,80 +138,20 @@ public class S3BPlusTreeSeeker implements AutoCloseable {
         };
     }
 
-    // Returns [head, tail] or null if not found
-    private long[] findOverflow(long pageId, byte[] key) {
+    // Returns the leaf entry for key, or null if not found
+    private OnDiskBPlusTree.LeafEntry findEntry(long pageId, byte[] key) {
         ByteBuffer buf = getPage(pageId);
         byte type = buf.get(0);
 
-        if (type == NODE_LEAF) {
-            List<OnDiskBPlusTree.LeafEntry> entries = readLeafEntries(buf);
-            int idx = findKeyIndex(entries, key);
-            if (idx != -1) {
-                OnDiskBPlusTree.LeafEntry e = entries.get(idx);
-                return new long[]{e.overflowHeadPage, e.overflowTailPage};
-            }
-            return null;
+        if (OnDiskBPlusTree.isLeaf(type)) {
+            int pos = PageSearch.findLeafEntry(buf, key);
+            return pos != -1 ? OnDiskBPlusTree.readLeafEntry(buf, pos) : null;
         }
 
-        if (type == NODE_INTERNAL) {
-            long[] leftmostChild = new long[1];
-            List<OnDiskBPlusTree.InternalEntry> entries = readInternalEntries(buf, leftmostChild);
-            if (entries.isEmpty()) throw new IllegalStateException("Internal node has no children");
-            for (OnDiskBPlusTree.InternalEntry e : entries) {
-                if (OnDiskBPlusTree.compareByteArrays(key, e.key) < 0)
-                    return findOverflow(leftmostChild[0], key);
-                leftmostChild[0] = e.rightChild;
-            }
-            return findOverflow(leftmostChild[0], key);
+        if (OnDiskBPlusTree.isInternal(type)) {
+            return findEntry(PageSearch.findChild(buf, key), key);
         }
 
         throw new IllegalStateException("Unknown page type");
     }
-
-    private int findKeyIndex(List<OnDiskBPlusTree.LeafEntry> entries, byte[] key) {
-        int left = 0, right = entries.size() - 1;
-        while (left <= right) {
-            int mid = (left + right) >>> 1;
-            int cmp = OnDiskBPlusTree.compareByteArrays(entries.get(mid).key, key);
-            if (cmp == 0) return mid;
-            if (cmp < 0) left = mid + 1;
-            else right = mid - 1;
-        }
-        return -1;
-    }
-
-    private List<OnDiskBPlusTree.LeafEntry> readLeafEntries(ByteBuffer buf) {
-        int count = buf.getInt(1);
-        List<OnDiskBPlusTree.LeafEntry> entries = new ArrayList<>();
-        int pos = 5;
-        for (int i = 0; i < count; i++) {
-            buf.position(pos);
-            int klen = buf.getInt();
-            byte[] key = new byte[klen];
-            buf.get(key);
-            long head = buf.getLong();
-            long tail = buf.getLong();
-            entries.add(new OnDiskBPlusTree.LeafEntry(key, head, tail));
-            pos = buf.position();
-        }
-        return entries;
-    }
-
-    private List<OnDiskBPlusTree.InternalEntry> readInternalEntries(ByteBuffer buf, long[] leftmostChild) {
-        int count = buf.getInt(1);
-        int pos = 5;
-        leftmostChild[0] = buf.getLong(pos);
-        pos += 8;
-        List<OnDiskBPlusTree.InternalEntry> entries = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            buf.position(pos);
-            int klen = buf.getInt();
-            byte[] key = new byte[klen];
-            buf.get(key);
-            long right = buf.getLong();
-            entries.add(new OnDiskBPlusTree.InternalEntry(key, right));
-            pos = buf.position();
-        }
-        return entries;
-    }
 }
\ No newline at end of file
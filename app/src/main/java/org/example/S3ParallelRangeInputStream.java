@@ -0,0 +1,152 @@
+package org.example;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sequential InputStream over an S3 object that downloads it as consecutive ranges of
+ * rangeSize bytes, keeping up to parallelism ranged GETs in flight ahead of the reader.
+ * Ranges are handed out in order, so frames that cross a range boundary read through
+ * as usual. At most parallelism + 1 ranges are held in memory.
+ */
+class S3ParallelRangeInputStream extends InputStream {
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final long objectSize;
+    private final int rangeSize;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private long nextRangeStart = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private long consumerStalls = 0;
+    private boolean closed = false;
+
+    S3ParallelRangeInputStream(S3Client s3, String bucket, String key, long objectSize, int rangeSize,
+            int parallelism) {
+        if (rangeSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("rangeSize and parallelism must be positive");
+        }
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.objectSize = objectSize;
+        this.rangeSize = rangeSize;
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "s3-range-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        fillWindow();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    // Times the reader had to wait for the next range to arrive
+    long consumerStalls() {
+        return consumerStalls;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> range : pending) {
+            range.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (position < current.length) {
+            return true;
+        }
+        Future<byte[]> next = pending.poll();
+        if (next == null) {
+            return false;
+        }
+        if (!next.isDone()) {
+            consumerStalls++;
+        }
+        try {
+            current = next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a range", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Range read failed", e.getCause());
+        }
+        position = 0;
+        fillWindow();
+        return current.length > 0;
+    }
+
+    private void fillWindow() {
+        while (pending.size() < parallelism && nextRangeStart < objectSize) {
+            long start = nextRangeStart;
+            long end = Math.min(objectSize, start + rangeSize) - 1;
+            pending.add(executor.submit(() -> rangeRead(start, end)));
+            nextRangeStart = end + 1;
+        }
+    }
+
+    private byte[] rangeRead(long start, long end) throws IOException {
+        GetObjectRequest req = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + start + "-" + end)
+                .build();
+        try (ResponseInputStream<GetObjectResponse> in = s3.getObject(req)) {
+            byte[] buf = new byte[(int) (end - start + 1)];
+            if (in.readNBytes(buf, 0, buf.length) < buf.length) {
+                throw new IOException("Could not read full range");
+            }
+            return buf;
+        }
+    }
+}
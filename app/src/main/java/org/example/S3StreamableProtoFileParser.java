@@ -4,14 +4,33 @@ import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Function;
 import java.nio.ByteBuffer;
 
 public class S3StreamableProtoFileParser<H, P> {
 
+    // Suffix fetched when looking for the footer; footers that fit need a single request
+    static final int FOOTER_READ_SIZE = 64 * 1024;
+    // GetPayloadsAtOffsets fetches records whose starts are at most this many bytes apart with one GET;
+    // transferring that much costs less than the latency of another request
+    public static final long DEFAULT_COALESCE_GAP = 1024 * 1024;
+    // Bytes a batched GET takes past its last record start, so most records need no second request
+    static final int BATCH_TAIL_READ = 64 * 1024;
+    // Bounds of a speculative read; see GetPayloadRandomAccesor(boolean)
+    static final int MIN_SPECULATIVE_READ = 1024;
+    static final int MAX_SPECULATIVE_READ = 1024 * 1024;
+    static final int INITIAL_SPECULATIVE_READ = 16 * 1024;
+    // Sequential scans download the object in ranges of this size, this many at a time
+    public static final int DEFAULT_SCAN_RANGE_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_SCAN_PARALLELISM = 8;
+
     private final Function<byte[], H> headerFactory;
     private final Function<byte[], P> protoFactory;
     private final String bucket;
@@ -37,10 +56,37 @@ public class S3StreamableProtoFileParser<H, P> {
         this.protoFactory = protoFactory;
     }
 
+    public StreamablePayloadEnumerator GetPayloadEnumerator() throws IOException {
+        return GetPayloadEnumerator(DEFAULT_SCAN_RANGE_SIZE, DEFAULT_SCAN_PARALLELISM);
+    }
+
+    // Sequential scan that streams the object as consecutive ranges of rangeSize bytes with up to
+    // parallelism GETs in flight ahead of the caller; memory stays within (parallelism + 1) * rangeSize
+    public StreamablePayloadEnumerator GetPayloadEnumerator(int rangeSize, int parallelism) throws IOException {
+        if (rangeSize <= 0 || parallelism <= 0)
+            throw new IllegalArgumentException("rangeSize and parallelism must be positive");
+        long size = s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build()).contentLength();
+        var in = new S3ParallelRangeInputStream(s3, bucket, key, size, rangeSize, parallelism);
+        try {
+            return new StreamablePayloadEnumerator(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
     public StreamablePayloadRandomAccesor GetPayloadRandomAccesor() throws IOException, InvalidProtocolBufferException {
         return new StreamablePayloadRandomAccesor(s3, bucket, key, headerFactory, protoFactory);
     }
 
+    // With speculative set, a lookup fetches the length prefix and a guess at the payload in a single
+    // GET, and only a record larger than the guess needs a second one for the rest. The guess follows
+    // the sizes seen so far, or the footer's max payload size once GetFooter has loaded it.
+    public StreamablePayloadRandomAccesor GetPayloadRandomAccesor(boolean speculative)
+            throws IOException, InvalidProtocolBufferException {
+        return new StreamablePayloadRandomAccesor(s3, bucket, key, headerFactory, protoFactory, speculative);
+    }
+
     public class StreamablePayloadRandomAccesor implements AutoCloseable {
         private final S3Client s3;
         private final String bucket;
@@ -49,6 +95,16 @@ public class S3StreamableProtoFileParser<H, P> {
         private final Function<byte[], P> protoFactory;
         private H header;
         private long headerEndOffset;
+        private final boolean blockCompressed;
+        // Last block fetched and decompressed, so neighbouring lookups share one download
+        private BlockFormat.Block cachedBlock;
+        private StreamableFileFooter footer;
+        private boolean footerLoaded = false;
+        private final boolean speculative;
+        private final SpeculativeReadSize recordReadSize = new SpeculativeReadSize();
+        private final SpeculativeReadSize blockReadSize = new SpeculativeReadSize();
+        private long speculativeHits = 0;
+        private long speculativeMisses = 0;
 
         public StreamablePayloadRandomAccesor(
                 S3Client s3,
@@ -56,6 +112,17 @@ public class S3StreamableProtoFileParser<H, P> {
                 String key,
                 Function<byte[], H> headerFactory,
                 Function<byte[], P> protoFactory) throws IOException, InvalidProtocolBufferException {
+            this(s3, bucket, key, headerFactory, protoFactory, false);
+        }
+
+        public StreamablePayloadRandomAccesor(
+                S3Client s3,
+                String bucket,
+                String key,
+                Function<byte[], H> headerFactory,
+                Function<byte[], P> protoFactory,
+                boolean speculative) throws IOException, InvalidProtocolBufferException {
+            this.speculative = speculative;
             this.s3 = s3;
             this.bucket = bucket;
             this.key = key;
@@ -65,8 +132,9 @@ public class S3StreamableProtoFileParser<H, P> {
             byte[] meta = s3RangeRead(0, 7);
             ByteBuffer metaBuf = ByteBuffer.wrap(meta);
             int magic = metaBuf.getInt();
-            if (magic != StreamableProtoFileParser.MAGIC_BYTE)
+            if (magic != StreamableProtoFileParser.MAGIC_BYTE && magic != StreamableProtoFileParser.BLOCKED_MAGIC_BYTE)
                 throw new IOException("Invalid magic byte");
+            this.blockCompressed = magic == StreamableProtoFileParser.BLOCKED_MAGIC_BYTE;
             int headerLen = metaBuf.getInt();
             // Read header bytes
             byte[] headerBytes = s3RangeRead(8, 8 + headerLen - 1);
@@ -74,9 +142,27 @@ public class S3StreamableProtoFileParser<H, P> {
             this.headerEndOffset = 8 + headerLen;
         }
 
+        // For block-compressed files offset is a record address as reported by the writer
         public P GetPayloadAtOffset(long offset) throws IOException, InvalidProtocolBufferException {
             if (offset <= 0)
                 throw new IllegalArgumentException("Offset cannot be negative");
+            if (blockCompressed) {
+                BlockFormat.Block block = loadBlock(StreamableProtoFileParser.BlockOffsetOf(offset));
+                if (block == null)
+                    return null;
+                int index = StreamableProtoFileParser.BlockRecordIndexOf(offset);
+                if (index >= block.recordCount)
+                    throw new IOException("No record " + index + " in block at offset " + block.offset);
+                return protoFactory.apply(block.Record(index));
+            }
+            if (speculative) {
+                ByteBuffer frame = speculativeFrameRead(offset, 4, recordReadSize);
+                if (frame.getInt(0) == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                    return null;
+                byte[] data = new byte[frame.limit() - 4];
+                frame.get(4, data);
+                return protoFactory.apply(data);
+            }
             // Read 4 bytes for length
             byte[] lenBytes = s3RangeRead(offset, offset + 3);
             int length = ByteBuffer.wrap(lenBytes).getInt();
@@ -87,10 +173,189 @@ public class S3StreamableProtoFileParser<H, P> {
             return protoFactory.apply(data);
         }
 
+        // Payloads at offsets, in the same order (null where an offset is the file seal). Offsets are
+        // sorted and deduplicated first, and records close together are fetched with a single GET.
+        public List<P> GetPayloadsAtOffsets(long[] offsets) throws IOException, InvalidProtocolBufferException {
+            return GetPayloadsAtOffsets(offsets, DEFAULT_COALESCE_GAP);
+        }
+
+        // maxGap is how far apart (start to start) two records can be and still share a GET
+        public List<P> GetPayloadsAtOffsets(long[] offsets, long maxGap)
+                throws IOException, InvalidProtocolBufferException {
+            return BatchedReads.readPayloads(offsets, blockCompressed, maxGap, BATCH_TAIL_READ, this::s3ReadUpTo,
+                    protoFactory);
+        }
+
+        // Speculative lookups answered by a single GET
+        public long GetSpeculativeHits() {
+            return speculativeHits;
+        }
+
+        // Speculative lookups whose record (or block) was larger than the guess and took a second GET
+        public long GetSpeculativeMisses() {
+            return speculativeMisses;
+        }
+
         public H GetHeader() {
             return header;
         }
 
+        public boolean IsBlockCompressed() {
+            return blockCompressed;
+        }
+
+        // Block index of a sealed block-compressed object, or null if there is none
+        public BlockIndex GetBlockIndex() throws IOException {
+            if (!blockCompressed)
+                return null;
+            StreamableFileFooter footer = GetFooter();
+            if (footer != null) {
+                // The footer follows the block index and its tail
+                if (footer.GetBlockIndexOffset() < 0)
+                    return null;
+                return BlockIndex.Parse(ByteBuffer.wrap(s3RangeRead(footer.GetBlockIndexOffset(),
+                        footer.GetFooterOffset() - 1)));
+            }
+            long size = s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build()).contentLength();
+            if (size < BlockIndex.TAIL_SIZE)
+                return null;
+            long indexOffset = BlockIndex.ParseTail(ByteBuffer.wrap(s3RangeRead(size - BlockIndex.TAIL_SIZE, size - 1)));
+            if (indexOffset < 0)
+                return null;
+            return BlockIndex.Parse(ByteBuffer.wrap(s3RangeRead(indexOffset, size - BlockIndex.TAIL_SIZE - 1)));
+        }
+
+        // Footer of an object written with StreamableProtoFileWriter.Options.WithFooter, or null if there is none.
+        // One suffix range read covers the tail and, unless the offset table is very large, the whole footer.
+        public StreamableFileFooter GetFooter() throws IOException {
+            if (footerLoaded)
+                return footer;
+            // Only a successful read is remembered; after a failed GET the next call tries again
+            footer = readFooter();
+            footerLoaded = true;
+            return footer;
+        }
+
+        private StreamableFileFooter readFooter() throws IOException {
+            GetObjectRequest req = GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range("bytes=-" + FOOTER_READ_SIZE)
+                    .build();
+            byte[] suffix;
+            long size;
+            try (ResponseInputStream<GetObjectResponse> in = s3.getObject(req)) {
+                suffix = in.readAllBytes();
+                size = objectSize(in.response(), suffix.length);
+            }
+            if (suffix.length < StreamableFileFooter.TAIL_SIZE)
+                return null;
+            long footerOffset = StreamableFileFooter.ParseTail(
+                    ByteBuffer.wrap(suffix, suffix.length - StreamableFileFooter.TAIL_SIZE, StreamableFileFooter.TAIL_SIZE));
+            if (footerOffset < 0)
+                return null;
+            long suffixStart = size - suffix.length;
+            long footerEnd = size - StreamableFileFooter.TAIL_SIZE;
+            ByteBuffer body;
+            if (footerOffset >= suffixStart) {
+                body = ByteBuffer.wrap(suffix, (int) (footerOffset - suffixStart), (int) (footerEnd - footerOffset));
+            } else {
+                body = ByteBuffer.wrap(s3RangeRead(footerOffset, footerEnd - 1));
+            }
+            return StreamableFileFooter.Parse(footerOffset, body);
+        }
+
+        // Offset (or record address) of the ordinal-th record, located through the footer
+        public long GetRecordOffset(long ordinal) throws IOException {
+            StreamableFileFooter footer = GetFooter();
+            if (footer == null)
+                throw new IOException("Object has no footer");
+            return footer.offsetOf(ordinal, blockCompressed, (position, dst) -> {
+                byte[] data = s3RangeRead(position, position + dst.length - 1);
+                System.arraycopy(data, 0, dst, 0, dst.length);
+            });
+        }
+
+        public P GetPayloadAt(long ordinal) throws IOException, InvalidProtocolBufferException {
+            return GetPayloadAtOffset(GetRecordOffset(ordinal));
+        }
+
+        // Total object size from the Content-Range of a ranged response ("bytes start-end/size")
+        private long objectSize(GetObjectResponse response, int bytesReturned) {
+            String contentRange = response.contentRange();
+            if (contentRange != null) {
+                int slash = contentRange.lastIndexOf('/');
+                if (slash >= 0 && !contentRange.endsWith("*"))
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+            }
+            // Without a Content-Range the whole object was returned
+            return bytesReturned;
+        }
+
+        private BlockFormat.Block loadBlock(long blockOffset) throws IOException {
+            if (cachedBlock != null && cachedBlock.offset == blockOffset)
+                return cachedBlock;
+            if (speculative) {
+                ByteBuffer frame = speculativeFrameRead(blockOffset, BlockFormat.BLOCK_HEADER_SIZE, blockReadSize);
+                if (frame.getInt(0) == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                    return null;
+                cachedBlock = BlockFormat.decode(blockOffset, frame);
+                return cachedBlock;
+            }
+            byte[] blockHeader = s3RangeRead(blockOffset, blockOffset + BlockFormat.BLOCK_HEADER_SIZE - 1);
+            int compressedLength = ByteBuffer.wrap(blockHeader).getInt();
+            if (compressedLength == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                return null;
+            byte[] block = new byte[BlockFormat.BLOCK_HEADER_SIZE + compressedLength];
+            System.arraycopy(blockHeader, 0, block, 0, BlockFormat.BLOCK_HEADER_SIZE);
+            long bodyStart = blockOffset + BlockFormat.BLOCK_HEADER_SIZE;
+            byte[] body = s3RangeRead(bodyStart, bodyStart + compressedLength - 1);
+            System.arraycopy(body, 0, block, BlockFormat.BLOCK_HEADER_SIZE, compressedLength);
+            cachedBlock = BlockFormat.decode(blockOffset, ByteBuffer.wrap(block));
+            return cachedBlock;
+        }
+
+        // Fetches the frame at offset (a headerSize-byte header starting with its Int32 body length, then the
+        // body) with one GET of the guessed size, plus one for the remainder when the guess was too small.
+        // The file seal comes back as its 4 bytes.
+        private ByteBuffer speculativeFrameRead(long offset, int headerSize, SpeculativeReadSize readSize)
+                throws IOException {
+            if (headerSize == 4 && footerLoaded && footer != null)
+                readSize.fitMax(footer.GetMaxPayloadSize() + 4);
+            byte[] guess = new byte[Math.max(readSize.next(), headerSize)];
+            int read = s3ReadUpTo(offset, guess);
+            if (read < 4)
+                throw new EOFException("No record at offset " + offset);
+            int length = ByteBuffer.wrap(guess).getInt();
+            if (length == StreamableProtoFileParser.FILE_SEAL_MARKER)
+                return ByteBuffer.wrap(guess, 0, 4);
+            if (length < 0)
+                throw new IOException("Invalid length " + length + " at offset " + offset);
+            int frameSize = headerSize + length;
+            readSize.observe(frameSize);
+            if (frameSize <= read) {
+                speculativeHits++;
+                return ByteBuffer.wrap(guess, 0, frameSize);
+            }
+            speculativeMisses++;
+            byte[] frame = Arrays.copyOf(guess, frameSize);
+            byte[] rest = s3RangeRead(offset + read, offset + frameSize - 1);
+            System.arraycopy(rest, 0, frame, read, rest.length);
+            return ByteBuffer.wrap(frame);
+        }
+
+        // Ranged GET into dst; S3 cuts a range that runs past the end of the object short
+        private int s3ReadUpTo(long position, byte[] dst) throws IOException {
+            GetObjectRequest req = GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range("bytes=" + position + "-" + (position + dst.length - 1))
+                    .build();
+            try (ResponseInputStream<GetObjectResponse> in = s3.getObject(req)) {
+                return in.readNBytes(dst, 0, dst.length);
+            }
+        }
+
         private byte[] s3RangeRead(long start, long end) throws IOException {
             GetObjectRequest req = GetObjectRequest.builder()
                     .bucket(bucket)
@@ -115,4 +380,71 @@ public class S3StreamableProtoFileParser<H, P> {
         }
     }
 
+    public class StreamablePayloadEnumerator implements AutoCloseable {
+        private final S3ParallelRangeInputStream in;
+        private final PayloadFrameReader reader;
+        private final H header;
+
+        private StreamablePayloadEnumerator(S3ParallelRangeInputStream in) throws IOException {
+            this.in = in;
+            this.reader = new PayloadFrameReader(new DataInputStream(in));
+            this.header = headerFactory.apply(reader.GetHeaderBytes());
+        }
+
+        public H GetHeader() {
+            return header;
+        }
+
+        public P GetNextPayload() throws IOException, InvalidProtocolBufferException {
+            byte[] data = GetNextRawPayload();
+            return data != null ? protoFactory.apply(data) : null;
+        }
+
+        // Returns the next payload's serialized bytes without parsing them
+        public byte[] GetNextRawPayload() throws IOException {
+            return reader.next();
+        }
+
+        // Reads the next payload into a reused buffer and parses it with parser
+        public P GetNextPayload(Parser<P> parser) throws IOException, InvalidProtocolBufferException {
+            if (!reader.nextInto())
+                return null;
+            return parser.parseFrom(CodedInputStream.newInstance(reader.buffer(), 0, reader.bufferLength()));
+        }
+
+        // Times the caller had to wait for the next range to download (the scan is network bound)
+        public long GetConsumerStalls() {
+            return in.consumerStalls();
+        }
+
+        public void close() {
+            in.close();
+        }
+    }
+
+    // Size of the next speculative read: twice a moving average of the frame sizes seen, so typical
+    // records fit with room to spare while the occasional outlier costs a second GET
+    static final class SpeculativeReadSize {
+        private long average = 0;
+        private int fixed = 0;
+
+        int next() {
+            if (fixed > 0)
+                return fixed;
+            if (average == 0)
+                return INITIAL_SPECULATIVE_READ;
+            return (int) Math.max(MIN_SPECULATIVE_READ, Math.min(MAX_SPECULATIVE_READ, 2 * average));
+        }
+
+        void observe(int frameSize) {
+            average = average == 0 ? frameSize : average + (frameSize - average) / 8;
+        }
+
+        // Every frame is known to fit in maxFrameSize; use it when it is not too large to fetch each time
+        void fitMax(int maxFrameSize) {
+            if (maxFrameSize <= MAX_SPECULATIVE_READ)
+                fixed = maxFrameSize;
+        }
+    }
+
 }
\ No newline at end of file
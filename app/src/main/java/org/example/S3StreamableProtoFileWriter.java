@@ -0,0 +1,117 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Writes a .binpb straight to S3, framed exactly like {@link StreamableProtoFileWriter}
+ * (including block compression and the footer when enabled in the options).
+ *
+ * Bytes are cut into parts of partSize that upload in parallel while records keep
+ * being written; Seal() uploads the last part and completes the multipart upload, so
+ * the object only becomes visible once it is sealed. Memory use is bounded by
+ * partSize * (maxInFlightParts + 1).
+ */
+public class S3StreamableProtoFileWriter<H extends com.google.protobuf.GeneratedMessageV3, P extends com.google.protobuf.GeneratedMessageV3>
+        implements AutoCloseable {
+
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT_PARTS = 4;
+
+    private final MultipartUploadChannel upload;
+    private final StreamableProtoFileWriter<H, P> writer;
+    private boolean sealed = false;
+
+    public S3StreamableProtoFileWriter(S3Client s3, String bucket, String key, H header)
+            throws IOException, IllegalArgumentException {
+        this(s3, bucket, key, header, null, DEFAULT_PART_SIZE, DEFAULT_MAX_IN_FLIGHT_PARTS,
+                new StreamableProtoFileWriter.Options());
+    }
+
+    public S3StreamableProtoFileWriter(S3Client s3, String bucket, String key, H header,
+            BiConsumer<Long, P> onWriteCallback) throws IOException, IllegalArgumentException {
+        this(s3, bucket, key, header, onWriteCallback, DEFAULT_PART_SIZE, DEFAULT_MAX_IN_FLIGHT_PARTS,
+                new StreamableProtoFileWriter.Options());
+    }
+
+    // partSize must be at least 5 MB (an S3 limit); durability policies do not apply to S3
+    public S3StreamableProtoFileWriter(S3Client s3, String bucket, String key, H header,
+            BiConsumer<Long, P> onWriteCallback, int partSize, int maxInFlightParts,
+            StreamableProtoFileWriter.Options options) throws IOException, IllegalArgumentException {
+        this(s3, bucket, key, header, onWriteCallback, null, null, partSize, maxInFlightParts, options);
+    }
+
+    // onRawWriteCallback and protoFactory serve WriteRaw as in the matching StreamableProtoFileWriter constructor
+    public S3StreamableProtoFileWriter(S3Client s3, String bucket, String key, H header,
+            BiConsumer<Long, P> onWriteCallback, BiConsumer<Long, RawPayload<P>> onRawWriteCallback,
+            Function<byte[], P> protoFactory, int partSize, int maxInFlightParts,
+            StreamableProtoFileWriter.Options options) throws IOException, IllegalArgumentException {
+        if (header == null) {
+            throw new IllegalArgumentException("Header cannot be null");
+        }
+        this.upload = new MultipartUploadChannel(s3, bucket, key, partSize, maxInFlightParts);
+        try {
+            this.writer = new StreamableProtoFileWriter<>(this.upload, header, onWriteCallback, onRawWriteCallback,
+                    protoFactory, options);
+        } catch (IOException | RuntimeException e) {
+            this.upload.close();
+            throw e;
+        }
+    }
+
+    public int Write(P payload) throws IOException {
+        return writer.Write(payload);
+    }
+
+    public long[] WriteAll(Iterable<P> payloads) throws IOException {
+        return writer.WriteAll(payloads);
+    }
+
+    public long[] WriteAll(Stream<P> payloads) throws IOException {
+        return writer.WriteAll(payloads);
+    }
+
+    public int WriteRaw(ByteBuffer payload) throws IOException {
+        return writer.WriteRaw(payload);
+    }
+
+    public int WriteRaw(byte[] payload, int offset, int length) throws IOException {
+        return writer.WriteRaw(payload, offset, length);
+    }
+
+    // Seals the file and completes the upload; the object is visible once this returns
+    public void Seal() throws IOException {
+        if (!sealed) {
+            writer.Seal();
+            upload.complete();
+            sealed = true;
+        }
+    }
+
+    public long GetWriteOffset() {
+        return writer.GetWriteOffset();
+    }
+
+    public long GetRecordCount() {
+        return writer.GetRecordCount();
+    }
+
+    // Number of times a write had to wait for a part upload to finish
+    public long GetUploadStalls() {
+        return upload.bufferStalls();
+    }
+
+    // Aborts the multipart upload if Seal() did not succeed
+    public void close() throws Exception {
+        try {
+            Seal();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Optional footer written after the seal marker (and after the block index, if any):
+ * [record count (long)][min payload size (int)][max payload size (int)][sample interval (int)]
+ * [block index offset (long), -1 if none][sample count (int)][offset of record i * sample interval (long)]...
+ * It is located through the fixed-size tail [footer offset (long)][FOOTER_MARKER] at the very end of the file.
+ *
+ * With a sample interval of 1 the offset table is dense and every record can be located directly;
+ * otherwise a reader jumps to the nearest sample and skips the remaining frames.
+ */
+public class StreamableFileFooter {
+
+    static final int TAIL_SIZE = 8 + 4;
+    static final int FIXED_SIZE = 8 + 4 + 4 + 4 + 8 + 4;
+    // Most a single read takes when walking frames from a sample in a plain file
+    static final int MAX_WALK_READ = 256 * 1024;
+
+    // Reads length bytes at position into dst; lets the local and S3 accessors share the hop logic
+    interface RangeReader {
+        void read(long position, byte[] dst) throws IOException;
+    }
+
+    private final long footerOffset;
+    private final long recordCount;
+    private final int minPayloadSize;
+    private final int maxPayloadSize;
+    private final int sampleInterval;
+    private final long blockIndexOffset;
+    private final long[] sampleOffsets;
+
+    StreamableFileFooter(long footerOffset, long recordCount, int minPayloadSize, int maxPayloadSize,
+            int sampleInterval, long blockIndexOffset, long[] sampleOffsets) {
+        this.footerOffset = footerOffset;
+        this.recordCount = recordCount;
+        this.minPayloadSize = minPayloadSize;
+        this.maxPayloadSize = maxPayloadSize;
+        this.sampleInterval = sampleInterval;
+        this.blockIndexOffset = blockIndexOffset;
+        this.sampleOffsets = sampleOffsets;
+    }
+
+    public long GetRecordCount() {
+        return recordCount;
+    }
+
+    public int GetMinPayloadSize() {
+        return minPayloadSize;
+    }
+
+    public int GetMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    // 1 means the offset table has an entry for every record
+    public int GetSampleInterval() {
+        return sampleInterval;
+    }
+
+    public int GetSampleCount() {
+        return sampleOffsets.length;
+    }
+
+    // Offset (record address in block-compressed files) of record sample * GetSampleInterval()
+    public long GetSampleOffset(int sample) {
+        return sampleOffsets[sample];
+    }
+
+    // Offset of the block index, or -1 for plain files
+    public long GetBlockIndexOffset() {
+        return blockIndexOffset;
+    }
+
+    long GetFooterOffset() {
+        return footerOffset;
+    }
+
+    static int SerializedSize(int sampleCount) {
+        return FIXED_SIZE + sampleCount * 8;
+    }
+
+    // Returns the footer start offset recorded in the tail, or -1 if the file has no footer
+    static long ParseTail(ByteBuffer tail) {
+        long footerOffset = tail.getLong();
+        int marker = tail.getInt();
+        return marker == StreamableProtoFileParser.FOOTER_MARKER ? footerOffset : -1;
+    }
+
+    static StreamableFileFooter Parse(long footerOffset, ByteBuffer buf) throws IOException {
+        if (buf.remaining() < FIXED_SIZE) {
+            throw new IOException("Corrupt footer");
+        }
+        long recordCount = buf.getLong();
+        int minPayloadSize = buf.getInt();
+        int maxPayloadSize = buf.getInt();
+        int sampleInterval = buf.getInt();
+        long blockIndexOffset = buf.getLong();
+        int sampleCount = buf.getInt();
+        if (sampleInterval <= 0 || sampleCount < 0 || buf.remaining() < (long) sampleCount * 8) {
+            throw new IOException("Corrupt footer");
+        }
+        long[] offsets = new long[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            offsets[i] = buf.getLong();
+        }
+        return new StreamableFileFooter(footerOffset, recordCount, minPayloadSize, maxPayloadSize, sampleInterval,
+                blockIndexOffset, offsets);
+    }
+
+    // Offset of record ordinal: the nearest sample, then frame by frame (or block by block) from there
+    long offsetOf(long ordinal, boolean blockCompressed, RangeReader reader) throws IOException {
+        if (ordinal < 0 || ordinal >= recordCount) {
+            throw new IllegalArgumentException("ordinal out of range");
+        }
+        long offset = sampleOffsets[(int) (ordinal / sampleInterval)];
+        long skip = ordinal % sampleInterval;
+        if (skip == 0) {
+            return offset;
+        }
+        if (!blockCompressed) {
+            // The skipped frames take at most skip * (4 + max payload size) bytes and end before the
+            // footer, so one read usually covers them all; frames too large for it take further reads
+            while (true) {
+                long bound = Math.min(skip * (4L + maxPayloadSize), footerOffset - offset);
+                if (bound < 4) {
+                    throw new IOException("Corrupt footer: record " + ordinal + " runs past the last record");
+                }
+                byte[] frames = new byte[(int) Math.min(bound, MAX_WALK_READ)];
+                reader.read(offset, frames);
+                ByteBuffer buf = ByteBuffer.wrap(frames);
+                long pos = 0;
+                while (skip > 0 && pos + 4 <= frames.length) {
+                    int length = buf.getInt((int) pos);
+                    if (length < 0) {
+                        throw new IOException("Invalid payload length " + length + " at offset " + (offset + pos));
+                    }
+                    pos += 4 + length;
+                    skip--;
+                }
+                offset += pos;
+                if (skip == 0) {
+                    return offset;
+                }
+            }
+        }
+        long blockOffset = StreamableProtoFileParser.BlockOffsetOf(offset);
+        long index = StreamableProtoFileParser.BlockRecordIndexOf(offset) + skip;
+        byte[] blockHeader = new byte[BlockFormat.BLOCK_HEADER_SIZE];
+        while (true) {
+            reader.read(blockOffset, blockHeader);
+            ByteBuffer header = ByteBuffer.wrap(blockHeader);
+            int compressedLength = header.getInt();
+            int blockRecords = header.getInt(BlockFormat.BLOCK_HEADER_SIZE - 4);
+            if (index < blockRecords) {
+                return StreamableProtoFileParser.BlockRecordAddress(blockOffset, (int) index);
+            }
+            index -= blockRecords;
+            blockOffset += BlockFormat.BLOCK_HEADER_SIZE + compressedLength;
+        }
+    }
+}
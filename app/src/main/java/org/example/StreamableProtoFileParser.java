@@ -2,21 +2,63 @@ package org.example;
 
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
 
 public class StreamableProtoFileParser<H, P> {
 
     public static final int MAGIC_BYTE = 0x1973;
     public static final int FILE_SEAL_MARKER = -1;
+    // Magic byte of a block-compressed file, see StreamableProtoFileWriter.Options.WithBlockCompression
+    public static final int BLOCKED_MAGIC_BYTE = 0x1974;
+    public static final int BLOCK_INDEX_MARKER = 0x1975;
+    // Last 4 bytes of a file written with StreamableProtoFileWriter.Options.WithFooter
+    public static final int FOOTER_MARKER = 0x1976;
+    // In a block-compressed file a record address is (block offset << BLOCK_RECORD_INDEX_BITS) | index in block
+    public static final int BLOCK_RECORD_INDEX_BITS = 20;
+    public static final int MAX_RECORDS_PER_BLOCK = 1 << BLOCK_RECORD_INDEX_BITS;
+    // A single mapping cannot exceed 2 GB; larger files are mapped window by window
+    static final int MAX_MAP_WINDOW = Integer.MAX_VALUE;
+    // Streams split the file into chunks of roughly this many bytes
+    static final long SPLIT_TARGET_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_READ_AHEAD_DEPTH = 4;
+    public static final int DEFAULT_READ_AHEAD_BUFFER_SIZE = 1024 * 1024;
+    // GetPayloadsAtOffsets reads records whose starts are at most this many bytes apart together
+    public static final long DEFAULT_COALESCE_GAP = 64 * 1024;
+    // Bytes a batched read takes past its last record start, enough for most records
+    static final int BATCH_TAIL_READ = 8 * 1024;
 
     private final Function<byte[], H> headerFactory;
     private final Function<byte[], P> protoFactory;
     private final String file;
+    // Stream chunks currently open, across every spliterator of this parser
+    final AtomicInteger openChunks = new AtomicInteger();
 
     public StreamableProtoFileParser(String file, Function<byte[], H> headerFactory, Function<byte[], P> protoFactory)
             throws com.google.protobuf.InvalidProtocolBufferException, IllegalArgumentException {
@@ -37,18 +79,151 @@ public class StreamableProtoFileParser<H, P> {
 
     public StreamablePayloadEnumerator GetPayloadEnumerator() throws IOException {
         var fi = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 64 * 1024));
-        return new StreamablePayloadEnumerator(fi, this.headerFactory, this.protoFactory);
+        return new StreamablePayloadEnumerator(fi, null, this.headerFactory, this.protoFactory);
+    }
+
+    public StreamablePayloadEnumerator GetReadAheadPayloadEnumerator() throws IOException {
+        return GetReadAheadPayloadEnumerator(DEFAULT_READ_AHEAD_DEPTH, DEFAULT_READ_AHEAD_BUFFER_SIZE);
+    }
+
+    // Enumerator whose file reads run on a background thread, up to depth buffers of bufferSize
+    // bytes ahead of the caller, so reads and parsing overlap. Pays off on high-latency volumes.
+    public StreamablePayloadEnumerator GetReadAheadPayloadEnumerator(int depth, int bufferSize) throws IOException {
+        if (depth <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("depth and bufferSize must be positive");
+        }
+        var readAhead = new ReadAheadInputStream(FileChannel.open(Paths.get(this.file), StandardOpenOption.READ),
+                depth, bufferSize);
+        return new StreamablePayloadEnumerator(new DataInputStream(readAhead), readAhead, this.headerFactory,
+                this.protoFactory);
+    }
+
+    // Enumerator over a memory-mapped file that parses payloads in place with parser, without copying them
+    public MappedPayloadEnumerator GetMappedPayloadEnumerator(Parser<P> parser) throws IOException {
+        if (parser == null) {
+            throw new IllegalArgumentException("parser cannot be null");
+        }
+        return new MappedPayloadEnumerator(this.file, this.headerFactory, parser, MAX_MAP_WINDOW);
+    }
+
+    // Without a Parser, GetNextPayload copies each payload and hands it to protoFactory;
+    // GetNextPayloadSlice is still zero-copy
+    public MappedPayloadEnumerator GetMappedPayloadEnumerator() throws IOException {
+        return new MappedPayloadEnumerator(this.file, this.headerFactory, null, MAX_MAP_WINDOW);
+    }
+
+    MappedPayloadEnumerator GetMappedPayloadEnumerator(Parser<P> parser, int windowSize) throws IOException {
+        return new MappedPayloadEnumerator(this.file, this.headerFactory, parser, windowSize);
+    }
+
+    // Stream over every payload; call parallel() on it to parse chunks of the file on the common ForkJoinPool
+    public Stream<P> GetPayloadStream() throws IOException {
+        return GetPayloadStream(true);
+    }
+
+    // An unordered stream lets parallel pipelines (forEach, findAny, limit, ...) skip reassembling file order.
+    // Chunks are closed as they are finished; close the stream (try-with-resources) to release the ones a
+    // short-circuiting pipeline (findFirst, anyMatch, limit, ...) stopped in the middle of.
+    public Stream<P> GetPayloadStream(boolean ordered) throws IOException {
+        return GetPayloadStream(ordered, SPLIT_TARGET_BYTES);
+    }
+
+    Stream<P> GetPayloadStream(boolean ordered, long targetBytes) throws IOException {
+        PayloadSpliterator spliterator = new PayloadSpliterator(SplitPoints(targetBytes), ordered);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::closeAll);
+    }
+
+    // A spliterator abandoned part way through a chunk keeps that chunk's file open; prefer GetPayloadStream
+    public Spliterator<P> GetPayloadSpliterator(boolean ordered) throws IOException {
+        return new PayloadSpliterator(SplitPoints(SPLIT_TARGET_BYTES), ordered);
+    }
+
+    Spliterator<P> GetPayloadSpliterator(boolean ordered, long targetBytes) throws IOException {
+        return new PayloadSpliterator(SplitPoints(targetBytes), ordered);
+    }
+
+    // Offsets where chunks of about targetBytes start; each is a record boundary (a block boundary in
+    // block-compressed files). Taken from the block index or the footer's offset table when the file
+    // has one, otherwise from a pass that hops from length prefix to length prefix.
+    long[] SplitPoints(long targetBytes) throws IOException {
+        if (targetBytes <= 0) {
+            throw new IllegalArgumentException("targetBytes must be positive");
+        }
+        long[] candidates = null;
+        try (StreamablePayloadRandomAccesor accessor = GetPayloadRandomAccesor()) {
+            if (accessor.IsBlockCompressed()) {
+                BlockIndex index = accessor.GetBlockIndex();
+                if (index != null) {
+                    candidates = new long[index.GetBlockCount()];
+                    for (int i = 0; i < candidates.length; i++) {
+                        candidates[i] = index.GetBlockOffset(i);
+                    }
+                }
+            } else {
+                StreamableFileFooter footer = accessor.GetFooter();
+                if (footer != null) {
+                    candidates = new long[footer.GetSampleCount()];
+                    for (int i = 0; i < candidates.length; i++) {
+                        candidates[i] = footer.GetSampleOffset(i);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        long[] points = new long[16];
+        int count = 0;
+        if (candidates != null) {
+            for (long offset : candidates) {
+                if (count == 0 || offset - points[count - 1] >= targetBytes) {
+                    if (count == points.length) {
+                        points = Arrays.copyOf(points, count * 2);
+                    }
+                    points[count++] = offset;
+                }
+            }
+            return Arrays.copyOf(points, count);
+        }
+        try (MappedPayloadEnumerator hopper = new MappedPayloadEnumerator(this.file, this.headerFactory, null,
+                MAX_MAP_WINDOW)) {
+            for (long offset = hopper.skipFrame(); offset >= 0; offset = hopper.skipFrame()) {
+                if (count == 0 || offset - points[count - 1] >= targetBytes) {
+                    if (count == points.length) {
+                        points = Arrays.copyOf(points, count * 2);
+                    }
+                    points[count++] = offset;
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return Arrays.copyOf(points, count);
     }
 
     public StreamablePayloadRandomAccesor GetPayloadRandomAccesor() throws IOException, InvalidProtocolBufferException {
         var raf = new RandomAccessFile(this.file, "r");
         return new StreamablePayloadRandomAccesor(raf, this.headerFactory, this.protoFactory);
     }
+    // Random accessor that can be shared by any number of threads; see ConcurrentPayloadRandomAccesor
+    public ConcurrentPayloadRandomAccesor GetConcurrentPayloadRandomAccesor() throws IOException {
+        return new ConcurrentPayloadRandomAccesor(Paths.get(this.file), this.headerFactory, this.protoFactory);
+    }
+
     public class StreamablePayloadRandomAccesor implements AutoCloseable {
 
         private final RandomAccessFile raf;
         private H header;
         private final Function<byte[], P> protoFactory;
+        private final boolean blockCompressed;
+        // Last block decompressed, so neighbouring lookups in a compressed file share the work
+        private BlockFormat.Block cachedBlock;
+        private StreamableFileFooter footer;
+        private boolean footerLoaded = false;
 
         private StreamablePayloadRandomAccesor(RandomAccessFile raf, Function<byte[], H> headerFactory,
                 Function<byte[], P> protoFactory) throws IOException, InvalidProtocolBufferException {
@@ -56,24 +231,39 @@ public class StreamableProtoFileParser<H, P> {
             this.raf = raf;
             int magicByte = raf.readInt();
 
-            if (magicByte != StreamableProtoFileParser.MAGIC_BYTE) {
+            if (magicByte != StreamableProtoFileParser.MAGIC_BYTE
+                    && magicByte != StreamableProtoFileParser.BLOCKED_MAGIC_BYTE) {
                 throw new IOException("Invalid magic byte");
             }
+            this.blockCompressed = magicByte == StreamableProtoFileParser.BLOCKED_MAGIC_BYTE;
 
             int headerLength = raf.readInt();
 
             byte[] headerBytes = new byte[headerLength];
 
-            raf.read(headerBytes);
+            raf.readFully(headerBytes);
 
             header = headerFactory.apply(headerBytes);
         }
 
+        // For block-compressed files offset is a record address as reported by the writer
         public P GetPayloadAtOffset(long offset) throws IOException, InvalidProtocolBufferException {
             if (offset <= 0) {
                 throw new IllegalArgumentException("Offset cannot be negative");
             }
 
+            if (blockCompressed) {
+                BlockFormat.Block block = loadBlock(BlockOffsetOf(offset));
+                if (block == null) {
+                    return null;
+                }
+                int index = BlockRecordIndexOf(offset);
+                if (index >= block.recordCount) {
+                    throw new IOException("No record " + index + " in block at offset " + block.offset);
+                }
+                return protoFactory.apply(block.Record(index));
+            }
+
             raf.seek(offset);
             int length = this.raf.readInt();
 
@@ -83,10 +273,121 @@ public class StreamableProtoFileParser<H, P> {
             }
 
             byte[] data = new byte[length];
-            this.raf.read(data);
+            this.raf.readFully(data);
             return protoFactory.apply(data);
         }
 
+        // Payloads at offsets, in the same order (null where an offset is the file seal). Offsets are
+        // sorted and deduplicated first, and records close together are fetched with a single read.
+        public List<P> GetPayloadsAtOffsets(long[] offsets) throws IOException, InvalidProtocolBufferException {
+            return GetPayloadsAtOffsets(offsets, DEFAULT_COALESCE_GAP);
+        }
+
+        // maxGap is how far apart (start to start) two records can be and still share a read
+        public List<P> GetPayloadsAtOffsets(long[] offsets, long maxGap)
+                throws IOException, InvalidProtocolBufferException {
+            return BatchedReads.readPayloads(offsets, blockCompressed, maxGap, BATCH_TAIL_READ, (position, dst) -> {
+                raf.seek(position);
+                int total = 0;
+                while (total < dst.length) {
+                    int n = raf.read(dst, total, dst.length - total);
+                    if (n < 0) {
+                        break;
+                    }
+                    total += n;
+                }
+                return total;
+            }, protoFactory);
+        }
+
+        public boolean IsBlockCompressed() {
+            return blockCompressed;
+        }
+
+        // Block index of a sealed block-compressed file, or null if there is none
+        public BlockIndex GetBlockIndex() throws IOException {
+            if (!blockCompressed || raf.length() < BlockIndex.TAIL_SIZE) {
+                return null;
+            }
+            long indexOffset;
+            long indexEnd;
+            StreamableFileFooter footer = GetFooter();
+            if (footer != null) {
+                // The footer follows the block index and its tail
+                indexOffset = footer.GetBlockIndexOffset();
+                indexEnd = footer.GetFooterOffset();
+            } else {
+                byte[] tail = new byte[BlockIndex.TAIL_SIZE];
+                raf.seek(raf.length() - BlockIndex.TAIL_SIZE);
+                raf.readFully(tail);
+                indexOffset = BlockIndex.ParseTail(ByteBuffer.wrap(tail));
+                indexEnd = raf.length();
+            }
+            if (indexOffset < 0) {
+                return null;
+            }
+            byte[] index = new byte[(int) (indexEnd - indexOffset)];
+            raf.seek(indexOffset);
+            raf.readFully(index);
+            return BlockIndex.Parse(ByteBuffer.wrap(index));
+        }
+
+        // Footer of a file written with StreamableProtoFileWriter.Options.WithFooter, or null if there is none
+        public StreamableFileFooter GetFooter() throws IOException {
+            if (footerLoaded) {
+                return footer;
+            }
+            // Only a successful read is remembered; after a failure the next call tries again
+            StreamableFileFooter parsed = null;
+            if (raf.length() >= StreamableFileFooter.TAIL_SIZE) {
+                byte[] tail = new byte[StreamableFileFooter.TAIL_SIZE];
+                raf.seek(raf.length() - StreamableFileFooter.TAIL_SIZE);
+                raf.readFully(tail);
+                long footerOffset = StreamableFileFooter.ParseTail(ByteBuffer.wrap(tail));
+                if (footerOffset >= 0) {
+                    byte[] body = new byte[(int) (raf.length() - StreamableFileFooter.TAIL_SIZE - footerOffset)];
+                    raf.seek(footerOffset);
+                    raf.readFully(body);
+                    parsed = StreamableFileFooter.Parse(footerOffset, ByteBuffer.wrap(body));
+                }
+            }
+            footer = parsed;
+            footerLoaded = true;
+            return parsed;
+        }
+
+        // Offset (or record address) of the ordinal-th record, located through the footer
+        public long GetRecordOffset(long ordinal) throws IOException {
+            StreamableFileFooter footer = GetFooter();
+            if (footer == null) {
+                throw new IOException("File has no footer");
+            }
+            return footer.offsetOf(ordinal, blockCompressed, (position, dst) -> {
+                raf.seek(position);
+                raf.readFully(dst);
+            });
+        }
+
+        public P GetPayloadAt(long ordinal) throws IOException, InvalidProtocolBufferException {
+            return GetPayloadAtOffset(GetRecordOffset(ordinal));
+        }
+
+        private BlockFormat.Block loadBlock(long blockOffset) throws IOException {
+            if (cachedBlock != null && cachedBlock.offset == blockOffset) {
+                return cachedBlock;
+            }
+            raf.seek(blockOffset);
+            int compressedLength = raf.readInt();
+            if (compressedLength == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+                return null;
+            }
+            byte[] block = new byte[BlockFormat.BLOCK_HEADER_SIZE + compressedLength];
+            raf.seek(blockOffset);
+            raf.readFully(block);
+            cachedBlock = BlockFormat.decode(blockOffset, ByteBuffer.wrap(block));
+            return cachedBlock;
+        }
+
         public H GetHeader() {
             return header;
         }
@@ -96,33 +397,383 @@ public class StreamableProtoFileParser<H, P> {
         }
     }
 
-    public class StreamablePayloadEnumerator implements AutoCloseable {
+    /**
+     * Thread-safe random accessor. Every read is a positional FileChannel read, so there is
+     * no shared file position and lookups need no lock; one instance (and one file
+     * descriptor) serves all threads. An interrupted caller closes the channel, as NIO
+     * channels do, so the accessor reopens it and the other callers retry their reads.
+     */
+    public class ConcurrentPayloadRandomAccesor implements AutoCloseable {
 
-        private boolean sealReached = false;
+        // First read of a lookup until the footer or a few lookups say how large records are
+        static final int FIRST_READ_SIZE = 8 * 1024;
+        // Upper bound for the first read, so a few huge records do not make every lookup read that much
+        static final int MAX_FIRST_READ_SIZE = 64 * 1024;
+        // Direct buffers of MAX_FIRST_READ_SIZE shared by all callers; when all are taken, lookups
+        // read into a heap buffer instead of waiting
+        static final int MAX_POOLED_BUFFERS = 16;
+
+        private final java.nio.file.Path path;
+        private final Function<byte[], P> protoFactory;
+        private final boolean blockCompressed;
+        private final H header;
+        private volatile FileChannel channel;
+        private volatile boolean closed = false;
+        // Last block decompressed; blocks are immutable once decoded, so sharing one is safe
+        private volatile BlockFormat.Block cachedBlock;
+        private volatile StreamableFileFooter footer;
+        private volatile boolean footerLoaded = false;
+        // Direct, so first reads go straight into them instead of through a JDK temporary buffer.
+        // Bounded and shared rather than per thread, so short-lived (e.g. virtual) threads reuse them;
+        // emptied on close.
+        final ArrayBlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+        final AtomicInteger pooledBuffers = new AtomicInteger();
+        // Moving average of frame sizes (length prefix included); updates may race, it is only a hint
+        private volatile int averageFrameSize = 0;
+
+        private ConcurrentPayloadRandomAccesor(java.nio.file.Path path, Function<byte[], H> headerFactory,
+                Function<byte[], P> protoFactory) throws IOException {
+            this.path = path;
+            this.protoFactory = protoFactory;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer prefix = ByteBuffer.allocate(8);
+                readFully(0, prefix);
+                int magicByte = prefix.getInt(0);
+                if (magicByte != StreamableProtoFileParser.MAGIC_BYTE
+                        && magicByte != StreamableProtoFileParser.BLOCKED_MAGIC_BYTE) {
+                    throw new IOException("Invalid magic byte");
+                }
+                this.blockCompressed = magicByte == StreamableProtoFileParser.BLOCKED_MAGIC_BYTE;
+                byte[] headerBytes = new byte[prefix.getInt(4)];
+                readFully(8, ByteBuffer.wrap(headerBytes));
+                this.header = headerFactory.apply(headerBytes);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // For block-compressed files offset is a record address as reported by the writer
+        public P GetPayloadAtOffset(long offset) throws IOException, InvalidProtocolBufferException {
+            if (offset <= 0) {
+                throw new IllegalArgumentException("Offset cannot be negative");
+            }
+
+            if (blockCompressed) {
+                BlockFormat.Block block = loadBlock(BlockOffsetOf(offset));
+                if (block == null) {
+                    return null;
+                }
+                int index = BlockRecordIndexOf(offset);
+                if (index >= block.recordCount) {
+                    throw new IOException("No record " + index + " in block at offset " + block.offset);
+                }
+                return protoFactory.apply(block.Record(index));
+            }
+
+            // One read for the length prefix and, sized from what we know of the file, the whole payload
+            byte[] data;
+            ByteBuffer first = acquireBuffer(firstReadSize());
+            try {
+                int read = readAtLeast(offset, first, 4);
+                int length = first.getInt(0);
+                if (length == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+                    return null;
+                }
+                if (length < 0) {
+                    throw new IOException("Invalid payload length " + length + " at offset " + offset);
+                }
+                data = new byte[length];
+                int inFirst = Math.min(length, read - 4);
+                first.get(4, data, 0, inFirst);
+                if (inFirst < length) {
+                    // Rare once the first read is sized; straight into the payload array
+                    readFully(offset + 4 + inFirst, ByteBuffer.wrap(data, inFirst, length - inFirst));
+                }
+            } finally {
+                releaseBuffer(first);
+            }
+            int average = averageFrameSize;
+            averageFrameSize = average == 0 ? 4 + data.length : average + (4 + data.length - average) / 8;
+            return protoFactory.apply(data);
+        }
+
+        // Payloads at offsets, in the same order (null where an offset is the file seal). Offsets are
+        // sorted and deduplicated first, and records close together are fetched with a single read.
+        public List<P> GetPayloadsAtOffsets(long[] offsets) throws IOException, InvalidProtocolBufferException {
+            return GetPayloadsAtOffsets(offsets, DEFAULT_COALESCE_GAP);
+        }
+
+        // maxGap is how far apart (start to start) two records can be and still share a read
+        public List<P> GetPayloadsAtOffsets(long[] offsets, long maxGap)
+                throws IOException, InvalidProtocolBufferException {
+            return BatchedReads.readPayloads(offsets, blockCompressed, maxGap, BATCH_TAIL_READ, (position, dst) -> {
+                int available = (int) Math.max(0, Math.min(dst.length, channel().size() - position));
+                return readAtLeast(position, ByteBuffer.wrap(dst, 0, available), available);
+            }, protoFactory);
+        }
+
+        public boolean IsBlockCompressed() {
+            return blockCompressed;
+        }
+
+        // Footer of a file written with StreamableProtoFileWriter.Options.WithFooter, or null if there is none
+        public StreamableFileFooter GetFooter() throws IOException {
+            if (footerLoaded) {
+                return footer;
+            }
+            // Racing callers may both parse it; they get equal footers. Only a successful read is
+            // remembered, so after a failure the next call tries again.
+            long size = channel().size();
+            StreamableFileFooter parsed = null;
+            if (size >= StreamableFileFooter.TAIL_SIZE) {
+                ByteBuffer tail = ByteBuffer.allocate(StreamableFileFooter.TAIL_SIZE);
+                readFully(size - StreamableFileFooter.TAIL_SIZE, tail);
+                long footerOffset = StreamableFileFooter.ParseTail(tail.flip());
+                if (footerOffset >= 0) {
+                    ByteBuffer body = ByteBuffer.allocate((int) (size - StreamableFileFooter.TAIL_SIZE - footerOffset));
+                    readFully(footerOffset, body);
+                    parsed = StreamableFileFooter.Parse(footerOffset, body.flip());
+                }
+            }
+            footer = parsed;
+            footerLoaded = true;
+            return parsed;
+        }
+
+        // Offset (or record address) of the ordinal-th record, located through the footer
+        public long GetRecordOffset(long ordinal) throws IOException {
+            StreamableFileFooter footer = GetFooter();
+            if (footer == null) {
+                throw new IOException("File has no footer");
+            }
+            return footer.offsetOf(ordinal, blockCompressed, (position, dst) -> readFully(position, ByteBuffer.wrap(dst)));
+        }
+
+        public P GetPayloadAt(long ordinal) throws IOException, InvalidProtocolBufferException {
+            return GetPayloadAtOffset(GetRecordOffset(ordinal));
+        }
+
+        public H GetHeader() {
+            return header;
+        }
+
+        public void close() throws Exception {
+            closed = true;
+            bufferPool.clear();
+            channel.close();
+        }
+
+        private BlockFormat.Block loadBlock(long blockOffset) throws IOException {
+            BlockFormat.Block cached = cachedBlock;
+            if (cached != null && cached.offset == blockOffset) {
+                return cached;
+            }
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(blockOffset, length);
+            int compressedLength = length.getInt(0);
+            if (compressedLength == StreamableProtoFileParser.FILE_SEAL_MARKER) {
+                return null;
+            }
+            // A heap buffer, which decode decompresses from in place
+            ByteBuffer block = ByteBuffer.allocate(BlockFormat.BLOCK_HEADER_SIZE + compressedLength);
+            readFully(blockOffset, block);
+            cached = BlockFormat.decode(blockOffset, block.flip());
+            cachedBlock = cached;
+            return cached;
+        }
+
+        // The footer's largest frame when it is small enough (every lookup then takes one read),
+        // otherwise twice the average frame seen so far, so most lookups still do
+        private int firstReadSize() throws IOException {
+            StreamableFileFooter footer = GetFooter();
+            if (footer != null && footer.GetRecordCount() > 0 && footer.GetMaxPayloadSize() <= MAX_FIRST_READ_SIZE - 4) {
+                return 4 + footer.GetMaxPayloadSize();
+            }
+            int average = averageFrameSize;
+            return average == 0 ? FIRST_READ_SIZE : Math.max(64, Math.min(2 * average, MAX_FIRST_READ_SIZE));
+        }
+
+        // A pooled direct buffer with its limit at size (at most MAX_FIRST_READ_SIZE), or a heap
+        // buffer when MAX_POOLED_BUFFERS are all in use
+        private ByteBuffer acquireBuffer(int size) {
+            ByteBuffer buf = bufferPool.poll();
+            if (buf == null) {
+                if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+                    buf = ByteBuffer.allocateDirect(MAX_FIRST_READ_SIZE);
+                } else {
+                    pooledBuffers.decrementAndGet();
+                    return ByteBuffer.allocate(size);
+                }
+            }
+            buf.clear().limit(size);
+            return buf;
+        }
+
+        private void releaseBuffer(ByteBuffer buf) {
+            if (buf.isDirect() && !closed) {
+                bufferPool.offer(buf);
+            }
+        }
+
+        private void readFully(long position, ByteBuffer dst) throws IOException {
+            readAtLeast(position, dst, dst.remaining());
+        }
+
+        // Reads at position into dst until at least min bytes are in, usually with a single read that
+        // fills dst; returns the number of bytes read. Fewer than min bytes left in the file is an EOFException.
+        private int readAtLeast(long position, ByteBuffer dst, int min) throws IOException {
+            int start = dst.position();
+            while (true) {
+                FileChannel ch = channel();
+                try {
+                    while (dst.position() - start < min) {
+                        if (ch.read(dst, position + dst.position() - start) < 0) {
+                            throw new EOFException("Unexpected end of file at offset " + position);
+                        }
+                    }
+                    return dst.position() - start;
+                } catch (ClosedByInterruptException e) {
+                    // This caller was interrupted; fix the channel for everyone else and give up
+                    reopen(ch);
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    if (closed) {
+                        throw e;
+                    }
+                    // Another caller was interrupted mid-read; retry on the reopened channel
+                    reopen(ch);
+                }
+            }
+        }
+
+        private FileChannel channel() throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            return channel;
+        }
+
+        private synchronized void reopen(FileChannel failed) throws IOException {
+            if (!closed && channel == failed) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+        }
+    }
+
+    public class StreamablePayloadEnumerator implements AutoCloseable {
 
         private final Function<byte[], P> protoFactory;
         private final DataInputStream fi;
+        private final PayloadFrameReader reader;
+        private final ReadAheadInputStream readAhead;
         private H header;
 
-        private StreamablePayloadEnumerator(DataInputStream fi, Function<byte[], H> headerFactory,
-                Function<byte[], P> protoFactory) throws IOException, InvalidProtocolBufferException {
+        private StreamablePayloadEnumerator(DataInputStream fi, ReadAheadInputStream readAhead,
+                Function<byte[], H> headerFactory, Function<byte[], P> protoFactory)
+                throws IOException, InvalidProtocolBufferException {
 
             this.protoFactory = protoFactory;
             this.fi = fi;
+            this.readAhead = readAhead;
+            this.reader = new PayloadFrameReader(fi);
 
-            int magicByte = fi.readInt();
+            header = headerFactory.apply(reader.GetHeaderBytes());
+        }
 
-            if (magicByte != StreamableProtoFileParser.MAGIC_BYTE) {
-                throw new IOException("Invalid magic byte");
+        public H GetHeader() {
+            return header;
+        }
+
+        public P GetNextPayload() throws IOException, InvalidProtocolBufferException {
+            byte[] data = GetNextRawPayload();
+            return data != null ? protoFactory.apply(data) : null;
+        }
+
+        // Returns the next payload's serialized bytes without parsing them, e.g. to re-frame them with WriteRaw
+        public byte[] GetNextRawPayload() throws IOException {
+            return reader.next();
+        }
+
+        // Reads the next payload into a reused buffer and parses it with parser; the byte[] per record is avoided
+        public P GetNextPayload(Parser<P> parser) throws IOException, InvalidProtocolBufferException {
+            if (!reader.nextInto()) {
+                return null;
             }
+            return parser.parseFrom(CodedInputStream.newInstance(reader.buffer(), 0, reader.bufferLength()));
+        }
 
-            int headerLength = fi.readInt();
+        // Clears builder and merges the next payload into it, reusing both the read buffer and the
+        // builder's storage from record to record. Returns false at the seal marker.
+        public boolean MergeNextPayload(MessageLite.Builder builder) throws IOException {
+            if (builder == null) {
+                throw new IllegalArgumentException("builder cannot be null");
+            }
+            if (!reader.nextInto()) {
+                return false;
+            }
+            builder.clear();
+            builder.mergeFrom(CodedInputStream.newInstance(reader.buffer(), 0, reader.bufferLength()));
+            return true;
+        }
 
-            byte[] headerBytes = new byte[headerLength];
+        // Times the caller had to wait for the read-ahead thread (reads are the bottleneck);
+        // always 0 without read-ahead
+        public long GetConsumerStalls() {
+            return readAhead != null ? readAhead.consumerStalls() : 0;
+        }
 
-            fi.read(headerBytes);
+        // Times the read-ahead thread had every buffer full and waited for the caller (parsing is the bottleneck)
+        public long GetReadAheadStalls() {
+            return readAhead != null ? readAhead.readAheadStalls() : 0;
+        }
 
-            header = headerFactory.apply(headerBytes);
+        public void close() throws Exception {
+            fi.close();
+        }
+
+    }
+
+    public class MappedPayloadEnumerator implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final long fileSize;
+        private final Parser<P> parser;
+        private final int windowSize;
+        private final boolean blockCompressed;
+        private final H header;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private boolean sealReached = false;
+        private BlockFormat.Block block;
+        private int nextRecord;
+
+        private MappedPayloadEnumerator(String file, Function<byte[], H> headerFactory, Parser<P> parser,
+                int windowSize) throws IOException {
+            if (windowSize <= 0) {
+                throw new IllegalArgumentException("windowSize must be positive");
+            }
+            this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            try {
+                this.fileSize = channel.size();
+                this.parser = parser;
+                this.windowSize = windowSize;
+                int magicByte = readInt(0);
+                if (magicByte != MAGIC_BYTE && magicByte != BLOCKED_MAGIC_BYTE) {
+                    throw new IOException("Invalid magic byte");
+                }
+                this.blockCompressed = magicByte == BLOCKED_MAGIC_BYTE;
+                int headerLength = readInt(4);
+                byte[] headerBytes = new byte[headerLength];
+                slice(8, headerLength).get(headerBytes);
+                this.header = headerFactory.apply(headerBytes);
+                this.position = 8 + headerLength;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
         }
 
         public H GetHeader() {
@@ -130,33 +781,294 @@ public class StreamableProtoFileParser<H, P> {
         }
 
         public P GetNextPayload() throws IOException, InvalidProtocolBufferException {
+            ByteBuffer slice = GetNextPayloadSlice();
+            if (slice == null) {
+                return null;
+            }
+            if (parser != null) {
+                return parser.parseFrom(CodedInputStream.newInstance(slice));
+            }
+            byte[] data = new byte[slice.remaining()];
+            slice.get(data);
+            return protoFactory.apply(data);
+        }
 
+        // Read-only view of the next payload's bytes, or null at the seal marker. Slices of plain
+        // files point into the mapping itself and stay valid after the enumerator moves on.
+        public ByteBuffer GetNextPayloadSlice() throws IOException {
             if (sealReached) {
                 return null;
             }
-            if (this.fi.available() > 0) {
+            if (blockCompressed) {
+                while (block == null || nextRecord == block.recordCount) {
+                    int compressedLength = readInt(position);
+                    if (compressedLength == FILE_SEAL_MARKER) {
+                        sealReached = true;
+                        block = null;
+                        return null;
+                    }
+                    int frameLength = BlockFormat.BLOCK_HEADER_SIZE + compressedLength;
+                    block = BlockFormat.decode(position, slice(position, frameLength));
+                    position += frameLength;
+                    nextRecord = 0;
+                }
+                return block.RecordSlice(nextRecord++).asReadOnlyBuffer();
+            }
+            int length = readInt(position);
+            if (length == FILE_SEAL_MARKER) {
+                sealReached = true;
+                return null;
+            }
+            ByteBuffer payload = slice(position + 4, length);
+            position += 4 + length;
+            return payload;
+        }
 
-                int length = this.fi.readInt();
+        // Steps over the next frame (a record, or a whole block in block-compressed files) without
+        // reading its bytes. Returns the frame's offset, or -1 at the seal marker.
+        long skipFrame() throws IOException {
+            if (sealReached) {
+                return -1;
+            }
+            long at = position;
+            int length = readInt(position);
+            if (length == FILE_SEAL_MARKER) {
+                sealReached = true;
+                return -1;
+            }
+            position += blockCompressed ? BlockFormat.BLOCK_HEADER_SIZE + length : 4 + length;
+            return at;
+        }
 
-                if (length == StreamableProtoFileParser.FILE_SEAL_MARKER) {
-                    sealReached = true;
-                    return null;
-                }
+        private int readInt(long at) throws IOException {
+            map(at, 4);
+            return window.getInt((int) (at - windowStart));
+        }
 
-                byte[] data = new byte[length];
-                this.fi.read(data);
-                return protoFactory.apply(data);
-            } else if (!sealReached) {
+        private ByteBuffer slice(long at, int length) throws IOException {
+            map(at, length);
+            return window.slice((int) (at - windowStart), length);
+        }
+
+        // Remaps when [at, at + length) falls outside the current window
+        private void map(long at, int length) throws IOException {
+            if (length < 0 || at + length > fileSize) {
                 throw new IOException(
                         "This file was not properly sealed! This suggests that the file was not fully written.");
             }
-            return null;
+            if (window == null || at < windowStart || at + length > windowStart + window.capacity()) {
+                long size = Math.min(windowSize, fileSize - at);
+                if (length > size) {
+                    throw new IOException("Record of " + length + " bytes does not fit in a mapping window");
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, at, size);
+                windowStart = at;
+            }
         }
 
         public void close() throws Exception {
-            fi.close();
+            channel.close();
+        }
+    }
+
+    // Splits at chunk boundaries computed up front; every chunk is read with its own stream
+    private class PayloadSpliterator implements Spliterator<P> {
+
+        private final long[] points;
+        private final boolean ordered;
+        // Chunks open in this spliterator and every one split off it, for closeAll
+        private final Set<DataInputStream> open;
+        // Chunks [next, end) have not been started yet
+        private int next;
+        private final int end;
+        private DataInputStream in;
+        private long position;
+        private long chunkEnd;
+        private boolean blockCompressed;
+        private BlockFormat.Block block;
+        private int nextRecord;
+
+        PayloadSpliterator(long[] points, boolean ordered) {
+            this(points, ordered, ConcurrentHashMap.newKeySet(), 0, points.length);
+        }
+
+        private PayloadSpliterator(long[] points, boolean ordered, Set<DataInputStream> open, int next, int end) {
+            this.points = points;
+            this.ordered = ordered;
+            this.open = open;
+            this.next = next;
+            this.end = end;
+        }
+
+        // The current chunk stays open between calls; it is closed once exhausted or if anything throws
+        @Override
+        public boolean tryAdvance(Consumer<? super P> action) {
+            boolean advanced = false;
+            try {
+                byte[] payload;
+                while ((payload = nextPayload()) == null) {
+                    closeChunk();
+                    if (next == end) {
+                        return false;
+                    }
+                    openChunk(next++);
+                }
+                action.accept(protoFactory.apply(payload));
+                advanced = true;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                if (!advanced) {
+                    closeChunk();
+                }
+            }
+        }
+
+        // Reads the rest of the current chunk and then whole chunks, each closed before the next is opened
+        @Override
+        public void forEachRemaining(Consumer<? super P> action) {
+            try {
+                while (true) {
+                    byte[] payload;
+                    while ((payload = nextPayload()) != null) {
+                        action.accept(protoFactory.apply(payload));
+                    }
+                    closeChunk();
+                    if (next == end) {
+                        return;
+                    }
+                    openChunk(next++);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                closeChunk();
+            }
+        }
+
+        @Override
+        public Spliterator<P> trySplit() {
+            // Only chunks nobody has started reading can be handed off without breaking encounter order
+            if (in != null || end - next < 2) {
+                return null;
+            }
+            int mid = (next + end) >>> 1;
+            PayloadSpliterator prefix = new PayloadSpliterator(points, ordered, open, next, mid);
+            next = mid;
+            return prefix;
+        }
+
+        // Counts chunks rather than records; only used to decide how far to split
+        @Override
+        public long estimateSize() {
+            return end - next + (in != null ? 1 : 0);
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | IMMUTABLE | (ordered ? ORDERED : 0);
         }
 
+        private void openChunk(int chunk) throws IOException {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                blockCompressed = new DataInputStream(fis).readInt() == BLOCKED_MAGIC_BYTE;
+                fis.getChannel().position(points[chunk]);
+            } catch (IOException e) {
+                fis.close();
+                throw e;
+            }
+            in = new DataInputStream(new BufferedInputStream(fis, 64 * 1024));
+            open.add(in);
+            openChunks.incrementAndGet();
+            position = points[chunk];
+            // The last chunk runs up to the seal marker
+            chunkEnd = chunk + 1 < points.length ? points[chunk + 1] : Long.MAX_VALUE;
+            block = null;
+        }
+
+        // Next payload of the current chunk, or null once it is exhausted
+        private byte[] nextPayload() throws IOException {
+            if (in == null) {
+                return null;
+            }
+            if (blockCompressed) {
+                while (block == null || nextRecord == block.recordCount) {
+                    if (position >= chunkEnd) {
+                        return null;
+                    }
+                    int compressedLength = readLength();
+                    if (compressedLength == FILE_SEAL_MARKER) {
+                        return null;
+                    }
+                    block = BlockFormat.readBlock(in, position, compressedLength);
+                    position += BlockFormat.BLOCK_HEADER_SIZE + compressedLength;
+                    nextRecord = 0;
+                }
+                return block.Record(nextRecord++);
+            }
+            if (position >= chunkEnd) {
+                return null;
+            }
+            int length = readLength();
+            if (length == FILE_SEAL_MARKER) {
+                return null;
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            position += 4 + length;
+            return data;
+        }
+
+        private int readLength() throws IOException {
+            try {
+                return in.readInt();
+            } catch (EOFException e) {
+                throw new IOException(
+                        "This file was not properly sealed! This suggests that the file was not fully written.", e);
+            }
+        }
+
+        private void closeChunk() {
+            if (in != null) {
+                release(in);
+                in = null;
+            }
+        }
+
+        // Stream.onClose: releases chunks that a short-circuited or failed pipeline left open
+        void closeAll() {
+            for (DataInputStream chunk : open) {
+                release(chunk);
+            }
+        }
+
+        private void release(DataInputStream chunk) {
+            if (!open.remove(chunk)) {
+                // Already released by closeAll
+                return;
+            }
+            openChunks.decrementAndGet();
+            try {
+                chunk.close();
+            } catch (IOException e) {
+                // Read-only stream; nothing to lose
+            }
+        }
+    }
+
+    // Address of a record inside a block-compressed file, as reported to onWriteCallback
+    public static long BlockRecordAddress(long blockOffset, int recordIndex) {
+        return (blockOffset << BLOCK_RECORD_INDEX_BITS) | recordIndex;
+    }
+
+    public static long BlockOffsetOf(long recordAddress) {
+        return recordAddress >>> BLOCK_RECORD_INDEX_BITS;
+    }
+
+    public static int BlockRecordIndexOf(long recordAddress) {
+        return (int) (recordAddress & ((1L << BLOCK_RECORD_INDEX_BITS) - 1));
     }
 
 }
@@ -1,49 +1,149 @@
 package org.example;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.google.protobuf.CodedOutputStream;
 
 public class StreamableProtoFileWriter<H extends com.google.protobuf.GeneratedMessageV3, P extends com.google.protobuf.GeneratedMessageV3>
         implements AutoCloseable {
 
-    private final DataOutputStream fi;
+    static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    // WriteAll lays a batch out in at most this many segments and writes them with one gathering write
+    static final int BATCH_SEGMENTS = 4;
+    static final int BATCH_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    // Where the file's bytes end up: normally a FileChannel, which is also kept in channel
+    private final GatheringByteChannel destination;
+    private final FileChannel channel;
+    // Either the destination itself or, in async mode, the double buffer in front of it
+    private final GatheringByteChannel sink;
+    private final DoubleBufferedChannelWriter asyncSink;
+    // Allocated on first WriteAll and reused by every batch after that
+    private ByteBuffer[] batchSegments;
+    // Reused for every record: payloads are serialized straight into its buffer
+    // and flushed to the channel, so no per-record byte[] is allocated.
+    private final CodedOutputStream out;
     private boolean sealed = false;
     private BiConsumer<Long, P> onWriteCallback;
+    private BiConsumer<Long, RawPayload<P>> onRawWriteCallback;
+    private Function<byte[], P> protoFactory;
     private long currentWriteOffset = 0;
-    
+    private long recordCount = 0;
+
+    // Block compression: records are framed into block until it reaches blockSize, then the
+    // block is compressed and written out. blockCodec is null for plain files.
+    private final BlockCodec blockCodec;
+    private final int blockSize;
+    private byte[] block;
+    private int blockLength = 0;
+    private int blockRecords = 0;
+    private long[] blockOffsets;
+    private int[] blockRecordCounts;
+    private int blockCount = 0;
+
+    // Footer: every footerSampleInterval-th record offset plus payload size statistics; 0 means no footer
+    private final int footerSampleInterval;
+    private long[] footerOffsets;
+    private int footerSampleCount = 0;
+    private int minPayloadSize = Integer.MAX_VALUE;
+    private int maxPayloadSize = 0;
+
+    // Background fsync; created up front when a durability policy is set, otherwise on the first Commit()
+    private final DurabilityPolicy durability;
+    private GroupCommitter committer;
+
     public  StreamableProtoFileWriter(String file, H header, BiConsumer<Long, P> onWriteCallback)
-            throws FileNotFoundException, IOException, IllegalArgumentException {      
-                this(file, header);
-                this.onWriteCallback = onWriteCallback;
+            throws FileNotFoundException, IOException, IllegalArgumentException {
+                this(file, header, onWriteCallback, new Options());
     }
     public StreamableProtoFileWriter(String file, H header)
             throws FileNotFoundException, IOException, IllegalArgumentException {
+        this(file, header, null, new Options());
+    }
 
-        if (file == null) {
-            throw new IllegalArgumentException("File path cannot be null");
-        }
+    public StreamableProtoFileWriter(String file, H header, BiConsumer<Long, P> onWriteCallback, Options options)
+            throws FileNotFoundException, IOException, IllegalArgumentException {
+        this(file, header, onWriteCallback, null, null, options);
+    }
 
+    // onRawWriteCallback is told about records written with WriteRaw; protoFactory backs the lazily
+    // parsed view it receives, and is also used to feed WriteRaw records to onWriteCallback when
+    // no raw callback is registered
+    public StreamableProtoFileWriter(String file, H header, BiConsumer<Long, P> onWriteCallback,
+            BiConsumer<Long, RawPayload<P>> onRawWriteCallback, Function<byte[], P> protoFactory, Options options)
+            throws FileNotFoundException, IOException, IllegalArgumentException {
+        this(openFile(file, header, options), header, onWriteCallback, onRawWriteCallback, protoFactory, options);
+    }
+
+    // Writes the same layout to any channel, e.g. an S3 multipart upload. The destination is closed by close().
+    StreamableProtoFileWriter(GatheringByteChannel destination, H header, BiConsumer<Long, P> onWriteCallback,
+            BiConsumer<Long, RawPayload<P>> onRawWriteCallback, Function<byte[], P> protoFactory, Options options)
+            throws IOException, IllegalArgumentException {
+        if (destination == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
         if (header == null) {
             throw new IllegalArgumentException("Header cannot be null");
         }
-        if (!file.endsWith(".binpb")) {
-            throw new IllegalArgumentException("File must end with .binpb");
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        this.destination = destination;
+        this.channel = destination instanceof FileChannel ? (FileChannel) destination : null;
+        if (this.channel == null && options.durability.mode != DurabilityPolicy.Mode.NONE) {
+            throw new IllegalArgumentException("Durability policies need a local file");
+        }
+        this.onWriteCallback = onWriteCallback;
+        this.onRawWriteCallback = onRawWriteCallback;
+        this.protoFactory = protoFactory;
+        this.blockCodec = options.blockCodec;
+        this.blockSize = options.blockSize;
+        this.footerSampleInterval = options.footerSampleInterval;
+        this.durability = options.durability;
+        if (this.footerSampleInterval > 0) {
+            this.footerOffsets = new long[16];
+        }
+        if (this.blockCodec != null) {
+            this.block = new byte[this.blockSize + this.blockSize / 4];
+            this.blockOffsets = new long[16];
+            this.blockRecordCounts = new int[16];
+        }
+        if (options.asyncBufferSize > 0) {
+            this.asyncSink = new DoubleBufferedChannelWriter(this.destination, options.asyncBufferSize);
+            this.sink = this.asyncSink;
+        } else {
+            this.asyncSink = null;
+            this.sink = this.destination;
+        }
+        this.out = CodedOutputStream.newInstance(Channels.newOutputStream(this.sink), WRITE_BUFFER_SIZE);
+        if (this.durability.mode != DurabilityPolicy.Mode.NONE) {
+            this.committer = newCommitter();
         }
-        this.fi = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
 
-        this.fi.writeInt(StreamableProtoFileParser.MAGIC_BYTE);
+        writeInt(this.blockCodec != null ? StreamableProtoFileParser.BLOCKED_MAGIC_BYTE
+                : StreamableProtoFileParser.MAGIC_BYTE);
         this.currentWriteOffset += 4;
-        
-        byte[] headerBytes = header.toByteArray();
-        
-        this.fi.writeInt(headerBytes.length);
+
+        int headerLength = header.getSerializedSize();
+
+        writeInt(headerLength);
         this.currentWriteOffset += 4;
-        this.fi.write(headerBytes);
-        this.currentWriteOffset += headerBytes.length;
+        header.writeTo(this.out);
+        this.currentWriteOffset += headerLength;
 
     }
 
@@ -53,31 +153,498 @@ public class StreamableProtoFileWriter<H extends com.google.protobuf.GeneratedMe
             throw new IOException("File is sealed");
         }
 
-        byte[] payloadBytes = payload.toByteArray();
+        int payloadLength = payload.getSerializedSize();
 
         if (this.onWriteCallback != null) {
-            this.onWriteCallback.accept(this.currentWriteOffset, payload);
+            this.onWriteCallback.accept(nextRecordOffset(), payload);
         }
-        this.fi.writeInt(payloadBytes.length);
-        this.currentWriteOffset += 4;
-        this.fi.write(payloadBytes);
-        this.currentWriteOffset += payloadBytes.length;
+        trackRecord(nextRecordOffset(), payloadLength);
+        if (this.blockCodec != null) {
+            int payloadStart = reserveBlockFrame(payloadLength);
+            CodedOutputStream blockOut = CodedOutputStream.newInstance(this.block, payloadStart, payloadLength);
+            payload.writeTo(blockOut);
+            blockOut.checkNoSpaceLeft();
+            closeBlockIfFull();
+        } else {
+            writeInt(payloadLength);
+            this.currentWriteOffset += 4;
+            payload.writeTo(this.out);
+            this.currentWriteOffset += payloadLength;
+        }
+        maybeCommit(1);
+        return payloadLength;
+    }
+    // Frames already-serialized payload bytes (position to limit) without parsing them.
+    // The buffer's position is left untouched.
+    public int WriteRaw(ByteBuffer payload) throws IOException {
+        if (payload == null) {
+            throw new IllegalArgumentException("Payload cannot be null");
+        }
+        if (sealed) {
+            throw new IOException("File is sealed");
+        }
+        int payloadLength = payload.remaining();
+
+        if (this.onRawWriteCallback != null || this.onWriteCallback != null) {
+            reportRaw(payload);
+        }
+        trackRecord(nextRecordOffset(), payloadLength);
+        if (this.blockCodec != null) {
+            int payloadStart = reserveBlockFrame(payloadLength);
+            payload.duplicate().get(this.block, payloadStart, payloadLength);
+            closeBlockIfFull();
+        } else {
+            writeInt(payloadLength);
+            this.currentWriteOffset += 4;
+            this.out.write(payload.duplicate());
+            this.currentWriteOffset += payloadLength;
+        }
+        maybeCommit(1);
+        return payloadLength;
+    }
+
+    public int WriteRaw(byte[] payload, int offset, int length) throws IOException {
+        if (payload == null) {
+            throw new IllegalArgumentException("Payload cannot be null");
+        }
+        if (offset < 0 || length < 0 || offset + length > payload.length) {
+            throw new IllegalArgumentException("offset/length out of bounds");
+        }
+        if (sealed) {
+            throw new IOException("File is sealed");
+        }
+
+        if (this.onRawWriteCallback != null || this.onWriteCallback != null) {
+            reportRaw(ByteBuffer.wrap(payload, offset, length));
+        }
+        trackRecord(nextRecordOffset(), length);
+        if (this.blockCodec != null) {
+            int payloadStart = reserveBlockFrame(length);
+            System.arraycopy(payload, offset, this.block, payloadStart, length);
+            closeBlockIfFull();
+        } else {
+            writeInt(length);
+            this.currentWriteOffset += 4;
+            this.out.writeRawBytes(payload, offset, length);
+            this.currentWriteOffset += length;
+        }
+        maybeCommit(1);
+        return length;
+    }
+
+    private void reportRaw(ByteBuffer payload) {
+        if (this.onRawWriteCallback != null) {
+            this.onRawWriteCallback.accept(nextRecordOffset(), new RawPayload<>(payload, this.protoFactory));
+        } else if (this.onWriteCallback != null) {
+            if (this.protoFactory == null) {
+                throw new IllegalStateException("WriteRaw needs a protoFactory to report records to onWriteCallback");
+            }
+            this.onWriteCallback.accept(nextRecordOffset(), new RawPayload<>(payload, this.protoFactory).Parse());
+        }
+    }
+
+    // Writes every payload and returns their offsets, in order. Records are framed into a
+    // few large buffers per batch and each batch goes out with a single gathering write.
+    public long[] WriteAll(Iterable<P> payloads) throws IOException {
+        if (payloads == null) {
+            throw new IllegalArgumentException("Payloads cannot be null");
+        }
+        return writeAll(payloads.iterator());
+    }
+
+    public long[] WriteAll(Stream<P> payloads) throws IOException {
+        if (payloads == null) {
+            throw new IllegalArgumentException("Payloads cannot be null");
+        }
+        return writeAll(payloads.iterator());
+    }
+
+    private long[] writeAll(Iterator<P> payloads) throws IOException {
+        if (sealed) {
+            throw new IOException("File is sealed");
+        }
+        if (this.blockCodec != null) {
+            // Records are already batched into blocks; nothing to gain from the gathering path
+            long[] offsets = new long[16];
+            int count = 0;
+            while (payloads.hasNext()) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = nextRecordOffset();
+                Write(payloads.next());
+            }
+            commitBatch();
+            return Arrays.copyOf(offsets, count);
+        }
+        if (this.batchSegments == null) {
+            this.batchSegments = new ByteBuffer[BATCH_SEGMENTS];
+            for (int i = 0; i < BATCH_SEGMENTS; i++) {
+                this.batchSegments[i] = ByteBuffer.allocateDirect(BATCH_SEGMENT_SIZE);
+            }
+        }
+        // Records from earlier Write() calls must reach the channel before this batch
+        this.out.flush();
+
+        long[] offsets = new long[16];
+        int count = 0;
+        ByteBuffer[] gather = new ByteBuffer[BATCH_SEGMENTS];
+        P pending = null;
+
+        while (pending != null || payloads.hasNext()) {
+            int segments = 0;
+            int batchStart = count;
+            CodedOutputStream segmentOut = null;
+
+            while (pending != null || payloads.hasNext()) {
+                P payload = pending != null ? pending : payloads.next();
+                pending = null;
+
+                int payloadLength = payload.getSerializedSize();
+                int frameLength = 4 + payloadLength;
+                if (segmentOut == null || segmentOut.spaceLeft() < frameLength) {
+                    if (segments == BATCH_SEGMENTS) {
+                        pending = payload;
+                        break;
+                    }
+                    if (segmentOut != null) {
+                        segmentOut.flush();
+                    }
+                    // A record larger than a whole segment gets a buffer of its own
+                    ByteBuffer segment = frameLength > BATCH_SEGMENT_SIZE ? ByteBuffer.allocate(frameLength)
+                            : this.batchSegments[segments];
+                    segment.clear();
+                    gather[segments++] = segment;
+                    segmentOut = CodedOutputStream.newInstance(segment);
+                }
+
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = this.currentWriteOffset;
+                if (this.onWriteCallback != null) {
+                    this.onWriteCallback.accept(this.currentWriteOffset, payload);
+                }
+                segmentOut.writeFixed32NoTag(Integer.reverseBytes(payloadLength));
+                payload.writeTo(segmentOut);
+                trackRecord(this.currentWriteOffset, payloadLength);
+                this.currentWriteOffset += frameLength;
+            }
+
+            if (segmentOut != null) {
+                segmentOut.flush();
+            }
+            long remaining = 0;
+            for (int i = 0; i < segments; i++) {
+                gather[i].flip();
+                remaining += gather[i].remaining();
+            }
+            while (remaining > 0) {
+                remaining -= this.sink.write(gather, 0, segments);
+            }
+            maybeCommit(count - batchStart);
+        }
+        commitBatch();
+        return Arrays.copyOf(offsets, count);
+    }
+
+    // Blocks until every record written so far has been handed to the file channel.
+    // In block mode this closes the current block early.
+    public void Flush() throws IOException {
+        if (this.blockCodec != null) {
+            flushBlock();
+        }
+        this.out.flush();
+        if (this.asyncSink != null) {
+            this.asyncSink.flush();
+        }
+    }
+
+    // Hands every complete record to the file and fsyncs it in the background. The future completes
+    // with the durable offset; in block mode records still in the open block are not included.
+    public CompletableFuture<Long> Commit() throws IOException {
+        this.out.flush();
+        if (this.asyncSink != null) {
+            this.asyncSink.flush();
+        }
+        if (this.committer == null) {
+            if (this.channel == null) {
+                throw new IOException("Commit needs a local file");
+            }
+            this.committer = newCommitter();
+        }
+        return this.committer.request(this.currentWriteOffset);
+    }
 
-        return payloadBytes.length;
+    // Bytes known to be on stable storage. A record is durable once its offset (its block's offset
+    // in block mode) plus its frame is below this.
+    public long GetDurableOffset() {
+        return this.committer != null ? this.committer.durableWatermark() : 0;
     }
+
     // Seal the file
     public void Seal() throws IOException {
         if (!sealed) {
-            this.fi.writeInt(StreamableProtoFileParser.FILE_SEAL_MARKER);
+            if (this.blockCodec != null) {
+                flushBlock();
+            }
+            writeInt(StreamableProtoFileParser.FILE_SEAL_MARKER);
+            this.currentWriteOffset += 4;
+            long blockIndexOffset = -1;
+            if (this.blockCodec != null) {
+                blockIndexOffset = writeBlockIndex();
+            }
+            if (this.footerSampleInterval > 0) {
+                writeFooter(blockIndexOffset);
+            }
             sealed = true;
+            Flush();
         }
     }
 
+    // Bytes written to the file so far; records still buffered in an open compression block are not included
+    public long GetWriteOffset() {
+        return this.currentWriteOffset;
+    }
+
+    // Uncompressed bytes of the block that is still being filled (block mode only)
+    public int GetPendingBlockBytes() {
+        return this.blockLength;
+    }
+
+    public long GetRecordCount() {
+        return this.recordCount;
+    }
+
+    // Number of times Write() had to wait for the background I/O thread (async mode only)
+    public long GetProducerStalls() {
+        return this.asyncSink != null ? this.asyncSink.producerStalls() : 0;
+    }
+
     public void close() throws Exception {
 
-        Seal();
+        try {
+            Seal();
+            if (this.committer != null) {
+                Commit();
+            }
+        } finally {
+            try {
+                if (this.committer != null) {
+                    this.committer.close();
+                }
+            } finally {
+                if (this.asyncSink != null) {
+                    this.asyncSink.close();
+                }
+                destination.close();
+            }
+        }
+    }
+
+    // Length prefixes are big-endian; CodedOutputStream only writes little-endian fixed32
+    private void writeInt(int value) throws IOException {
+        this.out.writeFixed32NoTag(Integer.reverseBytes(value));
+    }
+
+    private void writeLong(long value) throws IOException {
+        this.out.writeFixed64NoTag(Long.reverseBytes(value));
+    }
+
+    // Offset reported for the next record: its file offset, or its record address in block mode
+    private long nextRecordOffset() {
+        if (this.blockCodec != null) {
+            return StreamableProtoFileParser.BlockRecordAddress(this.currentWriteOffset, this.blockRecords);
+        }
+        return this.currentWriteOffset;
+    }
+
+    // Appends a length prefix to the open block and returns where the payload bytes go
+    private int reserveBlockFrame(int payloadLength) {
+        int frameLength = 4 + payloadLength;
+        if (this.block.length - this.blockLength < frameLength) {
+            this.block = Arrays.copyOf(this.block, Math.max(this.block.length * 2, this.blockLength + frameLength));
+        }
+        int pos = this.blockLength;
+        this.block[pos] = (byte) (payloadLength >>> 24);
+        this.block[pos + 1] = (byte) (payloadLength >>> 16);
+        this.block[pos + 2] = (byte) (payloadLength >>> 8);
+        this.block[pos + 3] = (byte) payloadLength;
+        this.blockLength += frameLength;
+        this.blockRecords++;
+        return pos + 4;
+    }
+
+    private void closeBlockIfFull() throws IOException {
+        if (this.blockLength >= this.blockSize || this.blockRecords == StreamableProtoFileParser.MAX_RECORDS_PER_BLOCK) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (this.blockRecords == 0) {
+            return;
+        }
+        byte[] compressed = this.blockCodec.Compress(this.block, 0, this.blockLength);
 
-        fi.flush();
-        fi.close();
+        if (this.blockCount == this.blockOffsets.length) {
+            this.blockOffsets = Arrays.copyOf(this.blockOffsets, this.blockCount * 2);
+            this.blockRecordCounts = Arrays.copyOf(this.blockRecordCounts, this.blockCount * 2);
+        }
+        this.blockOffsets[this.blockCount] = this.currentWriteOffset;
+        this.blockRecordCounts[this.blockCount] = this.blockRecords;
+        this.blockCount++;
+
+        writeInt(compressed.length);
+        this.out.writeRawByte(this.blockCodec.GetId());
+        writeInt(this.blockLength);
+        writeInt(this.blockRecords);
+        this.out.writeRawBytes(compressed);
+        this.currentWriteOffset += BlockFormat.BLOCK_HEADER_SIZE + compressed.length;
+
+        this.blockLength = 0;
+        this.blockRecords = 0;
+    }
+
+    // Validates everything up front so a bad argument does not leave an empty file behind
+    private static FileChannel openFile(String file, Object header, Options options) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File path cannot be null");
+        }
+        if (header == null) {
+            throw new IllegalArgumentException("Header cannot be null");
+        }
+        if (!file.endsWith(".binpb")) {
+            throw new IllegalArgumentException("File must end with .binpb");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        return FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // EveryMillis syncs whatever has reached the file; bytes still in the write buffer or the open
+    // block wait for it to fill, Flush() or Commit(), since the writer is not safe to drive from the sync thread
+    private GroupCommitter newCommitter() {
+        return new GroupCommitter(this.channel, false, this.durability, this.channel::position,
+                "streamable-proto-writer-sync");
+    }
+
+    private void maybeCommit(int records) throws IOException {
+        if (this.committer != null && this.committer.recordsWritten(records)) {
+            Commit();
+        }
+    }
+
+    private void commitBatch() throws IOException {
+        if (this.committer != null && this.committer.commitsOnBatch()) {
+            Commit();
+        }
+    }
+
+    private void trackRecord(long offset, int payloadLength) {
+        if (this.footerSampleInterval > 0) {
+            if (this.recordCount % this.footerSampleInterval == 0) {
+                if (this.footerSampleCount == this.footerOffsets.length) {
+                    this.footerOffsets = Arrays.copyOf(this.footerOffsets, this.footerSampleCount * 2);
+                }
+                this.footerOffsets[this.footerSampleCount++] = offset;
+            }
+            this.minPayloadSize = Math.min(this.minPayloadSize, payloadLength);
+            this.maxPayloadSize = Math.max(this.maxPayloadSize, payloadLength);
+        }
+        this.recordCount++;
+    }
+
+    // Written after the seal marker; see BlockIndex for the layout
+    private long writeBlockIndex() throws IOException {
+        long indexOffset = this.currentWriteOffset;
+        writeInt(this.blockCount);
+        for (int i = 0; i < this.blockCount; i++) {
+            writeLong(this.blockOffsets[i]);
+            writeInt(this.blockRecordCounts[i]);
+        }
+        writeLong(indexOffset);
+        writeInt(StreamableProtoFileParser.BLOCK_INDEX_MARKER);
+        this.currentWriteOffset += BlockIndex.SerializedSize(this.blockCount) + BlockIndex.TAIL_SIZE;
+        return indexOffset;
+    }
+
+    // Written last; see StreamableFileFooter for the layout
+    private void writeFooter(long blockIndexOffset) throws IOException {
+        long footerOffset = this.currentWriteOffset;
+        writeLong(this.recordCount);
+        writeInt(this.recordCount > 0 ? this.minPayloadSize : 0);
+        writeInt(this.maxPayloadSize);
+        writeInt(this.footerSampleInterval);
+        writeLong(blockIndexOffset);
+        writeInt(this.footerSampleCount);
+        for (int i = 0; i < this.footerSampleCount; i++) {
+            writeLong(this.footerOffsets[i]);
+        }
+        writeLong(footerOffset);
+        writeInt(StreamableProtoFileParser.FOOTER_MARKER);
+        this.currentWriteOffset += StreamableFileFooter.SerializedSize(this.footerSampleCount)
+                + StreamableFileFooter.TAIL_SIZE;
+    }
+
+    public static class Options {
+        int asyncBufferSize = 0;
+        BlockCodec blockCodec = null;
+        int blockSize = DEFAULT_BLOCK_SIZE;
+        int footerSampleInterval = 0;
+        DurabilityPolicy durability = DurabilityPolicy.None();
+
+        // Write() only copies into one of two direct buffers of this size while a
+        // background thread drains the other one to disk
+        public Options WithAsyncBuffers(int bufferSize) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("bufferSize must be positive");
+            }
+            this.asyncBufferSize = bufferSize;
+            return this;
+        }
+
+        // Groups records into blocks of about DEFAULT_BLOCK_SIZE bytes and compresses each block.
+        // Offsets reported by the writer become record addresses, see StreamableProtoFileParser.BlockRecordAddress.
+        public Options WithBlockCompression(BlockCodec codec) {
+            return WithBlockCompression(codec, DEFAULT_BLOCK_SIZE);
+        }
+
+        public Options WithBlockCompression(BlockCodec codec, int blockSize) {
+            if (codec == null) {
+                throw new IllegalArgumentException("codec cannot be null");
+            }
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("blockSize must be positive");
+            }
+            this.blockCodec = codec;
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        // Writes a StreamableFileFooter after the seal with the offset of every record
+        public Options WithFooter() {
+            return WithFooter(1);
+        }
+
+        // Footer offset table with only every sampleInterval-th record, keeping it small for huge files
+        public Options WithFooter(int sampleInterval) {
+            if (sampleInterval <= 0) {
+                throw new IllegalArgumentException("sampleInterval must be positive");
+            }
+            this.footerSampleInterval = sampleInterval;
+            return this;
+        }
+
+        // When to fsync while writing; see Commit() and GetDurableOffset()
+        public Options WithDurability(DurabilityPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("policy cannot be null");
+            }
+            this.durability = policy;
+            return this;
+        }
     }
 }
@@ -0,0 +1,150 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import proto.PriceEntityOuterClass.PriceEntity;
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class ConcurrentStreamableProtoFileWriterTest {
+
+    static final int PRODUCERS = 8;
+    static final int RECORDS_PER_PRODUCER = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Larger than the consumer's staging buffer, so it is written on its own
+    static PricesStreamedFilePayload large(int i) {
+        PriceEntity.Builder price = PriceEntity.newBuilder().setName("LARGE" + i);
+        for (int j = 0; j < 140_000; j++) {
+            price.addPrices(i + j);
+        }
+        return PricesStreamedFilePayload.newBuilder().setPrice(price).build();
+    }
+
+    @Test
+    public void everyReportedOffsetPointsAtItsOwnPayload() throws Exception {
+        String path = new File(folder.getRoot(), "concurrent.binpb").getPath();
+        Map<Long, PricesStreamedFilePayload> reported = new ConcurrentHashMap<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+        // A small ring makes producers wait for slots to be recycled
+        try (ConcurrentStreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new ConcurrentStreamableProtoFileWriter<>(path, StreamableProtoFileWriterTest.HEADER,
+                        (offset, p) -> assertNull(reported.put(offset, p)), 8)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < PRODUCERS; t++) {
+                int producer = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < RECORDS_PER_PRODUCER; n++) {
+                            int i = producer * RECORDS_PER_PRODUCER + n;
+                            writer.Write(n == RECORDS_PER_PRODUCER / 2 ? large(i) : StreamableProtoFileWriterTest.payload(i));
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            writer.Flush();
+        }
+        assertEquals(List.of(), failures);
+        assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, reported.size());
+
+        var parser = StreamableProtoFileWriterTest.parser(path);
+        try (var accessor = parser.GetPayloadRandomAccesor()) {
+            for (Map.Entry<Long, PricesStreamedFilePayload> e : reported.entrySet()) {
+                assertEquals(e.getValue(), accessor.GetPayloadAtOffset(e.getKey()));
+            }
+        }
+        // The file holds exactly the reported records, each once, followed by the seal
+        Set<String> names = new HashSet<>();
+        try (var enumerator = parser.GetPayloadEnumerator()) {
+            PricesStreamedFilePayload p;
+            while ((p = enumerator.GetNextPayload()) != null) {
+                assertTrue(names.add(p.getPrice().getName()));
+            }
+        }
+        assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, names.size());
+    }
+
+    @Test
+    public void writesAfterSealAreRejected() throws Exception {
+        String path = new File(folder.getRoot(), "sealed.binpb").getPath();
+        try (ConcurrentStreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new ConcurrentStreamableProtoFileWriter<>(path, StreamableProtoFileWriterTest.HEADER)) {
+            writer.Write(StreamableProtoFileWriterTest.payload(0));
+            writer.Seal();
+            assertThrows(java.io.IOException.class, () -> writer.Write(StreamableProtoFileWriterTest.payload(1)));
+        }
+        StreamableProtoFileWriterTest.verify(path, 1);
+    }
+
+    @Test
+    public void writesRacingWithSealLandBeforeTheMarkerOrFail() throws Exception {
+        String path = new File(folder.getRoot(), "racing.binpb").getPath();
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        try (ConcurrentStreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new ConcurrentStreamableProtoFileWriter<>(path, StreamableProtoFileWriterTest.HEADER, null, 8)) {
+            for (int t = 0; t < PRODUCERS; t++) {
+                int producer = t;
+                Thread thread = new Thread(() -> {
+                    // Keeps writing until the seal turns it away. Sizing a fresh large payload takes a
+                    // while, which widens the window between the sealed check and claiming a slot.
+                    for (int n = 0; ; n++) {
+                        int i = producer * 1_000_000 + n;
+                        PricesStreamedFilePayload p = n % 2 == 0 ? large(i) : StreamableProtoFileWriterTest.payload(i);
+                        try {
+                            writer.Write(p);
+                        } catch (java.io.IOException e) {
+                            if (!"File is sealed".equals(e.getMessage())) {
+                                failures.add(e);
+                            }
+                            return;
+                        }
+                        written.add(p.getPrice().getName());
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            Thread.sleep(50);
+            writer.Seal();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertEquals(List.of(), failures);
+        assertFalse(written.isEmpty());
+
+        // Every write that returned is in the file, before the seal marker, and nothing else is
+        Set<String> names = new HashSet<>();
+        try (var enumerator = StreamableProtoFileWriterTest.parser(path).GetPayloadEnumerator()) {
+            PricesStreamedFilePayload p;
+            while ((p = enumerator.GetNextPayload()) != null) {
+                assertTrue(names.add(p.getPrice().getName()));
+            }
+        }
+        assertEquals(written, names);
+    }
+}
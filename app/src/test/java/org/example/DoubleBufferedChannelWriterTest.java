@@ -0,0 +1,103 @@
+package org.example;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+public class DoubleBufferedChannelWriterTest {
+
+    // Collects everything written, optionally sleeping per write or failing once failAfter bytes went through
+    static class RecordingChannel implements WritableByteChannel {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final long delayMillis;
+        final long failAfter;
+        boolean open = true;
+
+        RecordingChannel(long delayMillis, long failAfter) {
+            this.delayMillis = delayMillis;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            if (bytes.size() >= failAfter) {
+                throw new IOException("disk full");
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            int n = src.remaining();
+            byte[] chunk = new byte[n];
+            src.get(chunk);
+            bytes.write(chunk, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        synchronized byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    @Test
+    public void slowChannelReceivesEveryByteInOrder() throws Exception {
+        RecordingChannel channel = new RecordingChannel(1, Long.MAX_VALUE);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Random random = new Random(42);
+        DoubleBufferedChannelWriter writer = new DoubleBufferedChannelWriter(channel, 1024);
+        for (int i = 0; i < 200; i++) {
+            // Chunks both smaller and larger than a buffer
+            byte[] chunk = new byte[random.nextInt(3000)];
+            random.nextBytes(chunk);
+            expected.write(chunk, 0, chunk.length);
+            assertEquals(chunk.length, writer.write(ByteBuffer.wrap(chunk)));
+        }
+        ByteBuffer[] gathered = { ByteBuffer.wrap(new byte[] { 1, 2 }), ByteBuffer.wrap(new byte[] { 3 }) };
+        assertEquals(3, writer.write(gathered));
+        expected.write(new byte[] { 1, 2, 3 }, 0, 3);
+
+        writer.flush();
+        assertArrayEquals(expected.toByteArray(), channel.toByteArray());
+        // The channel sleeps on every write, so the producer had to wait for the I/O thread
+        assertTrue(writer.producerStalls() > 0);
+        writer.close();
+        assertFalse(writer.isOpen());
+        assertThrows(IOException.class, () -> writer.write(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void backgroundFailureReachesTheProducer() throws Exception {
+        RecordingChannel channel = new RecordingChannel(0, 4096);
+        DoubleBufferedChannelWriter writer = new DoubleBufferedChannelWriter(channel, 1024);
+        IOException failure = null;
+        try {
+            // The I/O thread fails on its fifth buffer; later hand-offs must report it
+            for (int i = 0; i < 1000; i++) {
+                writer.write(ByteBuffer.allocate(512));
+            }
+            writer.flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+        assertNotNull(failure);
+        assertEquals("disk full", failure.getCause().getMessage());
+        assertThrows(IOException.class, writer::flush);
+        assertThrows(IOException.class, writer::close);
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class DurabilityPolicyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String path(String name) {
+        return new File(folder.getRoot(), name).getPath();
+    }
+
+    // Syncs complete on a background thread; give them a generous while
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer(String name,
+            DurabilityPolicy policy, List<Long> offsets) throws Exception {
+        return new StreamableProtoFileWriter<>(path(name), StreamableProtoFileWriterTest.HEADER,
+                (offset, p) -> offsets.add(offset), new StreamableProtoFileWriter.Options().WithDurability(policy));
+    }
+
+    @Test
+    public void explicitCommitWithoutAPolicy() throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        try (var writer = writer("none.binpb", DurabilityPolicy.None(), offsets)) {
+            for (int i = 0; i < 20; i++) {
+                writer.Write(StreamableProtoFileWriterTest.payload(i));
+            }
+            assertEquals(0, writer.GetDurableOffset());
+            long durable = writer.Commit().get();
+            assertEquals(writer.GetWriteOffset(), durable);
+            assertEquals(durable, writer.GetDurableOffset());
+            // Nothing new: completes straight away with the same offset
+            assertEquals(durable, (long) writer.Commit().get());
+        }
+        StreamableProtoFileWriterTest.verify(path("none.binpb"), 20);
+    }
+
+    @Test
+    public void everyRecordsCommitsAsRecordsArrive() throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        try (var writer = writer("records.binpb", DurabilityPolicy.EveryRecords(10), offsets)) {
+            for (int i = 0; i < 25; i++) {
+                writer.Write(StreamableProtoFileWriterTest.payload(i));
+            }
+            // The 20th record asked for a sync covering everything before record 20
+            await(() -> writer.GetDurableOffset() >= offsets.get(20));
+            assertTrue(writer.GetDurableOffset() < writer.GetWriteOffset());
+        }
+    }
+
+    @Test
+    public void everyMillisSyncsAQuietWriter() throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        try (var writer = writer("millis.binpb", DurabilityPolicy.EveryMillis(20), offsets)) {
+            // About 800 KB, so most of it has gone past the write buffer to the file
+            for (int i = 0; i < 100; i++) {
+                writer.Write(StreamableProtoFileWriterTest.payload(i));
+            }
+            // No more writes and no commit: the timer alone has to sync what reached the file
+            await(() -> writer.GetDurableOffset() >= offsets.get(50));
+
+            // Flush hands over the rest, which the next tick picks up
+            writer.Flush();
+            await(() -> writer.GetDurableOffset() == writer.GetWriteOffset());
+        }
+    }
+
+    @Test
+    public void onBatchCommitsEveryWriteAll() throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        try (var writer = writer("batch.binpb", DurabilityPolicy.OnBatch(), offsets)) {
+            writer.Write(StreamableProtoFileWriterTest.payload(0));
+            assertEquals(0, writer.GetDurableOffset());
+            List<PricesStreamedFilePayload> batch = new ArrayList<>();
+            for (int i = 1; i < 30; i++) {
+                batch.add(StreamableProtoFileWriterTest.payload(i));
+            }
+            writer.WriteAll(batch);
+            long end = writer.GetWriteOffset();
+            await(() -> writer.GetDurableOffset() == end);
+        }
+        StreamableProtoFileWriterTest.verify(path("batch.binpb"), 30);
+    }
+
+    @Test
+    public void treeCommitsEveryRecords() throws Exception {
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path("records.idx"), DurabilityPolicy.EveryRecords(50))) {
+            for (int i = 0; i < 120; i++) {
+                tree.insert(OnDiskBPlusTreeTest.key(i), OnDiskBPlusTreeTest.value(i));
+            }
+            await(() -> tree.durableInsertCount() >= 100);
+            assertEquals(120L, (long) tree.commit().get());
+            assertEquals(120, tree.durableInsertCount());
+        }
+    }
+
+    @Test
+    public void treeEveryMillisSyncsQuietInserts() throws Exception {
+        String path = path("millis.idx");
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path, DurabilityPolicy.EveryMillis(20))) {
+            for (int i = 0; i < 30; i++) {
+                tree.insert(OnDiskBPlusTreeTest.key(i), OnDiskBPlusTreeTest.value(i));
+            }
+            // Checkpointed and synced by the timer, without another insert or commit
+            await(() -> tree.durableInsertCount() == 30);
+        }
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            for (int i = 0; i < 30; i++) {
+                assertEquals(List.of((long) i), OnDiskBPlusTreeTest.values(tree, OnDiskBPlusTreeTest.key(i)));
+            }
+        }
+    }
+}
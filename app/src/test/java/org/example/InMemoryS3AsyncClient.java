@@ -0,0 +1,123 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+// Async ranged GETs over an InMemoryS3Client's objects, answered on a pool after a short delay
+// so that concurrent requests overlap; records the most requests ever in flight at once.
+// A synchronous client answers on the calling thread instead, before getObject returns.
+class InMemoryS3AsyncClient implements S3AsyncClient {
+
+    final InMemoryS3Client s3;
+    final boolean synchronous;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    volatile boolean closed = false;
+    // GETs parked by hold() until resume()
+    private final List<Runnable> held = new ArrayList<>();
+    private boolean holding = false;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "in-memory-s3-async");
+        t.setDaemon(true);
+        return t;
+    });
+
+    InMemoryS3AsyncClient(InMemoryS3Client s3) {
+        this(s3, false);
+    }
+
+    InMemoryS3AsyncClient(InMemoryS3Client s3, boolean synchronous) {
+        this.s3 = s3;
+        this.synchronous = synchronous;
+    }
+
+    // GETs from now on stay unanswered until resume()
+    synchronized void hold() {
+        holding = true;
+    }
+
+    // Answers the held GETs on the calling thread
+    void resume() {
+        List<Runnable> parked;
+        synchronized (this) {
+            holding = false;
+            parked = new ArrayList<>(held);
+            held.clear();
+        }
+        parked.forEach(Runnable::run);
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+    }
+
+    @Override
+    public <T> CompletableFuture<T> getObject(GetObjectRequest request,
+            AsyncResponseTransformer<GetObjectResponse, T> transformer) {
+        CompletableFuture<T> result = transformer.prepare();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        Runnable answer = () -> {
+            try {
+                if (!synchronous) {
+                    Thread.sleep(2);
+                }
+                ResponseInputStream<GetObjectResponse> in = s3.getObject(request);
+                byte[] data = in.readAllBytes();
+                inFlight.decrementAndGet();
+                transformer.onResponse(in.response());
+                transformer.onStream(SdkPublisher.adapt(subscriber -> subscriber.onSubscribe(new Subscription() {
+                    private boolean done = false;
+
+                    @Override
+                    public void request(long n) {
+                        if (!done) {
+                            done = true;
+                            subscriber.onNext(ByteBuffer.wrap(data));
+                            subscriber.onComplete();
+                        }
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                })));
+            } catch (Exception e) {
+                inFlight.decrementAndGet();
+                transformer.exceptionOccurred(e);
+            }
+        };
+        synchronized (this) {
+            if (holding) {
+                held.add(answer);
+                return result;
+            }
+        }
+        if (synchronous) {
+            answer.run();
+        } else {
+            executor.execute(answer);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+// Just enough of S3 for the streaming writer and the ranged readers
+class InMemoryS3Client implements S3Client {
+
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    final AtomicInteger getRequests = new AtomicInteger();
+    final AtomicInteger abortedUploads = new AtomicInteger();
+    // GETs still to fail, as a flaky network would
+    final AtomicInteger failingGets = new AtomicInteger();
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+        objects.put(request.key(), read(body));
+        return PutObjectResponse.builder().build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        String id = UUID.randomUUID().toString();
+        uploads.put(id, new TreeMap<>());
+        return CreateMultipartUploadResponse.builder().uploadId(id).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+        Map<Integer, byte[]> parts = uploads.get(request.uploadId());
+        synchronized (parts) {
+            parts.put(request.partNumber(), read(body));
+        }
+        return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        Map<Integer, byte[]> parts = uploads.remove(request.uploadId());
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        for (CompletedPart part : request.multipartUpload().parts()) {
+            object.writeBytes(parts.get(part.partNumber()));
+        }
+        objects.put(request.key(), object.toByteArray());
+        return CompleteMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        uploads.remove(request.uploadId());
+        abortedUploads.incrementAndGet();
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        return HeadObjectResponse.builder().contentLength((long) object(request.key()).length).build();
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        getRequests.incrementAndGet();
+        if (failingGets.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw SdkClientException.create("Injected failure");
+        }
+        byte[] data = object(request.key());
+        long start = 0;
+        long end = data.length - 1;
+        String range = request.range();
+        if (range != null) {
+            String spec = range.substring("bytes=".length());
+            int dash = spec.indexOf('-');
+            if (dash == 0) {
+                start = Math.max(0, data.length - Long.parseLong(spec.substring(1)));
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                if (dash < spec.length() - 1) {
+                    end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                }
+            }
+        }
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength(end - start + 1)
+                .contentRange("bytes " + start + "-" + end + "/" + data.length)
+                .build();
+        return new ResponseInputStream<>(response,
+                AbortableInputStream.create(new ByteArrayInputStream(data, (int) start, (int) (end - start + 1))));
+    }
+
+    private byte[] object(String key) {
+        byte[] data = objects.get(key);
+        if (data == null) {
+            throw NoSuchKeyException.builder().message(key).build();
+        }
+        return data;
+    }
+
+    private static byte[] read(RequestBody body) {
+        try {
+            return body.contentStreamProvider().newStream().readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
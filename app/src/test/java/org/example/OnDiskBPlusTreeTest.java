@@ -0,0 +1,233 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class OnDiskBPlusTreeTest {
+
+    static final int KEYS = 3000;
+    static final int VALUES_PER_KEY = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static byte[] key(int i) {
+        return ("KEY" + i).getBytes();
+    }
+
+    static byte[] value(long v) {
+        return ByteBuffer.allocate(8).putLong(v).array();
+    }
+
+    static List<Long> values(OnDiskBPlusTree tree, byte[] key) {
+        List<Long> values = new ArrayList<>();
+        tree.search(key).forEach(v -> values.add(ByteBuffer.wrap(v).getLong()));
+        return values;
+    }
+
+    static void fill(OnDiskBPlusTree tree) throws Exception {
+        fill(tree, KEYS);
+    }
+
+    // Keys in a scattered order, each inserted VALUES_PER_KEY times with values i, i + keys, ...
+    static void fill(OnDiskBPlusTree tree, int keys) throws Exception {
+        for (int round = 0; round < VALUES_PER_KEY; round++) {
+            for (int n = 0; n < keys; n++) {
+                int i = (int) ((n * 7919L) % keys);
+                tree.insert(key(i), value(i + (long) round * keys));
+            }
+        }
+    }
+
+    static void verify(OnDiskBPlusTree tree) {
+        verify(tree, KEYS);
+    }
+
+    static void verify(OnDiskBPlusTree tree, int keys) {
+        for (int i = 0; i < keys; i += 7) {
+            assertEquals(List.of((long) i, (long) i + keys, (long) i + 2L * keys), values(tree, key(i)));
+        }
+        assertTrue(values(tree, "MISSING".getBytes()).isEmpty());
+    }
+
+    @Test
+    public void smallBufferPoolEvictsAndWritesBack() throws Exception {
+        String path = new File(folder.getRoot(), "small.index").getPath();
+        // The minimum pool is far smaller than the tree, so pages are evicted and re-read throughout
+        int keys = 10 * KEYS;
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path, DurabilityPolicy.None(), 1)) {
+            fill(tree, keys);
+            verify(tree, keys);
+            assertTrue(tree.cacheMisses() > OnDiskBPlusTree.MIN_CACHE_PAGES);
+        }
+        try (OnDiskBPlusTree reopened = new OnDiskBPlusTree(path)) {
+            verify(reopened, keys);
+        }
+    }
+
+    @Test
+    public void checkpointMakesPagesVisibleToOtherReaders() throws Exception {
+        String path = new File(folder.getRoot(), "checkpoint.index").getPath();
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            fill(tree);
+            // Hot pages stay cached: most page requests never reach the file
+            assertTrue(tree.cacheHits() > 10 * tree.cacheMisses());
+            tree.checkpoint();
+            try (OnDiskBPlusTree reader = new OnDiskBPlusTree(path)) {
+                verify(reader);
+            }
+        }
+    }
+
+    @Test
+    public void readOnlyMappedTreeServesConcurrentSearches() throws Exception {
+        String path = new File(folder.getRoot(), "mapped.index").getPath();
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            fill(tree);
+        }
+        try (OnDiskBPlusTree mapped = OnDiskBPlusTree.openReadOnly(path)) {
+            assertTrue(mapped.isReadOnly());
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        verify(mapped);
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(List.of(), failures);
+            assertThrows(UnsupportedOperationException.class, () -> mapped.insert(key(1), value(1)));
+        }
+    }
+
+    @Test
+    public void readOnlyMappedTreeSeesCheckpointedGrowth() throws Exception {
+        String path = new File(folder.getRoot(), "growing.index").getPath();
+        try (OnDiskBPlusTree writer = new OnDiskBPlusTree(path);
+                OnDiskBPlusTree reader = OnDiskBPlusTree.openReadOnly(path)) {
+            assertTrue(values(reader, key(1)).isEmpty());
+            fill(writer);
+            writer.checkpoint();
+            verify(reader);
+        }
+    }
+
+    // The same keys and values fill() inserts, in key order
+    static Iterator<Map.Entry<byte[], List<byte[]>>> sortedEntries() {
+        TreeMap<String, List<byte[]>> sorted = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            sorted.put(new String(key(i)), List.of(value(i), value(i + KEYS), value(i + 2L * KEYS)));
+        }
+        return sorted.entrySet().stream()
+                .<Map.Entry<byte[], List<byte[]>>>map(e -> new AbstractMap.SimpleEntry<>(e.getKey().getBytes(), e.getValue()))
+                .iterator();
+    }
+
+    @Test
+    public void bulkLoadedTreeIsSearchableAndGrows() throws Exception {
+        String path = new File(folder.getRoot(), "bulk.index").getPath();
+        OnDiskBPlusTree.bulkLoad(path, sortedEntries(), 0.5);
+        try (OnDiskBPlusTree mapped = OnDiskBPlusTree.openReadOnly(path)) {
+            verify(mapped);
+        }
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            verify(tree);
+            // Half-full pages take inserts without splitting straight away
+            tree.insert(key(KEYS), value(KEYS));
+            tree.insert(key(1), value(-1));
+            assertEquals(List.of((long) KEYS), values(tree, key(KEYS)));
+            assertEquals(List.of(1L, 1L + KEYS, 1L + 2 * KEYS, -1L), values(tree, key(1)));
+        }
+    }
+
+    @Test
+    public void bulkLoadRejectsUnsortedKeys() throws Exception {
+        String path = new File(folder.getRoot(), "unsorted.index").getPath();
+        List<Map.Entry<byte[], List<byte[]>>> entries = List.of(
+                new AbstractMap.SimpleEntry<>(key(2), List.of(value(2))),
+                new AbstractMap.SimpleEntry<>(key(1), List.of(value(1))));
+        assertThrows(IllegalArgumentException.class, () -> OnDiskBPlusTree.bulkLoad(path, entries.iterator()));
+    }
+
+    @Test
+    public void uniqueKeysStayInLeaves() throws Exception {
+        String path = new File(folder.getRoot(), "unique.index").getPath();
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            for (int i = 0; i < KEYS; i++) {
+                tree.insert(key(i), value(i));
+            }
+        }
+        try (OnDiskBPlusTree tree = OnDiskBPlusTree.openReadOnly(path)) {
+            assertEquals(List.of(7L), values(tree, key(7)));
+        }
+        // A few dozen leaves and internal pages rather than an overflow page per key
+        assertTrue(new File(path).length() < KEYS / 10 * OnDiskBPlusTree.PAGE_SIZE);
+    }
+
+    @Test
+    public void duplicatedKeysSpillToOverflow() throws Exception {
+        String path = new File(folder.getRoot(), "duplicated.index").getPath();
+        int copies = 2000;
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            for (int v = 0; v < copies; v++) {
+                tree.insert(key(0), value(v));
+                if (v < 2) {
+                    tree.insert(key(1), value(v));
+                }
+            }
+            assertEquals(copies, values(tree, key(0)).size());
+            assertEquals(List.of(0L, 1L), values(tree, key(1)));
+        }
+        try (OnDiskBPlusTree tree = OnDiskBPlusTree.openReadOnly(path)) {
+            List<Long> values = values(tree, key(0));
+            assertEquals(copies, values.size());
+            for (int v = 0; v < copies; v++) {
+                assertEquals(v, (long) values.get(v));
+            }
+        }
+    }
+
+    @Test
+    public void readsAndUpgradesOverflowOnlyLeaves() throws Exception {
+        // Root leaf at page 1 in the NODE_LEAF format, its key's value in overflow page 2
+        File file = folder.newFile("legacy.index");
+        ByteBuffer pages = ByteBuffer.allocate(3 * OnDiskBPlusTree.PAGE_SIZE);
+        pages.putLong(0, 1);
+        pages.position(OnDiskBPlusTree.PAGE_SIZE);
+        pages.put(OnDiskBPlusTree.NODE_LEAF).putInt(1).putInt(key(1).length).put(key(1)).putLong(2).putLong(2);
+        pages.position(2 * OnDiskBPlusTree.PAGE_SIZE);
+        pages.put(OnDiskBPlusTree.NODE_OVERFLOW).putInt(1).putInt(8).put(value(1));
+        pages.putLong(3 * OnDiskBPlusTree.PAGE_SIZE - 8, -1);
+        java.nio.file.Files.write(file.toPath(), pages.array());
+
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(file.getPath())) {
+            assertEquals(List.of(1L), values(tree, key(1)));
+            tree.insert(key(2), value(2));
+            tree.insert(key(1), value(11));
+        }
+        try (OnDiskBPlusTree tree = OnDiskBPlusTree.openReadOnly(file.getPath())) {
+            assertEquals(List.of(1L, 11L), values(tree, key(1)));
+            assertEquals(List.of(2L), values(tree, key(2)));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.example;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PageSearchTest {
+
+    // Keys in compareByteArrays order, including bytes above 0x7F and a key that prefixes another
+    static final byte[][] KEYS = {
+            {}, { 1 }, { 1, 0 }, { 2 }, { 0x7F }, { (byte) 0x80 }, { (byte) 0xFF, 1 }
+    };
+
+    // Every key points at overflow pages 100 + i to 200 + i; a NODE_LEAF page, as older files have
+    static ByteBuffer leaf() {
+        ByteBuffer page = ByteBuffer.allocate(OnDiskBPlusTree.PAGE_SIZE);
+        page.put(OnDiskBPlusTree.NODE_LEAF).putInt(KEYS.length);
+        for (int i = 0; i < KEYS.length; i++) {
+            page.putInt(KEYS[i].length).put(KEYS[i]).putLong(100 + i).putLong(200 + i);
+        }
+        return page;
+    }
+
+    // Key i holds i % (MAX_INLINE_VALUES + 1) copies of the byte i inline, or points at overflow
+    // pages 100 to 200 when that is 0
+    static ByteBuffer inlineLeaf() {
+        List<OnDiskBPlusTree.LeafEntry> entries = new ArrayList<>();
+        for (int i = 0; i < KEYS.length; i++) {
+            List<byte[]> values = new ArrayList<>();
+            for (int v = 0; v < i % (OnDiskBPlusTree.MAX_INLINE_VALUES + 1); v++) {
+                values.add(new byte[] { (byte) i });
+            }
+            entries.add(values.isEmpty()
+                    ? new OnDiskBPlusTree.LeafEntry(KEYS[i], 100, 200)
+                    : new OnDiskBPlusTree.LeafEntry(KEYS[i], values));
+        }
+        ByteBuffer page = ByteBuffer.allocate(OnDiskBPlusTree.PAGE_SIZE);
+        OnDiskBPlusTree.writeLeafPage(page, entries);
+        return page;
+    }
+
+    // Separators KEYS[1..]; child i holds keys from KEYS[i] up to KEYS[i + 1]
+    static ByteBuffer internal() {
+        List<OnDiskBPlusTree.InternalEntry> entries = new ArrayList<>();
+        for (int i = 1; i < KEYS.length; i++) {
+            entries.add(new OnDiskBPlusTree.InternalEntry(KEYS[i], i));
+        }
+        ByteBuffer page = ByteBuffer.allocate(OnDiskBPlusTree.PAGE_SIZE);
+        OnDiskBPlusTree.writeInternalPage(page, 0, entries);
+        return page;
+    }
+
+    // The same separators in a NODE_INTERNAL page, without a slot directory
+    static ByteBuffer legacyInternal() {
+        ByteBuffer page = ByteBuffer.allocate(OnDiskBPlusTree.PAGE_SIZE);
+        page.put(OnDiskBPlusTree.NODE_INTERNAL).putInt(KEYS.length - 1).putLong(0);
+        for (int i = 1; i < KEYS.length; i++) {
+            page.putInt(KEYS[i].length).put(KEYS[i]).putLong(i);
+        }
+        return page;
+    }
+
+    @Test
+    public void findsEveryLeafKeyInPlace() {
+        ByteBuffer page = leaf();
+        page.position(17);
+        for (int i = 0; i < KEYS.length; i++) {
+            OnDiskBPlusTree.LeafEntry entry = OnDiskBPlusTree.readLeafEntry(page, PageSearch.findLeafEntry(page, KEYS[i]));
+            assertArrayEquals(KEYS[i], entry.key);
+            assertEquals(100 + i, entry.overflowHeadPage);
+            assertEquals(200 + i, entry.overflowTailPage);
+        }
+        assertEquals(-1, PageSearch.findLeafEntry(page, new byte[] { 1, 0, 0 }));
+        assertEquals(-1, PageSearch.findLeafEntry(page, new byte[] { (byte) 0xFF }));
+        // Searches never move the page's position
+        assertEquals(17, page.position());
+    }
+
+    @Test
+    public void findsInlineLeafKeys() {
+        ByteBuffer page = inlineLeaf();
+        for (int i = 0; i < KEYS.length; i++) {
+            OnDiskBPlusTree.LeafEntry entry = OnDiskBPlusTree.readLeafEntry(page, PageSearch.findLeafEntry(page, KEYS[i]));
+            assertArrayEquals(KEYS[i], entry.key);
+            int inline = i % (OnDiskBPlusTree.MAX_INLINE_VALUES + 1);
+            if (inline == 0) {
+                assertNull(entry.values);
+                assertEquals(100, entry.overflowHeadPage);
+            } else {
+                assertEquals(inline, entry.values.size());
+                assertArrayEquals(new byte[] { (byte) i }, entry.values.get(inline - 1));
+            }
+        }
+        assertEquals(-1, PageSearch.findLeafEntry(page, new byte[] { 3 }));
+    }
+
+    @Test
+    public void descendsLikeALinearScan() {
+        for (ByteBuffer page : new ByteBuffer[] { internal(), legacyInternal() }) {
+            for (int i = 0; i < KEYS.length; i++) {
+                assertEquals(i, PageSearch.findChild(page, KEYS[i]));
+            }
+            assertEquals(2, PageSearch.findChild(page, new byte[] { 1, 0, 5 }));
+            assertEquals(4, PageSearch.findChild(page, new byte[] { 0x7F, 0x7F }));
+            assertEquals(6, PageSearch.findChild(page, new byte[] { (byte) 0xFF, (byte) 0xFF }));
+        }
+    }
+
+    @Test
+    public void searchesReadOnlyTheProbedEntries() {
+        // Every slot points at its entry, in key order
+        ByteBuffer page = inlineLeaf();
+        for (int i = 0; i < KEYS.length; i++) {
+            int offset = page.getShort(5 + i * OnDiskBPlusTree.SLOT_SIZE) & 0xFFFF;
+            assertEquals(offset, PageSearch.findLeafEntry(page, KEYS[i]));
+        }
+        // Entries the binary search never probes can be garbage: with 7 keys, finding the middle one
+        // reads slot 3 alone
+        ByteBuffer probed = inlineLeaf();
+        for (int i = 0; i < KEYS.length; i++) {
+            if (i != 3) {
+                probed.putInt(probed.getShort(5 + i * OnDiskBPlusTree.SLOT_SIZE) & 0xFFFF, -1);
+            }
+        }
+        assertEquals(page.getShort(5 + 3 * OnDiskBPlusTree.SLOT_SIZE) & 0xFFFF,
+                PageSearch.findLeafEntry(probed, KEYS[3]));
+    }
+}
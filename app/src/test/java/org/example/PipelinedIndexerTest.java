@@ -0,0 +1,107 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import proto.PriceEntityOuterClass.PriceEntity;
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class PipelinedIndexerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String path(String name) {
+        return new File(folder.getRoot(), name).getPath();
+    }
+
+    static byte[] name(PricesStreamedFilePayload payload) {
+        String name = payload.getPrice().getName();
+        return name.isEmpty() ? null : name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Every record is indexed exactly once under its name, at the offset its payload is stored at
+    static void verify(OnDiskBPlusTree index, String file, int records) throws Exception {
+        try (var accessor = StreamableProtoFileWriterTest.parser(file).GetPayloadRandomAccesor()) {
+            for (int i = 0; i < records; i++) {
+                byte[] key = name(StreamableProtoFileWriterTest.payload(i));
+                List<Long> offsets = OnDiskBPlusTreeTest.values(index, key);
+                assertEquals(1, offsets.size());
+                assertEquals(StreamableProtoFileWriterTest.payload(i), accessor.GetPayloadAtOffset(offsets.get(0)));
+            }
+        }
+    }
+
+    @Test
+    public void flushBeforeSealThroughAWrappedCallback() throws Exception {
+        String file = path("wrapped.binpb");
+        List<Long> reported = new ArrayList<>();
+        try (OnDiskBPlusTree index = new OnDiskBPlusTree(path("wrapped.idx"))) {
+            // A tiny queue, so the writer often has to wait for the index thread
+            PipelinedIndexer<PricesStreamedFilePayload> indexer = new PipelinedIndexer<PricesStreamedFilePayload>(16, 8)
+                    .AddIndex(index, PipelinedIndexerTest::name);
+            try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                    new StreamableProtoFileWriter<>(file, StreamableProtoFileWriterTest.HEADER, (offset, p) -> {
+                        reported.add(offset);
+                        indexer.accept(offset, p);
+                    })) {
+                for (int i = 0; i < 500; i++) {
+                    writer.Write(StreamableProtoFileWriterTest.payload(i));
+                }
+                // Unnamed records are skipped by the key extractor
+                writer.Write(PricesStreamedFilePayload.newBuilder().setPrice(PriceEntity.newBuilder()).build());
+                indexer.Flush();
+                assertEquals(0, indexer.GetLag());
+                indexer.close();
+            }
+            assertEquals(501, reported.size());
+            verify(index, file, 500);
+            assertThrows(IllegalStateException.class, () -> indexer.accept(0L, StreamableProtoFileWriterTest.payload(0)));
+        }
+    }
+
+    @Test
+    public void indexesEveryRecordFromConcurrentProducers() throws Exception {
+        String file = path("concurrent.binpb");
+        int producers = 4;
+        int perProducer = 400;
+        try (OnDiskBPlusTree index = new OnDiskBPlusTree(path("concurrent.idx"))) {
+            PipelinedIndexer<PricesStreamedFilePayload> indexer = new PipelinedIndexer<PricesStreamedFilePayload>(64, 16)
+                    .AddIndex(index, PipelinedIndexerTest::name);
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            try (ConcurrentStreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                    new ConcurrentStreamableProtoFileWriter<>(file, StreamableProtoFileWriterTest.HEADER, indexer)) {
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < producers; t++) {
+                    int producer = t;
+                    Thread thread = new Thread(() -> {
+                        try {
+                            for (int n = 0; n < perProducer; n++) {
+                                writer.Write(StreamableProtoFileWriterTest.payload(producer * perProducer + n));
+                            }
+                        } catch (Throwable e) {
+                            failures.add(e);
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                indexer.close();
+            }
+            assertEquals(List.of(), failures);
+            verify(index, file, producers * perProducer);
+        }
+    }
+}
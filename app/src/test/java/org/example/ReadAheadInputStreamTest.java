@@ -0,0 +1,192 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+public class ReadAheadInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Serves data in reads of at most 1000 bytes, optionally sleeping per read or failing once failAt bytes went out
+    static class SourceChannel implements ReadableByteChannel {
+        final byte[] data;
+        final long delayMillis;
+        final int failAt;
+        int position = 0;
+        volatile boolean open = true;
+
+        SourceChannel(byte[] data, long delayMillis, int failAt) {
+            this.data = data;
+            this.delayMillis = delayMillis;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= failAt) {
+                throw new IOException("bad sector");
+            }
+            if (position == data.length) {
+                return -1;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            int n = Math.min(Math.min(dst.remaining(), 1000), Math.min(data.length, failAt) - position);
+            dst.put(data, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+
+    // Mixes single-byte and bulk reads of varying sizes until the end of the stream
+    static byte[] readAll(ReadAheadInputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Random random = new Random(11);
+        byte[] chunk = new byte[10_000];
+        while (true) {
+            if (random.nextInt(4) == 0) {
+                int b = in.read();
+                if (b < 0) {
+                    return out.toByteArray();
+                }
+                out.write(b);
+            } else {
+                int n = in.read(chunk, 3, random.nextInt(chunk.length - 3));
+                if (n < 0) {
+                    return out.toByteArray();
+                }
+                out.write(chunk, 3, n);
+            }
+        }
+    }
+
+    @Test
+    public void readsEveryByteInOrder() throws Exception {
+        byte[] data = random(1_000_003);
+        SourceChannel channel = new SourceChannel(data, 0, Integer.MAX_VALUE);
+        ReadAheadInputStream in = new ReadAheadInputStream(channel, 3, 4096);
+        assertArrayEquals(data, readAll(in));
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(new byte[1], 0, 1));
+        assertEquals(0, in.read(new byte[1], 0, 0));
+        in.close();
+        assertFalse(channel.isOpen());
+        assertThrows(IOException.class, in::read);
+    }
+
+    @Test
+    public void emptyChannel() throws Exception {
+        try (ReadAheadInputStream in = new ReadAheadInputStream(new SourceChannel(new byte[0], 0, Integer.MAX_VALUE),
+                2, 16)) {
+            assertEquals(-1, in.read());
+            assertEquals(0, in.available());
+        }
+    }
+
+    @Test
+    public void stallCountersShowWhichSideWaited() throws Exception {
+        // A slow channel leaves the consumer waiting
+        try (ReadAheadInputStream in = new ReadAheadInputStream(new SourceChannel(random(20_000), 2, Integer.MAX_VALUE),
+                2, 1000)) {
+            assertEquals(20_000, readAll(in).length);
+            assertTrue(in.consumerStalls() > 0);
+        }
+        // A consumer that takes its time leaves the I/O thread waiting for a free buffer
+        try (ReadAheadInputStream in = new ReadAheadInputStream(new SourceChannel(random(20_000), 0, Integer.MAX_VALUE),
+                2, 1000)) {
+            byte[] b = new byte[1000];
+            int total = 0;
+            int n;
+            while ((n = in.read(b, 0, b.length)) > 0) {
+                total += n;
+                Thread.sleep(2);
+            }
+            assertEquals(20_000, total);
+            assertTrue(in.readAheadStalls() > 0);
+        }
+    }
+
+    @Test
+    public void readFailureReachesTheConsumerAfterEarlierBytes() throws Exception {
+        byte[] data = random(50_000);
+        try (ReadAheadInputStream in = new ReadAheadInputStream(new SourceChannel(data, 0, 30_000), 2, 4096)) {
+            byte[] b = new byte[30_000];
+            int total = 0;
+            IOException failure = null;
+            try {
+                int n;
+                while ((n = in.read(b, total, b.length - total)) > 0) {
+                    total += n;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            assertNotNull(failure);
+            assertEquals("bad sector", failure.getCause().getMessage());
+            // Everything read before the failure was delivered intact
+            for (int i = 0; i < total; i++) {
+                assertEquals(data[i], b[i]);
+            }
+        }
+    }
+
+    @Test
+    public void closeStopsABlockedReadAhead() throws Exception {
+        SourceChannel channel = new SourceChannel(random(1_000_000), 0, Integer.MAX_VALUE);
+        ReadAheadInputStream in = new ReadAheadInputStream(channel, 2, 1000);
+        assertTrue(in.read() >= 0);
+        // The I/O thread has filled both buffers and is waiting for one to come back
+        Thread.sleep(50);
+        in.close();
+        assertFalse(channel.isOpen());
+        in.close();
+    }
+
+    @Test
+    public void readAheadEnumeratorRoundTrips() throws Exception {
+        String plain = new File(folder.getRoot(), "read-ahead.binpb").getPath();
+        StreamableProtoFileWriterTest.write(plain, new StreamableProtoFileWriter.Options(), 300);
+        String blocks = new File(folder.getRoot(), "read-ahead-blocks.binpb").getPath();
+        StreamableProtoFileWriterTest.write(blocks,
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.ZSTD, 16 * 1024), 300);
+        for (String path : new String[] { plain, blocks }) {
+            // Buffers smaller than a record, so records straddle buffers
+            try (var enumerator = StreamableProtoFileWriterTest.parser(path).GetReadAheadPayloadEnumerator(3, 3000)) {
+                assertEquals(StreamableProtoFileWriterTest.HEADER, enumerator.GetHeader());
+                for (int i = 0; i < 300; i++) {
+                    assertEquals(StreamableProtoFileWriterTest.payload(i), enumerator.GetNextPayload());
+                }
+                assertNull(enumerator.GetNextPayload());
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class RollingStreamableProtoFileWriterTest {
+
+    static final int RECORDS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Where the callback said each record went
+    static class Location {
+        final int segmentId;
+        final long offset;
+
+        Location(int segmentId, long offset) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+        }
+    }
+
+    static String manifest(Path directory) throws Exception {
+        return new String(Files.readAllBytes(directory.resolve(RollingStreamableProtoFileWriter.MANIFEST_FILE)),
+                StandardCharsets.UTF_8);
+    }
+
+    // Writes RECORDS payloads, checking the manifest as each segment is sealed, and returns the segments
+    List<RollingStreamableProtoFileWriter.Segment> write(Path directory, long maxBytes, long maxRecords,
+            StreamableProtoFileWriter.Options options, List<Location> locations) throws Exception {
+        List<RollingStreamableProtoFileWriter.Segment> sealed = new ArrayList<>();
+        RollingStreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new RollingStreamableProtoFileWriter<>(directory.toString(), StreamableProtoFileWriterTest.HEADER,
+                        maxBytes, maxRecords, (segmentId, offset, p) -> locations.add(new Location(segmentId, offset)),
+                        segment -> {
+                            sealed.add(segment);
+                            try {
+                                String json = manifest(directory);
+                                // Listed before the callback runs, while the dataset is still open
+                                assertTrue(json.contains("\"sealed\": false"));
+                                assertTrue(json.contains(entry(segment)));
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }, options);
+        try (writer) {
+            for (int i = 0; i < RECORDS; i++) {
+                writer.Write(StreamableProtoFileWriterTest.payload(i));
+            }
+        }
+        assertEquals(RECORDS, locations.size());
+        // The segment close() seals is reported like the others
+        assertEquals(sealed, writer.GetSegments());
+        return writer.GetSegments();
+    }
+
+    static String entry(RollingStreamableProtoFileWriter.Segment s) {
+        return "{\"id\": " + s.GetId() + ", \"file\": \"" + s.GetFile() + "\", \"records\": " + s.GetRecordCount()
+                + ", \"dataStart\": " + s.GetDataStart() + ", \"dataEnd\": " + s.GetDataEnd() + ", \"size\": "
+                + s.GetSize() + "}";
+    }
+
+    // Checks the final manifest and that every reported location resolves, segment by segment
+    static void verify(Path directory, List<Location> locations) throws Exception {
+        String json = manifest(directory);
+        assertTrue(json.contains("\"sealed\": true"));
+
+        long records = 0;
+        int segmentId = 0;
+        for (int i = 0; i < locations.size(); i++) {
+            Location location = locations.get(i);
+            // Segments are filled in order, so ids only ever step up by one
+            assertTrue(location.segmentId == segmentId || location.segmentId == segmentId + 1);
+            segmentId = location.segmentId;
+        }
+        for (int id = 0; id <= segmentId; id++) {
+            String path = directory.resolve(RollingStreamableProtoFileWriter.SegmentFileName(id)).toString();
+            try (var accessor = StreamableProtoFileWriterTest.parser(path).GetPayloadRandomAccesor()) {
+                for (int i = 0; i < locations.size(); i++) {
+                    if (locations.get(i).segmentId == id) {
+                        assertEquals(StreamableProtoFileWriterTest.payload(i),
+                                accessor.GetPayloadAtOffset(locations.get(i).offset));
+                        records++;
+                    }
+                }
+            }
+        }
+        assertEquals(locations.size(), records);
+    }
+
+    // The manifest agrees with the files on disk and accounts for every record
+    static void verifySegments(Path directory, List<RollingStreamableProtoFileWriter.Segment> segments)
+            throws Exception {
+        String json = manifest(directory);
+        long headerEnd = 8 + StreamableProtoFileWriterTest.HEADER.getSerializedSize();
+        long records = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            RollingStreamableProtoFileWriter.Segment s = segments.get(i);
+            assertEquals(i, s.GetId());
+            assertEquals(RollingStreamableProtoFileWriter.SegmentFileName(i), s.GetFile());
+            assertTrue(json.contains(entry(s)));
+            assertEquals(headerEnd, s.GetDataStart());
+            assertTrue(s.GetDataEnd() > s.GetDataStart());
+            assertTrue(s.GetSize() > s.GetDataEnd());
+            assertEquals(Files.size(directory.resolve(s.GetFile())), s.GetSize());
+            records += s.GetRecordCount();
+        }
+        assertEquals(RECORDS, records);
+    }
+
+    @Test
+    public void rotatesBySize() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("by-size");
+        List<Location> locations = new ArrayList<>();
+        // Room for about six records per segment
+        List<RollingStreamableProtoFileWriter.Segment> segments = write(directory, 50_000, 0,
+                new StreamableProtoFileWriter.Options(), locations);
+
+        assertTrue(segments.size() > 10);
+        verifySegments(directory, segments);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            assertTrue(segments.get(i).GetDataEnd() >= 50_000);
+        }
+        verify(directory, locations);
+    }
+
+    @Test
+    public void rotatesByRecordCountInBlockMode() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("by-records");
+        List<Location> locations = new ArrayList<>();
+        List<RollingStreamableProtoFileWriter.Segment> segments = write(directory, 0, 7,
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.GZIP, 16 * 1024), locations);
+
+        assertEquals(15, segments.size());
+        verifySegments(directory, segments);
+        for (int i = 0; i < segments.size(); i++) {
+            assertEquals(i < 14 ? 7 : 2, segments.get(i).GetRecordCount());
+        }
+        verify(directory, locations);
+
+        // Each segment is a complete file on its own
+        String last = new File(directory.toFile(), segments.get(14).GetFile()).getPath();
+        try (var enumerator = StreamableProtoFileWriterTest.parser(last).GetPayloadEnumerator()) {
+            assertEquals(StreamableProtoFileWriterTest.payload(98), enumerator.GetNextPayload());
+            assertEquals(StreamableProtoFileWriterTest.payload(99), enumerator.GetNextPayload());
+            assertNull(enumerator.GetNextPayload());
+        }
+    }
+
+    @Test
+    public void emptyDatasetStillHasOneSegment() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("empty");
+        try (RollingStreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new RollingStreamableProtoFileWriter<>(directory.toString(), StreamableProtoFileWriterTest.HEADER,
+                        1000, 0)) {
+            assertTrue(writer.GetSegments().isEmpty());
+        }
+        String json = manifest(directory);
+        assertTrue(json.contains("\"sealed\": true"));
+        assertTrue(json.contains("\"records\": 0"));
+        String path = directory.resolve(RollingStreamableProtoFileWriter.SegmentFileName(0)).toString();
+        try (var enumerator = StreamableProtoFileWriterTest.parser(path).GetPayloadEnumerator()) {
+            assertNull(enumerator.GetNextPayload());
+        }
+    }
+}
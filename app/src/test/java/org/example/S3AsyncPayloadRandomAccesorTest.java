@@ -0,0 +1,191 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class S3AsyncPayloadRandomAccesorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static S3AsyncPayloadRandomAccesor<PricesStreamedFileHeader, PricesStreamedFilePayload> accessor(
+            InMemoryS3AsyncClient s3, String key, int maxConcurrency) throws Exception {
+        return new S3AsyncPayloadRandomAccesor<>(s3, "bucket", key, t -> {
+            try {
+                return PricesStreamedFileHeader.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        }, t -> {
+            try {
+                return PricesStreamedFilePayload.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        }, maxConcurrency);
+    }
+
+    @Test
+    public void fanOutStaysWithinMaxConcurrency() throws Exception {
+        InMemoryS3Client objects = new InMemoryS3Client();
+        List<Long> offsets = S3StreamableProtoFileParserTest.write(objects, "prices.binpb",
+                new StreamableProtoFileWriter.Options(), 300);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient(objects);
+
+        try (var accessor = accessor(s3, "prices.binpb", 8)) {
+            assertEquals("test", accessor.GetHeader().getSource());
+            List<CompletableFuture<PricesStreamedFilePayload>> lookups = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                lookups.add(accessor.GetPayloadAtOffsetAsync(offsets.get(i)));
+            }
+            for (int i = 0; i < 300; i++) {
+                assertEquals(S3StreamableProtoFileWriterTest.payload(i), lookups.get(i).get());
+            }
+            assertTrue("max in flight " + s3.maxInFlight.get(), s3.maxInFlight.get() <= 8);
+            assertTrue(s3.maxInFlight.get() > 1);
+        }
+    }
+
+    @Test
+    public void batchedLookupsKeepTheCallersOrder() throws Exception {
+        InMemoryS3Client objects = new InMemoryS3Client();
+        List<Long> offsets = S3StreamableProtoFileParserTest.write(objects, "blocks.binpb",
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.LZ4, 64 * 1024), 400);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient(objects);
+        int[] wanted = { 399, 0, 200, 1, 200, 57 };
+        long[] lookup = new long[wanted.length];
+        for (int i = 0; i < wanted.length; i++) {
+            lookup[i] = offsets.get(wanted[i]);
+        }
+
+        try (var accessor = accessor(s3, "blocks.binpb", 4)) {
+            List<PricesStreamedFilePayload> payloads = accessor.GetPayloadsAtOffsetsAsync(lookup).get();
+            for (int i = 0; i < wanted.length; i++) {
+                assertEquals(S3StreamableProtoFileWriterTest.payload(wanted[i]), payloads.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void badArgumentsFailTheFutureWithoutReading() throws Exception {
+        InMemoryS3Client objects = new InMemoryS3Client();
+        List<Long> offsets = S3StreamableProtoFileParserTest.write(objects, "prices.binpb",
+                new StreamableProtoFileWriter.Options(), 10);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient(objects);
+
+        try (var accessor = accessor(s3, "prices.binpb", 4)) {
+            int requests = objects.getRequests.get();
+            List<CompletableFuture<?>> lookups = List.of(
+                    accessor.GetPayloadAtOffsetAsync(-1),
+                    accessor.GetPayloadsAtOffsetsAsync(null),
+                    // The valid offset ahead of the bad one is not fetched either
+                    accessor.GetPayloadsAtOffsetsAsync(new long[] { offsets.get(3), 0 }));
+            for (CompletableFuture<?> lookup : lookups) {
+                ExecutionException e = assertThrows(ExecutionException.class, lookup::get);
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            assertEquals(requests, objects.getRequests.get());
+        }
+
+        try (S3AsyncBPlusTreeSeeker seeker = new S3AsyncBPlusTreeSeeker(s3, "bucket", "name.index", 4)) {
+            CompletableFuture<List<byte[]>> search = seeker.searchAsync(new byte[OnDiskBPlusTree.MAX_KEY_SIZE + 1]);
+            ExecutionException e = assertThrows(ExecutionException.class, search::get);
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void searchAsyncMatchesTheLocalTree() throws Exception {
+        String path = new File(folder.getRoot(), "name.index").getPath();
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            for (int i = 0; i < 5000; i++) {
+                tree.insert(("KEY" + (i % 1000)).getBytes(), ByteBuffer.allocate(8).putLong(i).array());
+            }
+        }
+        InMemoryS3Client objects = new InMemoryS3Client();
+        objects.objects.put("name.index", Files.readAllBytes(Paths.get(path)));
+
+        try (S3AsyncBPlusTreeSeeker seeker = new S3AsyncBPlusTreeSeeker(new InMemoryS3AsyncClient(objects),
+                "bucket", "name.index", 16)) {
+            List<CompletableFuture<List<byte[]>>> searches = new ArrayList<>();
+            for (int k = 0; k < 1000; k += 37) {
+                searches.add(seeker.searchAsync(("KEY" + k).getBytes()));
+            }
+            int s = 0;
+            for (int k = 0; k < 1000; k += 37) {
+                List<byte[]> values = searches.get(s++).get();
+                assertEquals(5, values.size());
+                for (int j = 0; j < 5; j++) {
+                    assertEquals(k + j * 1000, ByteBuffer.wrap(values.get(j)).getLong());
+                }
+            }
+            assertTrue(seeker.searchAsync("MISSING".getBytes()).get().isEmpty());
+        }
+    }
+
+    @Test
+    public void synchronousClientDrainsALongQueue() throws Exception {
+        InMemoryS3Client objects = new InMemoryS3Client();
+        List<Long> offsets = S3StreamableProtoFileParserTest.write(objects, "prices.binpb",
+                new StreamableProtoFileWriter.Options(), 300);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient(objects, true);
+
+        try (var accessor = accessor(s3, "prices.binpb", 1)) {
+            // The first GET is held, so every other lookup queues behind it
+            s3.hold();
+            List<CompletableFuture<PricesStreamedFilePayload>> lookups = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                lookups.add(accessor.GetPayloadAtOffsetAsync(offsets.get(i % 300)));
+            }
+            assertFalse(lookups.get(0).isDone());
+            // Each answer arrives before getObject returns; the queue must not be drained by recursion
+            s3.resume();
+            for (int i = 0; i < 20_000; i++) {
+                assertTrue(lookups.get(i).isDone());
+                assertEquals(S3StreamableProtoFileWriterTest.payload(i % 300), lookups.get(i).get());
+            }
+            assertEquals(1, s3.maxInFlight.get());
+        }
+        // The client is the caller's
+        assertFalse(s3.closed);
+    }
+
+    @Test
+    public void seekerLeavesTheClientOpen() throws Exception {
+        String path = new File(folder.getRoot(), "sync.index").getPath();
+        try (OnDiskBPlusTree tree = new OnDiskBPlusTree(path)) {
+            for (int i = 0; i < 2000; i++) {
+                tree.insert(("KEY" + i).getBytes(), ByteBuffer.allocate(8).putLong(i).array());
+            }
+        }
+        InMemoryS3Client objects = new InMemoryS3Client();
+        objects.objects.put("sync.index", Files.readAllBytes(Paths.get(path)));
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient(objects, true);
+
+        try (S3AsyncBPlusTreeSeeker seeker = new S3AsyncBPlusTreeSeeker(s3, "bucket", "sync.index", 2)) {
+            for (int k = 0; k < 2000; k += 97) {
+                List<byte[]> values = seeker.searchAsync(("KEY" + k).getBytes()).get();
+                assertEquals(1, values.size());
+                assertEquals(k, ByteBuffer.wrap(values.get(0)).getLong());
+            }
+        }
+        assertFalse(s3.closed);
+        s3.close();
+    }
+}
@@ -0,0 +1,168 @@
+package org.example;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class S3StreamableProtoFileParserTest {
+
+    static List<Long> write(InMemoryS3Client s3, String key, StreamableProtoFileWriter.Options options, int records)
+            throws Exception {
+        PricesStreamedFileHeader header = PricesStreamedFileHeader.newBuilder().setSource("test").build();
+        List<Long> offsets = new ArrayList<>();
+        try (S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new S3StreamableProtoFileWriter<>(s3, "bucket", key, header, (offset, p) -> offsets.add(offset),
+                        MultipartUploadChannel.MIN_PART_SIZE, 2, options)) {
+            for (int i = 0; i < records; i++) {
+                writer.Write(S3StreamableProtoFileWriterTest.payload(i));
+            }
+        }
+        return offsets;
+    }
+
+    @Test
+    public void batchedLookupsCoalesceNearbyRecords() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        List<Long> offsets = write(s3, "prices.binpb", new StreamableProtoFileWriter.Options(), 200);
+        int[] wanted = { 40, 3, 17, 3, 0, 39, 17, 25 };
+        long[] lookup = new long[wanted.length];
+        for (int i = 0; i < wanted.length; i++) {
+            lookup[i] = offsets.get(wanted[i]);
+        }
+
+        try (var accessor = S3StreamableProtoFileWriterTest.parser(s3, "prices.binpb").GetPayloadRandomAccesor()) {
+            int before = s3.getRequests.get();
+            List<PricesStreamedFilePayload> payloads = accessor.GetPayloadsAtOffsets(lookup);
+            assertEquals(1, s3.getRequests.get() - before);
+            assertEquals(wanted.length, payloads.size());
+            for (int i = 0; i < wanted.length; i++) {
+                assertEquals(S3StreamableProtoFileWriterTest.payload(wanted[i]), payloads.get(i));
+            }
+
+            // Without coalescing each distinct offset is its own GET
+            before = s3.getRequests.get();
+            payloads = accessor.GetPayloadsAtOffsets(lookup, 0);
+            assertEquals(6, s3.getRequests.get() - before);
+            assertEquals(S3StreamableProtoFileWriterTest.payload(40), payloads.get(0));
+        }
+    }
+
+    @Test
+    public void batchedLookupsInBlockCompressedObject() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        List<Long> offsets = write(s3, "blocks.binpb",
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.GZIP, 64 * 1024), 500);
+        long[] lookup = { offsets.get(499), offsets.get(7), offsets.get(250), offsets.get(8) };
+
+        try (var accessor = S3StreamableProtoFileWriterTest.parser(s3, "blocks.binpb").GetPayloadRandomAccesor()) {
+            List<PricesStreamedFilePayload> payloads = accessor.GetPayloadsAtOffsets(lookup);
+            assertEquals(S3StreamableProtoFileWriterTest.payload(499), payloads.get(0));
+            assertEquals(S3StreamableProtoFileWriterTest.payload(7), payloads.get(1));
+            assertEquals(S3StreamableProtoFileWriterTest.payload(250), payloads.get(2));
+            assertEquals(S3StreamableProtoFileWriterTest.payload(8), payloads.get(3));
+        }
+    }
+
+    @Test
+    public void speculativeLookupsTakeOneGet() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        List<Long> offsets = write(s3, "prices.binpb", new StreamableProtoFileWriter.Options(), 100);
+
+        try (var accessor = S3StreamableProtoFileWriterTest.parser(s3, "prices.binpb").GetPayloadRandomAccesor(true)) {
+            int before = s3.getRequests.get();
+            for (int i = 0; i < 100; i += 3) {
+                assertEquals(S3StreamableProtoFileWriterTest.payload(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+            }
+            assertEquals(34, s3.getRequests.get() - before);
+            assertEquals(34, accessor.GetSpeculativeHits());
+            assertEquals(0, accessor.GetSpeculativeMisses());
+        }
+    }
+
+    @Test
+    public void speculativeLookupFetchesTheRestOfALargeRecord() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        PricesStreamedFileHeader header = PricesStreamedFileHeader.newBuilder().setSource("test").build();
+        PricesStreamedFilePayload small = S3StreamableProtoFileWriterTest.payload(1);
+        PricesStreamedFilePayload.Builder large = small.toBuilder();
+        for (int j = 0; j < 100_000; j++) {
+            large.getPriceBuilder().addPrices(j);
+        }
+        List<Long> offsets = new ArrayList<>();
+        try (S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new S3StreamableProtoFileWriter<>(s3, "bucket", "mixed.binpb", header, (offset, p) -> offsets.add(offset),
+                        MultipartUploadChannel.MIN_PART_SIZE, 2, new StreamableProtoFileWriter.Options())) {
+            writer.Write(small);
+            writer.Write(large.build());
+        }
+
+        try (var accessor = S3StreamableProtoFileWriterTest.parser(s3, "mixed.binpb").GetPayloadRandomAccesor(true)) {
+            assertEquals(small, accessor.GetPayloadAtOffset(offsets.get(0)));
+            int before = s3.getRequests.get();
+            assertEquals(large.build(), accessor.GetPayloadAtOffset(offsets.get(1)));
+            assertEquals(2, s3.getRequests.get() - before);
+            assertEquals(1, accessor.GetSpeculativeHits());
+            assertEquals(1, accessor.GetSpeculativeMisses());
+        }
+    }
+
+    @Test
+    public void scanStitchesRecordsAcrossRanges() throws Exception {
+        for (StreamableProtoFileWriter.Options options : new StreamableProtoFileWriter.Options[] {
+                new StreamableProtoFileWriter.Options(),
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.LZ4, 32 * 1024) }) {
+            InMemoryS3Client s3 = new InMemoryS3Client();
+            write(s3, "prices.binpb", options, 300);
+            int size = s3.objects.get("prices.binpb").length;
+
+            // Ranges far smaller than a record, so most records span several of them
+            int before = s3.getRequests.get();
+            try (var enumerator = S3StreamableProtoFileWriterTest.parser(s3, "prices.binpb").GetPayloadEnumerator(3000, 3)) {
+                assertEquals("test", enumerator.GetHeader().getSource());
+                int n = 0;
+                for (var p = enumerator.GetNextPayload(); p != null; p = enumerator.GetNextPayload()) {
+                    assertEquals(S3StreamableProtoFileWriterTest.payload(n++), p);
+                }
+                assertEquals(300, n);
+            }
+            assertTrue(s3.getRequests.get() - before <= (size + 2999) / 3000);
+        }
+    }
+
+    @Test
+    public void footerIsReadAgainAfterAFailedGet() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        List<Long> offsets = write(s3, "footer.binpb", new StreamableProtoFileWriter.Options().WithFooter(16), 100);
+
+        try (var accessor = S3StreamableProtoFileWriterTest.parser(s3, "footer.binpb").GetPayloadRandomAccesor()) {
+            s3.failingGets.set(1);
+            assertThrows(SdkClientException.class, accessor::GetFooter);
+            // The failure is not taken to mean the object has no footer
+            assertEquals(100, accessor.GetFooter().GetRecordCount());
+            assertEquals((long) offsets.get(37), accessor.GetRecordOffset(37));
+        }
+    }
+
+    @Test
+    public void sampledLookupsWalkFramesInOneGet() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        List<Long> offsets = write(s3, "sampled.binpb", new StreamableProtoFileWriter.Options().WithFooter(16), 100);
+
+        try (var accessor = S3StreamableProtoFileWriterTest.parser(s3, "sampled.binpb").GetPayloadRandomAccesor()) {
+            accessor.GetFooter();
+            for (int i = 0; i < 100; i++) {
+                int before = s3.getRequests.get();
+                assertEquals((long) offsets.get(i), accessor.GetRecordOffset(i));
+                // Records on a sample need no GET; the rest take one for the frames after their sample
+                assertEquals(i % 16 == 0 ? 0 : 1, s3.getRequests.get() - before);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import proto.PriceEntityOuterClass.PriceEntity;
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class S3StreamableProtoFileWriterTest {
+
+    static PricesStreamedFilePayload payload(int i) {
+        PriceEntity.Builder price = PriceEntity.newBuilder().setName("TICKER" + i).setCurrency("USD");
+        for (int j = 0; j < 1000; j++) {
+            price.addPrices(i + j);
+        }
+        return PricesStreamedFilePayload.newBuilder().setPrice(price).build();
+    }
+
+    static S3StreamableProtoFileParser<PricesStreamedFileHeader, PricesStreamedFilePayload> parser(
+            InMemoryS3Client s3, String key) {
+        return new S3StreamableProtoFileParser<>(s3, "bucket", key, t -> {
+            try {
+                return PricesStreamedFileHeader.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        }, t -> {
+            try {
+                return PricesStreamedFilePayload.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    public void uploadsInPartsAndReadsBack() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        PricesStreamedFileHeader header = PricesStreamedFileHeader.newBuilder().setSource("test").build();
+        List<Long> offsets = new ArrayList<>();
+        try (S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new S3StreamableProtoFileWriter<>(s3, "bucket", "prices.binpb", header,
+                        (offset, p) -> offsets.add(offset), MultipartUploadChannel.MIN_PART_SIZE, 2,
+                        new StreamableProtoFileWriter.Options())) {
+            for (int i = 0; i < 5000; i++) {
+                writer.Write(payload(i));
+            }
+            assertFalse(s3.objects.containsKey("prices.binpb"));
+        }
+
+        byte[] object = s3.objects.get("prices.binpb");
+        assertTrue(object.length > 2L * MultipartUploadChannel.MIN_PART_SIZE);
+        assertTrue(s3.uploads.isEmpty());
+
+        try (var accessor = parser(s3, "prices.binpb").GetPayloadRandomAccesor()) {
+            assertEquals("test", accessor.GetHeader().getSource());
+            for (int i = 0; i < offsets.size(); i += 499) {
+                assertEquals(payload(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void smallObjectIsWrittenWithSinglePut() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        PricesStreamedFileHeader header = PricesStreamedFileHeader.newBuilder().setSource("small").build();
+        try (S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new S3StreamableProtoFileWriter<>(s3, "bucket", "small.binpb", header)) {
+            writer.Write(payload(1));
+        }
+        try (var accessor = parser(s3, "small.binpb").GetPayloadRandomAccesor()) {
+            assertEquals("small", accessor.GetHeader().getSource());
+        }
+        assertEquals(0, s3.abortedUploads.get());
+    }
+
+    // Alternates the ByteBuffer and byte[] overloads
+    static void writeRaw(S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer,
+            int records) throws Exception {
+        for (int i = 0; i < records; i++) {
+            byte[] bytes = payload(i).toByteArray();
+            if (i % 2 == 0) {
+                assertEquals(bytes.length, writer.WriteRaw(ByteBuffer.wrap(bytes)));
+            } else {
+                assertEquals(bytes.length, writer.WriteRaw(bytes, 0, bytes.length));
+            }
+        }
+    }
+
+    @Test
+    public void writeRawReachesTheCallbacks() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        List<Long> rawOffsets = new ArrayList<>();
+        List<Long> typedOffsets = new ArrayList<>();
+        try (S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new S3StreamableProtoFileWriter<>(s3, "bucket", "raw.binpb", StreamableProtoFileWriterTest.HEADER,
+                        (offset, p) -> fail("typed callback called"), (offset, raw) -> {
+                            rawOffsets.add(offset);
+                            assertEquals(payload(rawOffsets.size() - 1), raw.Parse());
+                        }, StreamableProtoFileWriterTest::parse, MultipartUploadChannel.MIN_PART_SIZE, 2,
+                        new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.LZ4, 64 * 1024))) {
+            writeRaw(writer, 200);
+        }
+        // Without a raw callback the records are parsed for the typed one
+        try (S3StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new S3StreamableProtoFileWriter<>(s3, "bucket", "typed.binpb", StreamableProtoFileWriterTest.HEADER,
+                        (offset, p) -> {
+                            assertEquals(payload(typedOffsets.size()), p);
+                            typedOffsets.add(offset);
+                        }, null, StreamableProtoFileWriterTest::parse, MultipartUploadChannel.MIN_PART_SIZE, 2,
+                        new StreamableProtoFileWriter.Options())) {
+            writeRaw(writer, 200);
+        }
+
+        assertEquals(200, rawOffsets.size());
+        assertEquals(200, typedOffsets.size());
+        try (var raw = parser(s3, "raw.binpb").GetPayloadRandomAccesor();
+                var typed = parser(s3, "typed.binpb").GetPayloadRandomAccesor()) {
+            for (int i = 0; i < 200; i++) {
+                assertEquals(payload(i), raw.GetPayloadAtOffset(rawOffsets.get(i)));
+                assertEquals(payload(i), typed.GetPayloadAtOffset(typedOffsets.get(i)));
+            }
+        }
+    }
+}
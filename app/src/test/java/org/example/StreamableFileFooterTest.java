@@ -0,0 +1,162 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class StreamableFileFooterTest {
+
+    static final int RECORDS = 250;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String path(String name) {
+        return new File(folder.getRoot(), name).getPath();
+    }
+
+    // Writes RECORDS payloads with a footer and checks every ordinal against the offsets the writer reported
+    void verify(String name, StreamableProtoFileWriter.Options options, int sampleInterval) throws Exception {
+        String path = path(name);
+        List<Long> offsets = StreamableProtoFileWriterTest.write(path, options, RECORDS);
+        StreamableProtoFileWriterTest.verify(path, RECORDS);
+
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            int size = StreamableProtoFileWriterTest.payload(i).getSerializedSize();
+            min = Math.min(min, size);
+            max = Math.max(max, size);
+        }
+
+        var parser = StreamableProtoFileWriterTest.parser(path);
+        try (var accessor = parser.GetPayloadRandomAccesor()) {
+            StreamableFileFooter footer = accessor.GetFooter();
+            assertNotNull(footer);
+            assertEquals(RECORDS, footer.GetRecordCount());
+            assertEquals(min, footer.GetMinPayloadSize());
+            assertEquals(max, footer.GetMaxPayloadSize());
+            assertEquals(sampleInterval, footer.GetSampleInterval());
+            assertEquals((RECORDS + sampleInterval - 1) / sampleInterval, footer.GetSampleCount());
+            assertEquals(accessor.IsBlockCompressed(), footer.GetBlockIndexOffset() >= 0);
+
+            // Backwards, so every lookup has to hop from its own sample
+            for (int i = RECORDS - 1; i >= 0; i--) {
+                assertEquals((long) offsets.get(i), accessor.GetRecordOffset(i));
+            }
+            assertEquals(StreamableProtoFileWriterTest.payload(0), accessor.GetPayloadAt(0));
+            assertEquals(StreamableProtoFileWriterTest.payload(RECORDS - 1), accessor.GetPayloadAt(RECORDS - 1));
+            assertThrows(IllegalArgumentException.class, () -> accessor.GetPayloadAt(RECORDS));
+            assertThrows(IllegalArgumentException.class, () -> accessor.GetPayloadAt(-1));
+        }
+        try (var accessor = parser.GetConcurrentPayloadRandomAccesor()) {
+            for (int i = 0; i < RECORDS; i += 13) {
+                assertEquals(StreamableProtoFileWriterTest.payload(i), accessor.GetPayloadAt(i));
+            }
+            assertEquals(StreamableProtoFileWriterTest.payload(RECORDS - 1), accessor.GetPayloadAt(RECORDS - 1));
+            assertThrows(IllegalArgumentException.class, () -> accessor.GetPayloadAt(RECORDS));
+        }
+    }
+
+    @Test
+    public void denseFooter() throws Exception {
+        verify("dense.binpb", new StreamableProtoFileWriter.Options().WithFooter(), 1);
+    }
+
+    @Test
+    public void sampledFooter() throws Exception {
+        verify("sampled.binpb", new StreamableProtoFileWriter.Options().WithFooter(7), 7);
+    }
+
+    @Test
+    public void denseFooterInBlockMode() throws Exception {
+        verify("dense-blocks.binpb", new StreamableProtoFileWriter.Options()
+                .WithBlockCompression(BlockCodecs.LZ4, 32 * 1024).WithFooter(), 1);
+    }
+
+    @Test
+    public void sampledFooterInBlockMode() throws Exception {
+        // Samples far enough apart that a hop crosses several blocks
+        verify("sampled-blocks.binpb", new StreamableProtoFileWriter.Options()
+                .WithBlockCompression(BlockCodecs.GZIP, 32 * 1024).WithFooter(16), 16);
+
+        // The block index is still found through the footer
+        try (var accessor = StreamableProtoFileWriterTest.parser(path("sampled-blocks.binpb")).GetPayloadRandomAccesor()) {
+            BlockIndex index = accessor.GetBlockIndex();
+            assertNotNull(index);
+            assertTrue(index.GetBlockCount() > RECORDS / 16);
+        }
+    }
+
+    @Test
+    public void filesWithoutAFooter() throws Exception {
+        String path = path("no-footer.binpb");
+        StreamableProtoFileWriterTest.write(path, new StreamableProtoFileWriter.Options(), 10);
+        try (var accessor = StreamableProtoFileWriterTest.parser(path).GetPayloadRandomAccesor()) {
+            assertNull(accessor.GetFooter());
+            assertThrows(IOException.class, () -> accessor.GetPayloadAt(0));
+        }
+    }
+
+    @Test
+    public void emptyFileHasAnEmptyFooter() throws Exception {
+        String path = path("empty.binpb");
+        StreamableProtoFileWriterTest.write(path, new StreamableProtoFileWriter.Options().WithFooter(), 0);
+        try (var accessor = StreamableProtoFileWriterTest.parser(path).GetPayloadRandomAccesor()) {
+            StreamableFileFooter footer = accessor.GetFooter();
+            assertEquals(0, footer.GetRecordCount());
+            assertEquals(0, footer.GetSampleCount());
+            assertThrows(IllegalArgumentException.class, () -> accessor.GetPayloadAt(0));
+        }
+        try (var enumerator = StreamableProtoFileWriterTest.parser(path).GetPayloadEnumerator()) {
+            assertNull(enumerator.GetNextPayload());
+        }
+    }
+
+    @Test
+    public void sampledWalksReadFramesTogether() throws Exception {
+        // Every third record is over 1 MB, more than a single walk read takes
+        String path = path("walk.binpb");
+        List<Long> offsets = new ArrayList<>();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, StreamableProtoFileWriterTest.HEADER,
+                        (offset, p) -> offsets.add(offset), new StreamableProtoFileWriter.Options().WithFooter(8))) {
+            for (int i = 0; i < 24; i++) {
+                writer.Write(i % 3 == 2 ? ConcurrentStreamableProtoFileWriterTest.large(i)
+                        : StreamableProtoFileWriterTest.payload(i));
+            }
+        }
+        StreamableFileFooter footer;
+        try (var accessor = StreamableProtoFileWriterTest.parser(path).GetPayloadRandomAccesor()) {
+            footer = accessor.GetFooter();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            int[] reads = { 0 };
+            StreamableFileFooter.RangeReader reader = (position, dst) -> {
+                reads[0]++;
+                raf.seek(position);
+                raf.readFully(dst);
+            };
+            for (int i = 0; i < 24; i++) {
+                reads[0] = 0;
+                assertEquals((long) offsets.get(i), footer.offsetOf(i, false, reader));
+                // One read per large frame skipped, plus one for the rest
+                int largeSkipped = 0;
+                for (int j = i / 8 * 8; j < i; j++) {
+                    largeSkipped += j % 3 == 2 ? 1 : 0;
+                }
+                assertTrue(i + ": " + reads[0] + " reads", reads[0] <= largeSkipped + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import proto.PriceEntityOuterClass.PriceEntity;
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+// Pins how much a steady-state scan allocates per record on top of building the message itself,
+// so regressions in the buffer reuse paths show up
+public class StreamablePayloadEnumeratorAllocationTest {
+
+    static final int RECORDS = 2000;
+    static final int PRICES_PER_RECORD = 1000;
+    // What the enumerator may add per record to the cost of parsing the same bytes directly: the
+    // CodedInputStream and the per-scan stream buffers spread over RECORDS, but no payload copy
+    static final long ENUMERATOR_BUDGET_BYTES_PER_RECORD = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void parserPathOnlyAllocatesTheMessage() throws Exception {
+        StreamableProtoFileParser<PricesStreamedFileHeader, PricesStreamedFilePayload> parser = writeFile();
+        byte[] serialized = payload(0).toByteArray();
+
+        long baseline = perRecord(() -> {
+            for (int i = 0; i < RECORDS; i++) {
+                PricesStreamedFilePayload.parser().parseFrom(CodedInputStream.newInstance(serialized));
+            }
+        });
+        long scan = perRecord(() -> {
+            try (var enumerator = parser.GetPayloadEnumerator()) {
+                while (enumerator.GetNextPayload(PricesStreamedFilePayload.parser()) != null) {
+                }
+            }
+        });
+
+        assertTrue("scan " + scan + ", parse only " + baseline,
+                scan <= baseline + ENUMERATOR_BUDGET_BYTES_PER_RECORD);
+    }
+
+    @Test
+    public void builderPathOnlyAllocatesWhatMergeDoes() throws Exception {
+        StreamableProtoFileParser<PricesStreamedFileHeader, PricesStreamedFilePayload> parser = writeFile();
+        byte[] serialized = payload(0).toByteArray();
+        PricesStreamedFilePayload.Builder builder = PricesStreamedFilePayload.newBuilder();
+
+        long baseline = perRecord(() -> {
+            for (int i = 0; i < RECORDS; i++) {
+                builder.clear();
+                builder.mergeFrom(CodedInputStream.newInstance(serialized));
+            }
+        });
+        long scan = perRecord(() -> {
+            int records = 0;
+            try (var enumerator = parser.GetPayloadEnumerator()) {
+                while (enumerator.MergeNextPayload(builder)) {
+                    records++;
+                }
+            }
+            assertEquals(RECORDS, records);
+        });
+
+        assertTrue("scan " + scan + ", merge only " + baseline,
+                scan <= baseline + ENUMERATOR_BUDGET_BYTES_PER_RECORD);
+    }
+
+    @Test
+    public void defaultPathPaysForThePayloadCopy() throws Exception {
+        StreamableProtoFileParser<PricesStreamedFileHeader, PricesStreamedFilePayload> parser = writeFile();
+        int payloadSize = payload(0).getSerializedSize();
+
+        long reused = perRecord(() -> {
+            try (var enumerator = parser.GetPayloadEnumerator()) {
+                while (enumerator.GetNextPayload(PricesStreamedFilePayload.parser()) != null) {
+                }
+            }
+        });
+        long copying = perRecord(() -> {
+            try (var enumerator = parser.GetPayloadEnumerator()) {
+                while (enumerator.GetNextPayload() != null) {
+                }
+            }
+        });
+
+        assertTrue("copying " + copying + ", reused " + reused, copying - reused >= payloadSize);
+    }
+
+    interface Scan {
+        void run() throws Exception;
+    }
+
+    // Bytes allocated per record by the second of two runs; the first warms up the JIT and any buffers
+    private long perRecord(Scan scan) throws Exception {
+        scan.run();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        scan.run();
+        return (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / RECORDS;
+    }
+
+    static PricesStreamedFilePayload payload(int i) {
+        PriceEntity.Builder price = PriceEntity.newBuilder().setName("AAPL" + i).setCurrency("USD");
+        for (int j = 0; j < PRICES_PER_RECORD; j++) {
+            price.addPrices(100.0 + j);
+        }
+        return PricesStreamedFilePayload.newBuilder().setPrice(price).build();
+    }
+
+    private StreamableProtoFileParser<PricesStreamedFileHeader, PricesStreamedFilePayload> writeFile()
+            throws Exception {
+        String file = folder.newFile("prices.binpb").getPath();
+        PricesStreamedFileHeader header = PricesStreamedFileHeader.newBuilder().setSource("test").build();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(file, header)) {
+            for (int i = 0; i < RECORDS; i++) {
+                writer.Write(payload(i));
+            }
+        }
+        return new StreamableProtoFileParser<>(file, t -> {
+            try {
+                return PricesStreamedFileHeader.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        }, t -> {
+            try {
+                return PricesStreamedFilePayload.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,419 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class StreamableProtoFileParserTest {
+
+    static final int RECORDS = 300;
+    // Record written in the middle of each file; it is larger than a whole block
+    static final int LARGE = 150;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static PricesStreamedFilePayload expected(int i) {
+        return i == LARGE ? ConcurrentStreamableProtoFileWriterTest.large(i) : StreamableProtoFileWriterTest.payload(i);
+    }
+
+    String path(String name) {
+        return new File(folder.getRoot(), name).getPath();
+    }
+
+    List<Long> writeBlocks(String path, BlockCodec codec) throws Exception {
+        return write(path, new StreamableProtoFileWriter.Options().WithBlockCompression(codec, 64 * 1024));
+    }
+
+    static List<Long> write(String path, StreamableProtoFileWriter.Options options) throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, StreamableProtoFileWriterTest.HEADER,
+                        (offset, p) -> offsets.add(offset), options)) {
+            for (int i = 0; i < RECORDS; i++) {
+                writer.Write(expected(i));
+            }
+        }
+        return offsets;
+    }
+
+    // Runs every task on its own thread and rethrows the first failure
+    static void runConcurrently(List<Callable<Void>> tasks) throws Exception {
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.call();
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+    }
+
+    // Reads the file back through every enumerator and the random accessor
+    static void verifyAll(String path, List<Long> offsets) throws Exception {
+        var parser = StreamableProtoFileWriterTest.parser(path);
+        try (var enumerator = parser.GetPayloadEnumerator()) {
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals(expected(i), enumerator.GetNextPayload());
+            }
+            assertNull(enumerator.GetNextPayload());
+        }
+        try (var enumerator = parser.GetMappedPayloadEnumerator()) {
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals(expected(i), enumerator.GetNextPayload());
+            }
+            assertNull(enumerator.GetNextPayload());
+        }
+        try (var accessor = parser.GetPayloadRandomAccesor()) {
+            // Backwards, so the accessor cannot lean on its last decompressed block
+            for (int i = RECORDS - 1; i >= 0; i--) {
+                assertEquals(expected(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void everyCodecRoundTrips() throws Exception {
+        BlockCodec[] codecs = { BlockCodecs.NONE, BlockCodecs.GZIP, BlockCodecs.LZ4, BlockCodecs.ZSTD };
+        for (BlockCodec codec : codecs) {
+            String path = path("blocks-" + codec.GetId() + ".binpb");
+            List<Long> offsets = writeBlocks(path, codec);
+            assertEquals(RECORDS, offsets.size());
+            verifyAll(path, offsets);
+
+            try (var accessor = StreamableProtoFileWriterTest.parser(path).GetPayloadRandomAccesor()) {
+                assertTrue(accessor.IsBlockCompressed());
+                BlockIndex index = accessor.GetBlockIndex();
+                assertNotNull(index);
+                int records = 0;
+                for (int b = 0; b < index.GetBlockCount(); b++) {
+                    records += index.GetRecordCount(b);
+                }
+                assertEquals(RECORDS, records);
+                // The large record overflows its block, which is closed straight after it
+                long largeBlock = StreamableProtoFileParser.BlockOffsetOf(offsets.get(LARGE));
+                assertNotEquals(largeBlock, StreamableProtoFileParser.BlockOffsetOf(offsets.get(LARGE + 1)));
+                assertEquals(0, StreamableProtoFileParser.BlockRecordIndexOf(offsets.get(LARGE + 1)));
+            }
+        }
+    }
+
+    @Test
+    public void unsealedBlockFileReadsUpToTheLastFlushedBlock() throws Exception {
+        String path = path("unsealed.binpb");
+        List<Long> offsets = new ArrayList<>();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, StreamableProtoFileWriterTest.HEADER,
+                        (offset, p) -> offsets.add(offset),
+                        new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.LZ4, 64 * 1024))) {
+            for (int i = 0; i < 50; i++) {
+                writer.Write(StreamableProtoFileWriterTest.payload(i));
+            }
+            // Closes the open block, but does not seal the file
+            writer.Flush();
+
+            var parser = StreamableProtoFileWriterTest.parser(path);
+            try (var enumerator = parser.GetPayloadEnumerator()) {
+                for (int i = 0; i < 50; i++) {
+                    assertEquals(StreamableProtoFileWriterTest.payload(i), enumerator.GetNextPayload());
+                }
+                assertThrows(IOException.class, enumerator::GetNextPayload);
+            }
+            try (var accessor = parser.GetPayloadRandomAccesor()) {
+                assertNull(accessor.GetBlockIndex());
+                for (int i = 0; i < 50; i++) {
+                    assertEquals(StreamableProtoFileWriterTest.payload(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void baselineFilesStillRead() throws Exception {
+        // Laid out by hand the way the original writer did: magic, header, length-prefixed payloads, seal
+        String path = path("baseline.binpb");
+        List<Long> offsets = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(path))) {
+            byte[] header = StreamableProtoFileWriterTest.HEADER.toByteArray();
+            out.writeInt(0x1973);
+            out.writeInt(header.length);
+            out.write(header);
+            for (int i = 0; i < RECORDS; i++) {
+                byte[] payload = expected(i).toByteArray();
+                offsets.add((long) out.size());
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+            out.writeInt(-1);
+        }
+        verifyAll(path, offsets);
+        try (var accessor = StreamableProtoFileWriterTest.parser(path).GetPayloadRandomAccesor()) {
+            assertFalse(accessor.IsBlockCompressed());
+            assertNull(accessor.GetBlockIndex());
+            assertNull(accessor.GetFooter());
+            assertEquals(StreamableProtoFileWriterTest.HEADER, accessor.GetHeader());
+        }
+    }
+
+    // Windows a few records wide, so frames keep straddling a window boundary and force a remap
+    static void verifyMapped(String path, int windowSize, int records) throws Exception {
+        List<ByteBuffer> slices = new ArrayList<>();
+        var parser = StreamableProtoFileWriterTest.parser(path);
+        try (var enumerator = parser.GetMappedPayloadEnumerator(PricesStreamedFilePayload.parser(), windowSize)) {
+            for (int i = 0; i < records; i++) {
+                assertEquals(StreamableProtoFileWriterTest.payload(i), enumerator.GetNextPayload());
+            }
+            assertNull(enumerator.GetNextPayload());
+            assertNull(enumerator.GetNextPayloadSlice());
+        }
+        try (var enumerator = parser.GetMappedPayloadEnumerator(PricesStreamedFilePayload.parser(), windowSize)) {
+            ByteBuffer slice;
+            while ((slice = enumerator.GetNextPayloadSlice()) != null) {
+                slices.add(slice);
+            }
+        }
+        // Slices handed out before a remap still hold their own record
+        assertEquals(records, slices.size());
+        for (int i = 0; i < records; i++) {
+            assertEquals(StreamableProtoFileWriterTest.payload(i), PricesStreamedFilePayload.parseFrom(slices.get(i)));
+        }
+    }
+
+    @Test
+    public void mappedEnumeratorRemapsSmallWindows() throws Exception {
+        String plain = path("mapped.binpb");
+        StreamableProtoFileWriterTest.write(plain, new StreamableProtoFileWriter.Options(), RECORDS);
+        int frame = 4 + StreamableProtoFileWriterTest.payload(0).getSerializedSize();
+        verifyMapped(plain, frame * 2 + 100, RECORDS);
+        // A window that only just fits a frame
+        verifyMapped(plain, frame + 16, RECORDS);
+
+        String blocks = path("mapped-blocks.binpb");
+        StreamableProtoFileWriterTest.write(blocks,
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.NONE, 16 * 1024), RECORDS);
+        verifyMapped(blocks, 64 * 1024, RECORDS);
+    }
+
+    @Test
+    public void mappedEnumeratorRejectsFramesLargerThanTheWindow() throws Exception {
+        String path = path("mapped-large.binpb");
+        StreamableProtoFileWriterTest.write(path, new StreamableProtoFileWriter.Options(), 3);
+        var parser = StreamableProtoFileWriterTest.parser(path);
+        try (var enumerator = parser.GetMappedPayloadEnumerator(PricesStreamedFilePayload.parser(), 1024)) {
+            assertThrows(IOException.class, enumerator::GetNextPayload);
+        }
+
+        // A file cut short in the middle of a record
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        String truncated = path("mapped-truncated.binpb");
+        Files.write(Paths.get(truncated), Arrays.copyOf(bytes, bytes.length - 100));
+        try (var enumerator = StreamableProtoFileWriterTest.parser(truncated)
+                .GetMappedPayloadEnumerator(PricesStreamedFilePayload.parser(), 64 * 1024)) {
+            assertEquals(StreamableProtoFileWriterTest.payload(0), enumerator.GetNextPayload());
+            assertEquals(StreamableProtoFileWriterTest.payload(1), enumerator.GetNextPayload());
+            assertThrows(IOException.class, enumerator::GetNextPayload);
+        }
+    }
+
+    // Chunks of about 64 KB, so every stream is spread over dozens of open files
+    static final long CHUNK_BYTES = 64 * 1024;
+
+    @Test
+    public void payloadStreamsRoundTrip() throws Exception {
+        String plain = path("stream.binpb");
+        StreamableProtoFileWriterTest.write(plain, new StreamableProtoFileWriter.Options(), RECORDS);
+        String blocks = path("stream-blocks.binpb");
+        StreamableProtoFileWriterTest.write(blocks,
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.LZ4, 16 * 1024), RECORDS);
+
+        List<PricesStreamedFilePayload> expected = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            expected.add(StreamableProtoFileWriterTest.payload(i));
+        }
+        for (String path : List.of(plain, blocks)) {
+            var parser = StreamableProtoFileWriterTest.parser(path);
+            try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream(true, CHUNK_BYTES)) {
+                assertEquals(expected, stream.collect(Collectors.toList()));
+            }
+            try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream(true, CHUNK_BYTES)) {
+                assertEquals(expected, stream.parallel().collect(Collectors.toList()));
+            }
+            try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream(false, CHUNK_BYTES)) {
+                List<PricesStreamedFilePayload> unordered = stream.parallel().collect(Collectors.toList());
+                assertEquals(new HashSet<>(expected), new HashSet<>(unordered));
+                assertEquals(RECORDS, unordered.size());
+            }
+            // The public entry point, with its default chunk size
+            try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream()) {
+                assertEquals(expected, stream.parallel().collect(Collectors.toList()));
+            }
+        }
+    }
+
+    @Test
+    public void shortCircuitedStreamsReleaseTheirChunks() throws Exception {
+        String path = path("short.binpb");
+        StreamableProtoFileWriterTest.write(path, new StreamableProtoFileWriter.Options(), RECORDS);
+        var parser = StreamableProtoFileWriterTest.parser(path);
+        PricesStreamedFilePayload middle = StreamableProtoFileWriterTest.payload(RECORDS / 2);
+
+        try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream(true, CHUNK_BYTES)) {
+            assertEquals(StreamableProtoFileWriterTest.payload(0), stream.parallel().findFirst().get());
+            // findFirst stopped inside the first chunk; closing the stream releases it
+            assertTrue(parser.openChunks.get() > 0);
+        }
+        assertEquals(0, parser.openChunks.get());
+
+        try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream(false, CHUNK_BYTES)) {
+            assertTrue(stream.parallel().anyMatch(middle::equals));
+        }
+        assertEquals(0, parser.openChunks.get());
+        try (Stream<PricesStreamedFilePayload> stream = parser.GetPayloadStream(true, CHUNK_BYTES)) {
+            assertEquals(10, stream.parallel().limit(10).count());
+        }
+        assertEquals(0, parser.openChunks.get());
+
+        // Pipelines that run to the end, or fail, release their chunks even if the stream is never closed
+        assertEquals(RECORDS, parser.GetPayloadStream(true, CHUNK_BYTES).parallel().count());
+        assertEquals(0, parser.openChunks.get());
+        Stream<PricesStreamedFilePayload> failing = parser.GetPayloadStream(true, CHUNK_BYTES).parallel();
+        assertThrows(IllegalStateException.class, () -> failing.forEach(p -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(0, parser.openChunks.get());
+        var iterator = parser.GetPayloadStream(true, CHUNK_BYTES).iterator();
+        assertThrows(IllegalStateException.class, () -> iterator.forEachRemaining(p -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(0, parser.openChunks.get());
+    }
+
+    @Test
+    public void concurrentLookupsOfPayloadsLargerThanTheFirstRead() throws Exception {
+        String[] names = { "concurrent.binpb", "concurrent-footer.binpb", "concurrent-blocks.binpb" };
+        StreamableProtoFileWriter.Options[] options = {
+                new StreamableProtoFileWriter.Options(),
+                new StreamableProtoFileWriter.Options().WithFooter(),
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.LZ4, 64 * 1024) };
+        for (int f = 0; f < names.length; f++) {
+            String path = path(names[f]);
+            List<Long> offsets = write(path, options[f]);
+            var accessor = StreamableProtoFileWriterTest.parser(path).GetConcurrentPayloadRandomAccesor();
+            try {
+                // More threads than pooled buffers, so some lookups fall back to heap buffers
+                List<Callable<Void>> readers = new ArrayList<>();
+                for (int t = 0; t < 24; t++) {
+                    int start = t * 71;
+                    readers.add(() -> {
+                        // Each thread visits every record, the large one included, in its own order
+                        for (int n = 0; n < RECORDS; n++) {
+                            int i = (start + n * 37) % RECORDS;
+                            assertEquals(expected(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+                        }
+                        return null;
+                    });
+                }
+                runConcurrently(readers);
+                assertTrue(accessor.pooledBuffers.get() <= StreamableProtoFileParser.ConcurrentPayloadRandomAccesor.MAX_POOLED_BUFFERS);
+                assertEquals(accessor.pooledBuffers.get(), accessor.bufferPool.size());
+            } finally {
+                accessor.close();
+            }
+            // Nothing keeps the direct buffers reachable once the accessor is closed
+            assertTrue(accessor.bufferPool.isEmpty());
+        }
+    }
+
+    @Test
+    public void interruptedLookupsLeaveTheAccessorWorking() throws Exception {
+        String path = path("interrupted.binpb");
+        List<Long> offsets = write(path, new StreamableProtoFileWriter.Options());
+        try (var accessor = StreamableProtoFileWriterTest.parser(path).GetConcurrentPayloadRandomAccesor()) {
+            List<Thread> victims = new ArrayList<>();
+            List<Throwable> victimFailures = Collections.synchronizedList(new ArrayList<>());
+            for (int t = 0; t < 2; t++) {
+                Thread victim = new Thread(() -> {
+                    // Looks records up until the interrupt reaches a read
+                    try {
+                        for (int n = 0; ; n++) {
+                            accessor.GetPayloadAtOffset(offsets.get(n % RECORDS));
+                        }
+                    } catch (Throwable e) {
+                        victimFailures.add(e);
+                    }
+                });
+                victims.add(victim);
+                victim.start();
+            }
+            List<Callable<Void>> readers = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                readers.add(() -> {
+                    for (int pass = 0; pass < 3; pass++) {
+                        for (int i = RECORDS - 1; i >= 0; i--) {
+                            assertEquals(expected(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+                        }
+                    }
+                    return null;
+                });
+            }
+            Thread interrupter = new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                victims.forEach(Thread::interrupt);
+            });
+            interrupter.start();
+            // The readers retry on the reopened channel and never see the victims' interrupts
+            runConcurrently(readers);
+            interrupter.join();
+            for (Thread victim : victims) {
+                victim.join();
+            }
+            assertEquals(2, victimFailures.size());
+            for (Throwable failure : victimFailures) {
+                assertTrue(failure.toString(), failure instanceof ClosedByInterruptException);
+            }
+            // Still usable from a fresh thread once the dust has settled
+            runConcurrently(List.of(() -> {
+                for (int i = 0; i < RECORDS; i++) {
+                    assertEquals(expected(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+                }
+                return null;
+            }));
+        }
+    }
+}
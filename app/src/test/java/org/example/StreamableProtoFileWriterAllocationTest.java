@@ -0,0 +1,88 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.lang.management.ManagementFactory;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+// Pins how much a steady-state Write allocates per record, so a return to serializing each payload
+// into its own array (toByteArray) shows up
+public class StreamableProtoFileWriterAllocationTest {
+
+    static final int RECORDS = 2000;
+    // What Write may allocate per record: protobuf's own per-message bookkeeping in writeTo (about 32
+    // bytes a message) and the channel wrapper of each buffer flush spread over the records that
+    // filled it, but no payload copy
+    static final long WRITE_BUDGET_BYTES_PER_RECORD = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void writeDoesNotCopyThePayload() throws Exception {
+        PricesStreamedFilePayload[] payloads = payloads();
+        PricesStreamedFileHeader header = PricesStreamedFileHeader.newBuilder().setSource("test").build();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(folder.newFile("prices.binpb").getPath(), header)) {
+            long write = perRecord(() -> {
+                for (PricesStreamedFilePayload payload : payloads) {
+                    writer.Write(payload);
+                }
+            });
+
+            assertTrue("write " + write, write <= WRITE_BUDGET_BYTES_PER_RECORD);
+        }
+    }
+
+    @Test
+    public void budgetCatchesAPayloadCopy() throws Exception {
+        PricesStreamedFilePayload[] payloads = payloads();
+        int payloadSize = payloads[0].getSerializedSize();
+        // The framing Write used to do, into a sink that allocates nothing once grown
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORDS * (payloadSize + 16));
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        long copying = perRecord(() -> {
+            bytes.reset();
+            for (PricesStreamedFilePayload payload : payloads) {
+                byte[] serialized = payload.toByteArray();
+                out.writeInt(serialized.length);
+                out.write(serialized);
+            }
+        });
+
+        assertTrue("copying " + copying, copying >= payloadSize);
+        assertTrue(copying > WRITE_BUDGET_BYTES_PER_RECORD);
+    }
+
+    interface Run {
+        void run() throws Exception;
+    }
+
+    // Bytes allocated per record by the second of two runs; the first warms up the JIT and buffers
+    private long perRecord(Run run) throws Exception {
+        run.run();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        run.run();
+        return (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / RECORDS;
+    }
+
+    // Built up front so only the writes are measured
+    private static PricesStreamedFilePayload[] payloads() {
+        PricesStreamedFilePayload[] payloads = new PricesStreamedFilePayload[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            payloads[i] = StreamablePayloadEnumeratorAllocationTest.payload(i);
+        }
+        return payloads;
+    }
+}
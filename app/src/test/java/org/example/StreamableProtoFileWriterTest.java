@@ -0,0 +1,279 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import proto.PricesStreamedFileHeaderOuterClass.PricesStreamedFileHeader;
+import proto.PricesStreamedFilePayloadOuterClass.PricesStreamedFilePayload;
+
+public class StreamableProtoFileWriterTest {
+
+    static final PricesStreamedFileHeader HEADER = PricesStreamedFileHeader.newBuilder().setSource("test").build();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static PricesStreamedFilePayload payload(int i) {
+        return S3StreamableProtoFileWriterTest.payload(i);
+    }
+
+    static StreamableProtoFileParser<PricesStreamedFileHeader, PricesStreamedFilePayload> parser(String path)
+            throws Exception {
+        return new StreamableProtoFileParser<>(path, t -> {
+            try {
+                return PricesStreamedFileHeader.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        }, t -> {
+            try {
+                return PricesStreamedFilePayload.parseFrom(t);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // Writes payload(0) to payload(records - 1) and returns the offsets the callback reported
+    static List<Long> write(String path, StreamableProtoFileWriter.Options options, int records) throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, HEADER, (offset, p) -> offsets.add(offset), options)) {
+            for (int i = 0; i < records; i++) {
+                writer.Write(payload(i));
+            }
+        }
+        return offsets;
+    }
+
+    // Enumerates the whole file and checks it holds payload(0) to payload(records - 1)
+    static void verify(String path, int records) throws Exception {
+        try (var enumerator = parser(path).GetPayloadEnumerator()) {
+            assertEquals(HEADER, enumerator.GetHeader());
+            for (int i = 0; i < records; i++) {
+                assertEquals(payload(i), enumerator.GetNextPayload());
+            }
+            assertNull(enumerator.GetNextPayload());
+        }
+    }
+
+    // Checks that every offset resolves to its own payload through the random accessor
+    static void verifyOffsets(String path, List<Long> offsets) throws Exception {
+        try (var accessor = parser(path).GetPayloadRandomAccesor()) {
+            for (int i = 0; i < offsets.size(); i++) {
+                assertEquals(payload(i), accessor.GetPayloadAtOffset(offsets.get(i)));
+            }
+        }
+    }
+
+    String path(String name) {
+        return new File(folder.getRoot(), name).getPath();
+    }
+
+    @Test
+    public void asyncBuffersRoundTrip() throws Exception {
+        String path = path("async.binpb");
+        // Buffers smaller than a record, so nearly every write hands a buffer to the I/O thread
+        List<Long> offsets = write(path, new StreamableProtoFileWriter.Options().WithAsyncBuffers(1024), 500);
+        assertEquals(500, offsets.size());
+        verify(path, 500);
+        verifyOffsets(path, offsets);
+    }
+
+    @Test
+    public void writeFramesExactlyAsToByteArrayDid() throws Exception {
+        // Empty, small, ones that fill most of the write buffer and ones far larger than it
+        List<PricesStreamedFilePayload> payloads = new ArrayList<>();
+        payloads.add(PricesStreamedFilePayload.getDefaultInstance());
+        for (int i = 0; i < 40; i++) {
+            payloads.add(payload(i));
+        }
+        payloads.add(ConcurrentStreamableProtoFileWriterTest.large(0));
+        payloads.add(payload(40));
+        payloads.add(ConcurrentStreamableProtoFileWriterTest.large(1));
+        payloads.add(PricesStreamedFilePayload.getDefaultInstance());
+        assertTrue(payloads.get(41).getSerializedSize() > StreamableProtoFileWriter.WRITE_BUFFER_SIZE);
+
+        // The framing Write used before it serialized straight into the output buffer
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream expected = new DataOutputStream(bytes);
+        expected.writeInt(StreamableProtoFileParser.MAGIC_BYTE);
+        byte[] headerBytes = HEADER.toByteArray();
+        expected.writeInt(headerBytes.length);
+        expected.write(headerBytes);
+        for (PricesStreamedFilePayload payload : payloads) {
+            byte[] payloadBytes = payload.toByteArray();
+            expected.writeInt(payloadBytes.length);
+            expected.write(payloadBytes);
+        }
+        expected.writeInt(StreamableProtoFileParser.FILE_SEAL_MARKER);
+
+        String path = path("framing.binpb");
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, HEADER)) {
+            for (PricesStreamedFilePayload payload : payloads) {
+                assertEquals(payload.getSerializedSize(), writer.Write(payload));
+            }
+        }
+        assertArrayEquals(bytes.toByteArray(), Files.readAllBytes(Paths.get(path)));
+    }
+
+    @Test
+    public void writeAllMatchesWriteAcrossBatches() throws Exception {
+        String path = path("batched.binpb");
+        List<Long> reported = new ArrayList<>();
+        long[] first;
+        long[] second;
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, HEADER, (offset, p) -> reported.add(offset))) {
+            writer.Write(payload(0));
+            // About 8 MB: more than one batch of segments, plus a record larger than a whole segment
+            List<PricesStreamedFilePayload> batch = new ArrayList<>();
+            for (int i = 1; i < 1000; i++) {
+                batch.add(i == 500 ? ConcurrentStreamableProtoFileWriterTest.large(i) : payload(i));
+            }
+            first = writer.WriteAll(batch);
+            second = writer.WriteAll(IntStream.range(1000, 1100).mapToObj(StreamableProtoFileWriterTest::payload));
+            writer.Write(payload(1100));
+        }
+        assertEquals(999, first.length);
+        assertEquals(100, second.length);
+        assertEquals(1101, reported.size());
+        for (int i = 0; i < first.length; i++) {
+            assertEquals((long) reported.get(i + 1), first[i]);
+        }
+        for (int i = 0; i < second.length; i++) {
+            assertEquals((long) reported.get(i + 1000), second[i]);
+        }
+
+        try (var accessor = parser(path).GetPayloadRandomAccesor()) {
+            assertEquals(ConcurrentStreamableProtoFileWriterTest.large(500), accessor.GetPayloadAtOffset(first[499]));
+            for (int i = 0; i < reported.size(); i += 11) {
+                if (i != 500) {
+                    assertEquals(payload(i), accessor.GetPayloadAtOffset(reported.get(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeAllInBlockMode() throws Exception {
+        String path = path("batched-blocks.binpb");
+        List<PricesStreamedFilePayload> batch = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            batch.add(payload(i));
+        }
+        List<Long> offsets = new ArrayList<>();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, HEADER, null,
+                        new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.GZIP, 64 * 1024))) {
+            for (long offset : writer.WriteAll(batch)) {
+                offsets.add(offset);
+            }
+        }
+        verify(path, 300);
+        verifyOffsets(path, offsets);
+    }
+
+    static PricesStreamedFilePayload parse(byte[] bytes) {
+        try {
+            return PricesStreamedFilePayload.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Alternates the ByteBuffer and byte[] overloads, with the payload in the middle of a larger buffer
+    static void writeRaw(StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer,
+            int records) throws Exception {
+        for (int i = 0; i < records; i++) {
+            byte[] bytes = payload(i).toByteArray();
+            byte[] padded = new byte[bytes.length + 10];
+            System.arraycopy(bytes, 0, padded, 3, bytes.length);
+            if (i % 2 == 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(padded, 3, bytes.length);
+                assertEquals(bytes.length, writer.WriteRaw(buffer));
+                // The caller's buffer is left as it was
+                assertEquals(3, buffer.position());
+            } else {
+                assertEquals(bytes.length, writer.WriteRaw(padded, 3, bytes.length));
+            }
+        }
+    }
+
+    @Test
+    public void writeRawReportsToTheRawCallback() throws Exception {
+        List<StreamableProtoFileWriter.Options> modes = List.of(new StreamableProtoFileWriter.Options(),
+                new StreamableProtoFileWriter.Options().WithBlockCompression(BlockCodecs.GZIP, 64 * 1024));
+        for (int mode = 0; mode < modes.size(); mode++) {
+            StreamableProtoFileWriter.Options options = modes.get(mode);
+            String path = path("raw-" + mode + ".binpb");
+            List<Long> offsets = new ArrayList<>();
+            try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                    new StreamableProtoFileWriter<>(path, HEADER, (offset, p) -> fail("typed callback called"),
+                            (offset, raw) -> {
+                                offsets.add(offset);
+                                assertEquals(payload(offsets.size() - 1), parse(toBytes(raw.GetBytes())));
+                                assertEquals(payload(offsets.size() - 1), raw.Parse());
+                            }, StreamableProtoFileWriterTest::parse, options)) {
+                writeRaw(writer, 200);
+            }
+            assertEquals(200, offsets.size());
+            verify(path, 200);
+            verifyOffsets(path, offsets);
+        }
+    }
+
+    @Test
+    public void writeRawFeedsTheTypedCallbackThroughProtoFactory() throws Exception {
+        String path = path("raw-typed.binpb");
+        List<PricesStreamedFilePayload> reported = new ArrayList<>();
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, HEADER, (offset, p) -> reported.add(p), null,
+                        StreamableProtoFileWriterTest::parse, new StreamableProtoFileWriter.Options())) {
+            writeRaw(writer, 20);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(payload(i), reported.get(i));
+        }
+        verify(path, 20);
+    }
+
+    @Test
+    public void writeRawWithoutCallbacksOrProtoFactory() throws Exception {
+        String path = path("raw-plain.binpb");
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path, HEADER)) {
+            writeRaw(writer, 20);
+        }
+        verify(path, 20);
+
+        // A typed callback cannot be fed without a protoFactory
+        try (StreamableProtoFileWriter<PricesStreamedFileHeader, PricesStreamedFilePayload> writer =
+                new StreamableProtoFileWriter<>(path("raw-unparsable.binpb"), HEADER, (offset, p) -> { })) {
+            byte[] bytes = payload(0).toByteArray();
+            assertThrows(IllegalStateException.class, () -> writer.WriteRaw(bytes, 0, bytes.length));
+            assertThrows(IllegalStateException.class, () -> writer.WriteRaw(ByteBuffer.wrap(bytes)));
+        }
+    }
+
+    static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -8,12 +8,21 @@ MAX_VALUE_SIZE = 8
 NODE_LEAF = 1
 NODE_INTERNAL = 2
 NODE_OVERFLOW = 3
+# Leaf entries hold up to MAX_INLINE_VALUES values themselves; NODE_LEAF entries always use overflow pages.
+# A slot directory of 16-bit entry offsets follows the header.
+NODE_LEAF_INLINE = 4
+# NODE_INTERNAL with a slot directory after the leftmost child
+NODE_INTERNAL_SLOTTED = 5
+SLOT_SIZE = 2
+MAX_INLINE_VALUES = 4
 
 class LeafEntry:
-    def __init__(self, key: bytes, overflow_head: int, overflow_tail: int):
+    def __init__(self, key: bytes, overflow_head: int, overflow_tail: int, values: Optional[List[bytes]] = None):
         self.key = key
         self.overflow_head = overflow_head
         self.overflow_tail = overflow_tail
+        # Values stored in the leaf, or None when they are in the overflow chain
+        self.values = values
 
 class InternalEntry:
     def __init__(self, key: bytes, right_child: int):
@@ -56,11 +65,12 @@ class S3BPlusTreeSeeker:
     def search(self, key: bytes) -> Iterator[bytes]:
         if len(key) > MAX_KEY_SIZE:
             raise ValueError("Key exceeds maximum size")
-        overflow_pages = self._find_overflow(self.get_root_page_id(), key)
-        if not overflow_pages:
+        entry = self._find_entry(self.get_root_page_id(), key)
+        if entry is None:
             return iter([])
-        overflow_page, tail_page = overflow_pages
-        return self._overflow_iterator(overflow_page)
+        if entry.values is not None:
+            return iter(entry.values)
+        return self._overflow_iterator(entry.overflow_head)
 
     def _overflow_iterator(self, overflow_page: int) -> Iterator[bytes]:
         page_id = overflow_page
@@ -78,23 +88,22 @@ class S3BPlusTreeSeeker:
                 yield val
             page_id = struct.unpack_from('>q', buf, PAGE_SIZE - 8)[0]
 
-    def _find_overflow(self, page_id: int, key: bytes) -> Optional[Tuple[int, int]]:
+    def _find_entry(self, page_id: int, key: bytes) -> Optional[LeafEntry]:
         buf = self.get_page(page_id)
         node_type = buf[0]
-        if node_type == NODE_LEAF:
+        if node_type == NODE_LEAF or node_type == NODE_LEAF_INLINE:
             entries = self._read_leaf_entries(buf)
             idx = self._find_key_index(entries, key)
             if idx != -1:
-                entry = entries[idx]
-                return (entry.overflow_head, entry.overflow_tail)
+                return entries[idx]
             return None
-        elif node_type == NODE_INTERNAL:
+        elif node_type == NODE_INTERNAL or node_type == NODE_INTERNAL_SLOTTED:
             leftmost_child, entries = self._read_internal_entries(buf)
             for entry in entries:
                 if key < entry.key:
-                    return self._find_overflow(leftmost_child, key)
+                    return self._find_entry(leftmost_child, key)
                 leftmost_child = entry.right_child
-            return self._find_overflow(leftmost_child, key)
+            return self._find_entry(leftmost_child, key)
         else:
             raise Exception("Unknown page type")
 
@@ -112,14 +121,28 @@ class S3BPlusTreeSeeker:
         return -1
 
     def _read_leaf_entries(self, buf: memoryview) -> List[LeafEntry]:
+        inline = buf[0] == NODE_LEAF_INLINE
         count = struct.unpack_from('>I', buf, 1)[0]
         entries = []
-        pos = 5
+        # Entries follow the slot directory in key order
+        pos = 5 + count * SLOT_SIZE if inline else 5
         for _ in range(count):
             klen = struct.unpack_from('>I', buf, pos)[0]
             pos += 4
             key = bytes(buf[pos:pos+klen])
             pos += klen
+            if inline:
+                # [byte n] then n values of [byte len][value], or the overflow head and tail when n is 0
+                value_count = buf[pos]
+                pos += 1
+                if value_count > 0:
+                    values = []
+                    for _ in range(value_count):
+                        vlen = buf[pos]
+                        values.append(bytes(buf[pos+1:pos+1+vlen]))
+                        pos += 1 + vlen
+                    entries.append(LeafEntry(key, -1, -1, values))
+                    continue
             head = struct.unpack_from('>Q', buf, pos)[0]
             pos += 8
             tail = struct.unpack_from('>Q', buf, pos)[0]
@@ -129,9 +152,8 @@ class S3BPlusTreeSeeker:
 
     def _read_internal_entries(self, buf: memoryview) -> Tuple[int, List[InternalEntry]]:
         count = struct.unpack_from('>I', buf, 1)[0]
-        pos = 5
-        leftmost_child = struct.unpack_from('>Q', buf, pos)[0]
-        pos += 8
+        leftmost_child = struct.unpack_from('>Q', buf, 5)[0]
+        pos = 13 + count * SLOT_SIZE if buf[0] == NODE_INTERNAL_SLOTTED else 13
         entries = []
         for _ in range(count):
             klen = struct.unpack_from('>I', buf, pos)[0]